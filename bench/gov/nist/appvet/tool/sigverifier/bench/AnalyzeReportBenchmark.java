@@ -0,0 +1,59 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.Service;
+import gov.nist.appvet.tool.sigverifier.util.PatternClassifier;
+
+import java.util.List;
+import java.util.Map;
+
+/** Classifies jarsigner output against result pattern lists. */
+public class AnalyzeReportBenchmark extends Benchmark {
+	private String report = null;
+	private PatternClassifier configuredClassifier = null;
+
+	public AnalyzeReportBenchmark() {
+		super("analyzeReport");
+		addParam("output", "small", "medium", "huge");
+		addParam("patterns", "6", "60", "600");
+	}
+
+	@Override
+	protected void setup(Map<String, String> params) {
+		report = Inputs.getJarsignerOutput(params.get("output"));
+		List<String> patterns = Inputs.getPatterns(Integer.parseInt(params
+				.get("patterns")));
+		configuredClassifier = Properties.classifier;
+		Properties.classifier = new PatternClassifier(null, patterns.subList(
+				0, 1), null, patterns.subList(1, patterns.size()));
+	}
+
+	@Override
+	protected Object run() {
+		return Service.analyzeReport(report);
+	}
+
+	@Override
+	protected void tearDown() {
+		Properties.classifier = configuredClassifier;
+	}
+}
@@ -0,0 +1,156 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.ApkVerifier;
+import gov.nist.appvet.tool.sigverifier.VerificationResult;
+import gov.nist.appvet.tool.sigverifier.util.ApkArchive;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the archives of Inputs.getZip() that use the ZIP format's limits
+ * with ApkArchive and checks their entries against java.util.zip.ZipFile.
+ * The in-process verifier must also complete on each of them. Crafted
+ * archives must be rejected with a ZipException, and the verifier must
+ * report them as errors:
+ * 
+ * java gov.nist.appvet.tool.sigverifier.bench.ApkArchiveCheck
+ */
+public class ApkArchiveCheck {
+
+	public static void main(String[] args) throws Exception {
+		Checks checks = new Checks();
+
+		ApkArchive archive = check(checks, "zip64");
+		checks.check(archive.isZip64(), "zip64: not read as ZIP64");
+		checks.check(archive.getEntryCount() == 5, "zip64: "
+				+ archive.getEntryCount() + " entries, expected 5");
+		checkRange(checks, archive, Long.MAX_VALUE - 1, 10);
+		checkRange(checks, archive, 10, Long.MAX_VALUE);
+		archive.close();
+
+		checkRejected(checks, "zip64NoLocator", "locator not found");
+		checkRejected(checks, "zip64NegativeCount", "out of range");
+		checkRejected(checks, "shortZip64Extra", "extra field too short");
+
+		archive = check(checks, "manyEntries");
+		checks.check(archive.isZip64(), "manyEntries: not read as ZIP64");
+		checks.check(archive.getEntryCount() == Inputs.MANY_ENTRIES,
+				"manyEntries: " + archive.getEntryCount() + " entries,"
+						+ " expected " + Inputs.MANY_ENTRIES);
+		archive.close();
+
+		archive = check(checks, "overMappingLimit");
+		checks.check(archive.size() > Integer.MAX_VALUE,
+				"overMappingLimit: " + archive.size() + " bytes");
+		checks.check(archive.getCentralDirectoryOffset() > Integer.MAX_VALUE,
+				"overMappingLimit: central directory at "
+						+ archive.getCentralDirectoryOffset());
+		List<ApkArchive.Entry> entries = archive.getEntries();
+		ApkArchive.Entry zeros = entries.get(0);
+		checks.check(zeros.getUncompressedSize() == Inputs.LARGE_ENTRY_SIZE
+				&& archive.getEntryData(zeros).remaining() == zeros
+						.getUncompressedSize(), "overMappingLimit: size of "
+				+ zeros.getName());
+		ByteBuffer data = archive.getEntryData(entries.get(2));
+		byte[] content = new byte[data.remaining()];
+		data.get(content);
+		checks.check(new String(content, "UTF-8")
+				.equals("content past the mapping limit\n"),
+				"overMappingLimit: content of " + entries.get(2).getName());
+		archive.close();
+		checks.exit();
+	}
+
+	/**
+	 * Checks that a crafted archive is rejected with a ZipException and that
+	 * the verifier reports it as an error instead of throwing.
+	 */
+	private static void checkRejected(Checks checks, String kind,
+			String message) throws Exception {
+		File zip = Inputs.getZip(kind);
+		try {
+			ApkArchive archive = new ApkArchive(zip);
+			try {
+				archive.getEntries();
+			} finally {
+				archive.close();
+			}
+			checks.check(false, kind + ": no ZipException");
+		} catch (ZipException e) {
+			checks.check(e.getMessage().contains(message), kind + ": " + e);
+		}
+		VerificationResult result = ApkVerifier.verify(zip);
+		checks.check(!result.isCompleted(), kind + ": verification completed");
+		System.out.println(kind + ": rejected");
+	}
+
+	/** Checks that a region whose end overflows a long is rejected. */
+	private static void checkRange(Checks checks, ApkArchive archive,
+			long offset, long length) throws Exception {
+		try {
+			archive.getRange(offset, length);
+			checks.check(false, "getRange(" + offset + ", " + length
+					+ "): no ZipException");
+		} catch (ZipException e) {
+			checks.check(true, null);
+		}
+	}
+
+	/**
+	 * Opens an archive and checks that ApkArchive reads the same entry names
+	 * in the same order as ZipFile and that the verifier completes on it.
+	 */
+	private static ApkArchive check(Checks checks, String kind)
+			throws Exception {
+		File zip = Inputs.getZip(kind);
+		List<String> expected = new ArrayList<String>();
+		ZipFile zipFile = new ZipFile(zip);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+				expected.add(zipEntries.nextElement().getName());
+			}
+		} finally {
+			zipFile.close();
+		}
+		ApkArchive archive = new ApkArchive(zip);
+		List<String> names = new ArrayList<String>();
+		for (ApkArchive.Entry entry : archive.getEntries()) {
+			names.add(entry.getName());
+		}
+		checks.check(names.equals(expected), kind + ": " + names.size()
+				+ " entries read, " + expected.size() + " in ZipFile");
+		VerificationResult result = ApkVerifier.verify(zip);
+		checks.check(result.isCompleted(), kind + ": verification failed\n"
+				+ result.getOutput());
+		System.out.println(kind + ": " + names.size() + " entries, "
+				+ archive.size() + " bytes");
+		return archive;
+	}
+}
@@ -0,0 +1,45 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.ApkVerifier;
+
+import java.io.File;
+import java.util.Map;
+
+/** Verifies APKs of different sizes in-process (INTERNAL mode). */
+public class ApkVerifierBenchmark extends Benchmark {
+	private File apk = null;
+
+	public ApkVerifierBenchmark() {
+		super("apkVerifier");
+		addParam("apkMb", "1", "10", "50");
+	}
+
+	@Override
+	protected void setup(Map<String, String> params) throws Exception {
+		apk = Inputs.getApk(params.get("apkMb"));
+	}
+
+	@Override
+	protected Object run() {
+		return ApkVerifier.verify(apk);
+	}
+}
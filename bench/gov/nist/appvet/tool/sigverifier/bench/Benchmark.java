@@ -0,0 +1,69 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A benchmark run by BenchmarkRunner. Each combination of parameter values is
+ * measured separately: setup() is called with the combination, then run() is
+ * called repeatedly and its results are consumed so they cannot be optimized
+ * away.
+ */
+public abstract class Benchmark {
+	private final String name;
+	private final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the parameter names and their values in declaration order. */
+	public Map<String, String[]> getParams() {
+		return Collections.unmodifiableMap(params);
+	}
+
+	protected void addParam(String paramName, String... values) {
+		params.put(paramName, values);
+	}
+
+	void setParam(String paramName, String[] values) {
+		if (params.containsKey(paramName)) {
+			params.put(paramName, values);
+		}
+	}
+
+	/** Prepares the inputs for one parameter combination. */
+	protected void setup(Map<String, String> paramValues) throws Exception {
+	}
+
+	/** Runs one operation and returns its result. */
+	protected abstract Object run() throws Exception;
+
+	/** Releases the inputs of the current parameter combination. */
+	protected void tearDown() throws Exception {
+	}
+}
@@ -0,0 +1,320 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks of the Signature Verifier hot paths and writes the
+ * scores in the JSON layout used by JMH, so runs can be compared across
+ * releases with the usual JMH tooling. Usage:
+ * 
+ * <pre>
+ * java BenchmarkRunner [-wi 3] [-i 5] [-r 1000] [-rf results.json]
+ *     [-p name=value1,value2] [regex ...]
+ * </pre>
+ * 
+ * -wi and -i are the warmup and measurement iteration counts, -r is the length
+ * of an iteration in milliseconds, -p overrides the values of a parameter and
+ * the regular expressions select benchmarks by name. On HotSpot, the bytes
+ * allocated per operation by the benchmark thread are reported as the
+ * gc.alloc.rate.norm secondary metric, as with the JMH gc profiler. The
+ * ANDROID_SIGVERIFIER_FILES_HOME environment variable must point to a
+ * configuration as for the service.
+ */
+public class BenchmarkRunner {
+	/** Student's t quantile for a 99.9% interval, as in JMH score errors. */
+	private static final double T_999 = 3.291;
+	private static volatile int sink = 0;
+
+	private int warmupIterations = 3;
+	private int measurementIterations = 5;
+	private long iterationMillis = 1000;
+	private String resultFile = "bench-results.json";
+	private final Map<String, String[]> paramOverrides = new LinkedHashMap<String, String[]>();
+	private final List<Pattern> includes = new ArrayList<Pattern>();
+	private final List<String> results = new ArrayList<String>();
+	/** com.sun.management.ThreadMXBean.getThreadAllocatedBytes, if present. */
+	private Method getThreadAllocatedBytes = null;
+	private double lastAllocation = Double.NaN;
+
+	public static List<Benchmark> getBenchmarks() {
+		return Arrays.asList(new AnalyzeReportBenchmark(),
+				new HtmlReportBenchmark(), new LoggerBenchmark(),
+				new SaveReportBenchmark(), new ExecuteBenchmark(),
+				new ApkVerifierBenchmark(), new CallbackBenchmark());
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.initAllocationCounter();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-wi")) {
+				runner.warmupIterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-i")) {
+				runner.measurementIterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-r")) {
+				runner.iterationMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-rf")) {
+				runner.resultFile = args[++i];
+			} else if (args[i].equals("-p")) {
+				String[] param = args[++i].split("=", 2);
+				runner.paramOverrides.put(param[0], param[1].split(","));
+			} else {
+				runner.includes.add(Pattern.compile(args[i]));
+			}
+		}
+		for (Benchmark benchmark : getBenchmarks()) {
+			if (runner.isIncluded(benchmark)) {
+				runner.run(benchmark);
+			}
+		}
+		runner.writeResults();
+		// The service configuration starts non-daemon threads
+		System.exit(0);
+	}
+
+	private boolean isIncluded(Benchmark benchmark) {
+		if (includes.isEmpty()) {
+			return true;
+		}
+		for (Pattern include : includes) {
+			if (include.matcher(benchmark.getName()).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void run(Benchmark benchmark) throws Exception {
+		for (Map.Entry<String, String[]> override : paramOverrides.entrySet()) {
+			benchmark.setParam(override.getKey(), override.getValue());
+		}
+		List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+		combinations.add(new LinkedHashMap<String, String>());
+		for (Map.Entry<String, String[]> param : benchmark.getParams()
+				.entrySet()) {
+			List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+			for (Map<String, String> combination : combinations) {
+				for (String value : param.getValue()) {
+					Map<String, String> next = new LinkedHashMap<String, String>(
+							combination);
+					next.put(param.getKey(), value);
+					expanded.add(next);
+				}
+			}
+			combinations = expanded;
+		}
+		for (Map<String, String> combination : combinations) {
+			benchmark.setup(combination);
+			try {
+				for (int i = 0; i < warmupIterations; i++) {
+					iterate(benchmark);
+				}
+				double[] scores = new double[measurementIterations];
+				double[] allocations = new double[measurementIterations];
+				for (int i = 0; i < measurementIterations; i++) {
+					scores[i] = iterate(benchmark);
+					allocations[i] = lastAllocation;
+				}
+				addResult(benchmark, combination, scores, allocations);
+			} finally {
+				benchmark.tearDown();
+			}
+		}
+	}
+
+	private void initAllocationCounter() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		try {
+			Class<?> hotSpotBean = Class
+					.forName("com.sun.management.ThreadMXBean");
+			if (hotSpotBean.isInstance(threadBean)) {
+				getThreadAllocatedBytes = hotSpotBean.getMethod(
+						"getThreadAllocatedBytes", long.class);
+			}
+		} catch (Exception e) {
+			System.err.println("Allocation is not measured: " + e);
+		}
+	}
+
+	private long getAllocatedBytes() throws Exception {
+		if (getThreadAllocatedBytes == null) {
+			return -1;
+		}
+		return ((Long) getThreadAllocatedBytes.invoke(
+				ManagementFactory.getThreadMXBean(), Long.valueOf(Thread
+						.currentThread().getId()))).longValue();
+	}
+
+	/**
+	 * Runs one iteration and returns the average time in us/op. The bytes
+	 * allocated per operation are left in lastAllocation.
+	 */
+	private double iterate(Benchmark benchmark) throws Exception {
+		long operations = 0;
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		long deadline = start + iterationMillis * 1000000L;
+		long now;
+		do {
+			sink ^= System.identityHashCode(benchmark.run());
+			operations++;
+			now = System.nanoTime();
+		} while (now < deadline);
+		long allocatedAfter = getAllocatedBytes();
+		lastAllocation = allocatedBefore < 0 ? Double.NaN
+				: (double) (allocatedAfter - allocatedBefore) / operations;
+		return (now - start) / 1000.0 / operations;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/** Returns the half-width of the 99.9% confidence interval. */
+	private static double error(double[] values) {
+		if (values.length < 2) {
+			return Double.NaN;
+		}
+		double mean = mean(values);
+		double squares = 0;
+		for (double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		return T_999 * Math.sqrt(squares / (values.length - 1))
+				/ Math.sqrt(values.length);
+	}
+
+	private void addResult(Benchmark benchmark, Map<String, String> params,
+			double[] scores, double[] allocations) {
+		double mean = mean(scores);
+		double error = error(scores);
+		double allocation = mean(allocations);
+		System.out.println(String.format(Locale.US,
+				"%-16s %-40s %14.3f +- %10.3f us/op %12.1f B/op",
+				benchmark.getName(), params, mean, error, allocation));
+
+		StringBuilder json = new StringBuilder();
+		json.append("    {\n");
+		json.append("        \"benchmark\" : \"").append(benchmark.getName())
+				.append("\",\n");
+		json.append("        \"mode\" : \"avgt\",\n");
+		json.append("        \"threads\" : 1,\n");
+		json.append("        \"forks\" : 0,\n");
+		json.append("        \"jvm\" : \"")
+				.append(escape(System.getProperty("java.home")))
+				.append("\",\n");
+		json.append("        \"jdkVersion\" : \"")
+				.append(escape(System.getProperty("java.version")))
+				.append("\",\n");
+		json.append("        \"warmupIterations\" : ").append(warmupIterations)
+				.append(",\n");
+		json.append("        \"warmupTime\" : \"").append(iterationMillis)
+				.append(" ms\",\n");
+		json.append("        \"measurementIterations\" : ")
+				.append(measurementIterations).append(",\n");
+		json.append("        \"measurementTime\" : \"").append(iterationMillis)
+				.append(" ms\",\n");
+		json.append("        \"params\" : {");
+		String separator = "\n";
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			json.append(separator).append("            \"")
+					.append(escape(param.getKey())).append("\" : \"")
+					.append(escape(param.getValue())).append("\"");
+			separator = ",\n";
+		}
+		json.append(params.isEmpty() ? "},\n" : "\n        },\n");
+		json.append("        \"primaryMetric\" : {\n");
+		json.append("            \"score\" : ").append(toJson(mean))
+				.append(",\n");
+		json.append("            \"scoreError\" : ").append(toJson(error))
+				.append(",\n");
+		json.append("            \"scoreUnit\" : \"us/op\",\n");
+		json.append("            \"rawData\" : [\n                [");
+		for (int i = 0; i < scores.length; i++) {
+			json.append(i == 0 ? "" : ", ").append(toJson(scores[i]));
+		}
+		json.append("]\n            ]\n        },\n");
+		json.append("        \"secondaryMetrics\" : {");
+		if (!Double.isNaN(allocation)) {
+			json.append("\n            \"gc.alloc.rate.norm\" : {\n");
+			json.append("                \"score\" : ")
+					.append(toJson(allocation)).append(",\n");
+			json.append("                \"scoreError\" : ")
+					.append(toJson(error(allocations))).append(",\n");
+			json.append("                \"scoreUnit\" : \"B/op\",\n");
+			json.append("                \"rawData\" : [\n                    [");
+			for (int i = 0; i < allocations.length; i++) {
+				json.append(i == 0 ? "" : ", ").append(
+						toJson(allocations[i]));
+			}
+			json.append("]\n                ]\n            }\n        ");
+		}
+		json.append("}\n    }");
+		results.add(json.toString());
+	}
+
+	private void writeResults() throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(
+				resultFile), "UTF-8");
+		try {
+			writer.write("[\n");
+			for (int i = 0; i < results.size(); i++) {
+				writer.write(results.get(i));
+				writer.write(i < results.size() - 1 ? ",\n" : "\n");
+			}
+			writer.write("]\n");
+		} finally {
+			writer.close();
+		}
+		System.out.println("Results written to "
+				+ new File(resultFile).getAbsolutePath());
+	}
+
+	private static String toJson(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "\"NaN\"";
+		}
+		return String.format(Locale.US, "%.3f", value);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
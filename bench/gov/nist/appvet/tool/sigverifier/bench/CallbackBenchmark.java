@@ -0,0 +1,102 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.ReportOutbox;
+import gov.nist.appvet.tool.sigverifier.util.FileUtil;
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Delivers a burst of reports through the report outbox to a local stub
+ * AppVet, one request per report (single) or grouped into SUBMIT_REPORTS
+ * requests (batch), optionally gzip-compressed. The score is the time to
+ * deliver the whole burst.
+ */
+public class CallbackBenchmark extends Benchmark {
+	private static final int BATCH_WINDOW = 100;
+	private StubAppVet appVet = null;
+	private ReportOutbox outbox = null;
+	private File template = null;
+	private File staging = null;
+	private int reports = 0;
+	private int sequence = 0;
+	private String appvetUrl = null;
+	private boolean appvetCompression = false;
+
+	public CallbackBenchmark() {
+		super("callback");
+		addParam("mode", "single", "batch");
+		addParam("reports", "50");
+		addParam("latency", "0", "5");
+		addParam("output", "small");
+		addParam("compression", "false");
+	}
+
+	@Override
+	protected void setup(Map<String, String> params) throws Exception {
+		reports = Integer.parseInt(params.get("reports"));
+		appVet = new StubAppVet();
+		appVet.setLatency(Long.parseLong(params.get("latency")));
+		appvetUrl = Properties.appvetUrl;
+		Properties.appvetUrl = appVet.getUrl();
+		appvetCompression = Properties.appvetCompression;
+		Properties.appvetCompression = Boolean.parseBoolean(params
+				.get("compression"));
+		File directory = Files.createTempDirectory(
+				Inputs.getDirectory().toPath(), "outbox").toFile();
+		staging = new File(directory, "staging");
+		staging.mkdirs();
+		template = new File(directory, "report.html");
+		FileUtil.saveReport(Inputs.getJarsignerOutput(params.get("output")),
+				template.getPath());
+		int batchSize = params.get("mode").equals("batch") ? reports : 1;
+		outbox = new ReportOutbox(new File(directory, "outbox"), 2, 3, 1000,
+				1000, batchSize, BATCH_WINDOW);
+		outbox.start();
+	}
+
+	@Override
+	protected Object run() throws Exception {
+		int expected = appVet.getReportCount() + reports;
+		for (int i = 0; i < reports; i++) {
+			File report = new File(staging, "report-" + sequence++ + ".html");
+			Files.copy(template.toPath(), report.toPath());
+			outbox.submit("app" + i, report.getPath(), ToolStatus.LOW);
+		}
+		while (outbox.getPendingCount() > 0
+				|| appVet.getReportCount() < expected) {
+			Thread.sleep(0, 100000);
+		}
+		return Integer.valueOf(appVet.getRequestCount());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		outbox.shutdown();
+		appVet.stop();
+		Properties.appvetUrl = appvetUrl;
+		Properties.appvetCompression = appvetCompression;
+	}
+}
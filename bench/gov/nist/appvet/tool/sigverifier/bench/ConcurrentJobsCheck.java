@@ -0,0 +1,239 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.JobQueue;
+import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.ReportOutbox;
+import gov.nist.appvet.tool.sigverifier.ResultCache;
+import gov.nist.appvet.tool.sigverifier.Service;
+import gov.nist.appvet.tool.sigverifier.VerificationJob;
+import gov.nist.appvet.tool.sigverifier.util.FileUtil;
+import gov.nist.appvet.tool.sigverifier.util.Protocol;
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+import gov.nist.appvet.tool.sigverifier.util.VerifierMode;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs apps through the job queue of a Service under the ASYNCHRONOUS
+ * protocol, with StubAppVet receiving the reports:
+ * <ul>
+ * <li>Different apps are submitted from several threads at once. AppVet
+ * must receive each app's report with its own app ID, status and file name,
+ * and every app directory must be deleted, including those of apps that
+ * failed. Identical APKs are submitted under different app IDs, so some
+ * reports come from the result cache.</li>
+ * <li>Throughput is measured with 1, 2, 4 and 8 workers. Each job also waits
+ * DELAY milliseconds (/Tool/Delay), as a forked command would, so the
+ * workers overlap even on one CPU. Throughput with 8 workers must be at
+ * least twice that with one.</li>
+ * </ul>
+ * 
+ * java gov.nist.appvet.tool.sigverifier.bench.ConcurrentJobsCheck
+ */
+public class ConcurrentJobsCheck {
+	private static final String[] KINDS = { "signed", "sha1",
+			"modifiedEntry", "manifestDigest", "missingSection", "notZip" };
+	private static final ToolStatus[] STATUSES = { ToolStatus.LOW,
+			ToolStatus.LOW, ToolStatus.HIGH, ToolStatus.HIGH, ToolStatus.HIGH,
+			ToolStatus.ERROR };
+	private static final int ROUNDS = 10;
+	private static final int SUBMITTERS = 4;
+	private static final int[] WORKERS = { 1, 2, 4, 8 };
+	private static final int THROUGHPUT_JOBS = 40;
+	private static final int DELAY = 20;
+	private static final long TIMEOUT = 60000;
+
+	public static void main(String[] args) throws Exception {
+		Checks checks = new Checks();
+		if (!Inputs.canSign()) {
+			System.out.println("jarsigner not found. Run with a JDK.");
+			System.exit(1);
+		}
+		StubAppVet appVet = new StubAppVet();
+		Properties.appvetUrl = appVet.getUrl();
+		Properties.protocol = Protocol.ASYNCHRONOUS.name();
+		Properties.verifierMode = VerifierMode.INTERNAL;
+		Properties.keepApps = false;
+		Properties.delay = 0;
+		try {
+			checkReports(checks, appVet);
+			measureThroughput(checks, appVet);
+		} finally {
+			appVet.stop();
+		}
+		checks.exit();
+	}
+
+	/** Submits different apps at once and checks each app's report. */
+	private static void checkReports(Checks checks, StubAppVet appVet)
+			throws Exception {
+		File[] apks = new File[KINDS.length];
+		for (int i = 0; i < KINDS.length; i++) {
+			if (KINDS[i].equals("notZip")) {
+				apks[i] = new File(Inputs.getDirectory(), "notZip.apk");
+				apks[i].deleteOnExit();
+				FileUtil.saveReport("This is not a ZIP archive.",
+						apks[i].getPath());
+			} else {
+				apks[i] = Inputs.getSignedApk(KINDS[i]);
+			}
+		}
+		final VerificationJob[] jobs = new VerificationJob[KINDS.length
+				* ROUNDS];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = newJob("concurrent" + i, KINDS[i % KINDS.length] + "-"
+					+ i + ".apk", apks[i % KINDS.length]);
+		}
+		JobQueue jobQueue = new JobQueue(SUBMITTERS * 2, jobs.length);
+		ReportOutbox outbox = newOutbox(10, 100);
+		final Service service = new Service(jobQueue, outbox,
+				new ResultCache(100, 1 << 20, 0));
+
+		// Each submitter queues every SUBMITTERS-th job, all starting at once
+		final CountDownLatch start = new CountDownLatch(1);
+		final boolean[] queued = new boolean[jobs.length];
+		Thread[] submitters = new Thread[SUBMITTERS];
+		for (int s = 0; s < SUBMITTERS; s++) {
+			final int first = s;
+			submitters[s] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = first; i < jobs.length; i += SUBMITTERS) {
+						queued[i] = service.submit(jobs[i]);
+					}
+				}
+			});
+			submitters[s].start();
+		}
+		int expected = appVet.getReportCount() + jobs.length;
+		start.countDown();
+		for (Thread submitter : submitters) {
+			submitter.join();
+		}
+		waitForReports(appVet, expected);
+		jobQueue.shutdown(TIMEOUT);
+		outbox.shutdown();
+
+		checks.check(appVet.getReportCount() == expected, "received "
+				+ appVet.getReportCount() + " reports, expected " + expected);
+		for (int i = 0; i < jobs.length; i++) {
+			VerificationJob job = jobs[i];
+			checks.check(queued[i], job + ": not queued");
+			ToolStatus expectedStatus = STATUSES[i % KINDS.length];
+			String status = appVet.getStatus(job.getAppId());
+			checks.check(expectedStatus.name().equals(status), job
+					+ ": status " + status + ", expected " + expectedStatus);
+			String report = appVet.getReport(job.getAppId());
+			checks.check(report != null
+					&& report.contains(job.getFileName()), job
+					+ ": report is not for " + job.getFileName());
+			checks.check(!new File(job.getAppDirPath()).exists(), job
+					+ ": app directory not deleted");
+		}
+		System.out.println(jobs.length + " apps, " + appVet.getRequestCount()
+				+ " requests");
+	}
+
+	/**
+	 * Measures the throughput of the same jobs with more and more workers
+	 * and checks that it grows.
+	 */
+	private static void measureThroughput(Checks checks, StubAppVet appVet)
+			throws Exception {
+		File apk = Inputs.getSignedApk("signed");
+		ReportOutbox outbox = newOutbox(1, 0);
+		Properties.delay = DELAY;
+		double[] throughputs = new double[WORKERS.length];
+		try {
+			for (int w = 0; w < WORKERS.length; w++) {
+				VerificationJob[] jobs = new VerificationJob[THROUGHPUT_JOBS];
+				for (int i = 0; i < jobs.length; i++) {
+					jobs[i] = newJob("throughput" + WORKERS[w] + "-" + i,
+							"signed-" + i + ".apk", apk);
+				}
+				// No result cache, so every job verifies its app
+				JobQueue jobQueue = new JobQueue(WORKERS[w], jobs.length);
+				Service service = new Service(jobQueue, outbox, null);
+				int expected = appVet.getReportCount() + jobs.length;
+				long start = System.nanoTime();
+				for (VerificationJob job : jobs) {
+					service.submit(job);
+				}
+				waitForReports(appVet, expected);
+				long elapsed = System.nanoTime() - start;
+				jobQueue.shutdown(TIMEOUT);
+				checks.check(appVet.getReportCount() == expected, WORKERS[w]
+						+ " workers: received " + appVet.getReportCount()
+						+ " reports, expected " + expected);
+				throughputs[w] = jobs.length * 1e9 / elapsed;
+				System.out.println(String.format(
+						"%d workers: %.1f apps/s", WORKERS[w], throughputs[w]));
+			}
+		} finally {
+			Properties.delay = 0;
+			outbox.shutdown();
+		}
+		int last = WORKERS.length - 1;
+		checks.check(throughputs[last] >= 2 * throughputs[0], String.format(
+				"%d workers: %.1f apps/s, not twice the %.1f apps/s of 1",
+				WORKERS[last], throughputs[last], throughputs[0]));
+	}
+
+	/** Copies an APK to its app directory as Service does for an upload. */
+	private static VerificationJob newJob(String appId, String fileName,
+			File apk) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		String sha256 = FileUtil.toHex(md.digest(Files.readAllBytes(apk
+				.toPath())));
+		VerificationJob job = new VerificationJob(appId, fileName, sha256,
+				apk.length());
+		new File(job.getAppDirPath()).mkdirs();
+		Files.copy(apk.toPath(), new File(job.getAppFilePath()).toPath());
+		return job;
+	}
+
+	private static ReportOutbox newOutbox(int batchSize, long batchWindow)
+			throws Exception {
+		ReportOutbox outbox = new ReportOutbox(Files.createTempDirectory(
+				Inputs.getDirectory().toPath(), "outbox").toFile(), 4, 3,
+				1000, 1000, batchSize, batchWindow);
+		outbox.start();
+		return outbox;
+	}
+
+	private static void waitForReports(StubAppVet appVet, int expected)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (appVet.getReportCount() < expected
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+}
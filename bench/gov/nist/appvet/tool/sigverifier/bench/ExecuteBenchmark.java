@@ -0,0 +1,85 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.Service;
+import gov.nist.appvet.tool.sigverifier.util.OutputCapture;
+import gov.nist.appvet.tool.sigverifier.util.PatternClassifier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Runs a command through Service.execute() the way jarsigner is run in
+ * COMMAND mode. The command prints saved jarsigner output, so the score is the
+ * cost of forking the process and capturing and classifying its output.
+ */
+public class ExecuteBenchmark extends Benchmark {
+	private Method execute = null;
+	private String command = null;
+	private int memoryThreshold = 0;
+
+	public ExecuteBenchmark() {
+		super("execute");
+		addParam("output", "small", "medium", "huge");
+		addParam("capture", "memory", "file");
+	}
+
+	@Override
+	protected void setup(Map<String, String> params) throws Exception {
+		File outputFile = new File(Inputs.getDirectory(), "jarsigner-"
+				+ params.get("output") + ".txt");
+		outputFile.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(
+				outputFile), "UTF-8");
+		try {
+			writer.write(Inputs.getJarsignerOutput(params.get("output")));
+		} finally {
+			writer.close();
+		}
+		command = "cat " + outputFile.getPath();
+		// "file" moves all output to a file in the benchmark directory
+		memoryThreshold = params.get("capture").equals("file") ? 0
+				: Integer.MAX_VALUE;
+		execute = Service.class.getDeclaredMethod("execute", String.class,
+				OutputCapture.class, PatternClassifier.Session.class);
+		execute.setAccessible(true);
+	}
+
+	@Override
+	protected Object run() throws Exception {
+		OutputCapture output = new OutputCapture(Properties.commandCharset,
+				Properties.commandOutputLimit, memoryThreshold,
+				Inputs.getDirectory());
+		try {
+			PatternClassifier.Session session = Properties.classifier
+					.newSession();
+			execute.invoke(null, command, output, session);
+			return Service.analyzeReport(session);
+		} finally {
+			output.close();
+		}
+	}
+}
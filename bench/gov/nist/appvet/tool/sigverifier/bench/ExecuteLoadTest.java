@@ -0,0 +1,199 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.JobQueue;
+import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.Service;
+import gov.nist.appvet.tool.sigverifier.util.OutputCapture;
+import gov.nist.appvet.tool.sigverifier.util.PatternClassifier;
+import gov.nist.appvet.tool.sigverifier.util.ServiceThreads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many slow commands through Service.execute() on the job queue at once
+ * and reports throughput, the peak number of platform threads and the peak
+ * resident set size. Each command prints saved jarsigner output and then
+ * sleeps, like a verification that waits on I/O. Run it once with
+ * -virtual false and once with -virtual true on Java 21 or later:
+ * 
+ * java gov.nist.appvet.tool.sigverifier.bench.ExecuteLoadTest \
+ *     [-virtual true] [-jobs 2000] [-workers 500] [-sleep 0.5]
+ */
+public class ExecuteLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		boolean virtual = false;
+		int jobs = 2000;
+		int workers = 500;
+		String sleep = "0.5";
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-virtual")) {
+				virtual = Boolean.parseBoolean(args[++i]);
+			} else if (args[i].equals("-jobs")) {
+				jobs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-workers")) {
+				workers = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-sleep")) {
+				sleep = args[++i];
+			}
+		}
+		// Must be set before Service creates its output draining threads
+		Properties.virtualThreads = virtual;
+		final String command = createCommand(sleep);
+		final Method execute = Service.class.getDeclaredMethod("execute",
+				String.class, OutputCapture.class,
+				PatternClassifier.Session.class);
+		execute.setAccessible(true);
+
+		Sampler sampler = new Sampler();
+		sampler.start();
+		JobQueue jobQueue = new JobQueue(workers, jobs);
+		final CountDownLatch done = new CountDownLatch(jobs);
+		final AtomicInteger succeeded = new AtomicInteger();
+		long start = System.nanoTime();
+		for (int i = 0; i < jobs; i++) {
+			jobQueue.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						PatternClassifier.Session session = Properties.classifier
+								.newSession();
+						OutputCapture output = new OutputCapture(
+								Properties.commandCharset,
+								Properties.commandOutputLimit);
+						if (((Boolean) execute.invoke(null, command, output,
+								session)).booleanValue()
+								&& Service.analyzeReport(session) != null) {
+							succeeded.incrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		sampler.interrupt();
+		sampler.join();
+		jobQueue.shutdown(1000);
+
+		System.out.println(String.format("threads=%s jobs=%d workers=%d "
+				+ "succeeded=%d time=%.2f s throughput=%.1f jobs/s "
+				+ "peakPlatformThreads=%d peakRss=%s",
+				ServiceThreads.isVirtual() ? "virtual" : "platform", jobs,
+				workers, succeeded.get(), seconds, jobs / seconds,
+				sampler.peakThreads, sampler.peakRssKb < 0 ? "n/a"
+						: (sampler.peakRssKb / 1024) + " MB"));
+		System.exit(0);
+	}
+
+	/** Writes a script that prints jarsigner output and sleeps. */
+	private static String createCommand(String sleep) throws IOException {
+		File directory = Inputs.getDirectory();
+		File output = new File(directory, "load-output.txt");
+		output.deleteOnExit();
+		write(output, Inputs.getJarsignerOutput("small"));
+		File script = new File(directory, "load-command.sh");
+		script.deleteOnExit();
+		write(script, "#!/bin/sh\ncat " + output.getPath() + "\nsleep "
+				+ sleep + "\n");
+		script.setExecutable(true);
+		return script.getPath();
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/** Samples the platform thread count and RSS every 20 ms. */
+	private static class Sampler extends Thread {
+		private final ThreadMXBean threads = ManagementFactory
+				.getThreadMXBean();
+		volatile int peakThreads = 0;
+		volatile long peakRssKb = -1;
+
+		Sampler() {
+			super("load-sampler");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				// Virtual threads are not counted, only their carriers
+				peakThreads = Math.max(peakThreads, threads.getThreadCount());
+				peakRssKb = Math.max(peakRssKb, getRssKb());
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		/** Returns VmRSS from /proc/self/status, or -1 if unavailable. */
+		private static long getRssKb() {
+			File status = new File("/proc/self/status");
+			if (!status.exists()) {
+				return -1;
+			}
+			try {
+				BufferedReader reader = new BufferedReader(new FileReader(
+						status));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.startsWith("VmRSS:")) {
+							return Long.parseLong(line.substring(6)
+									.replace("kB", "").trim());
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				// Fall through
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.util.FileUtil;
+import gov.nist.appvet.tool.sigverifier.util.OutputCapture;
+import gov.nist.appvet.tool.sigverifier.util.ReportUtil;
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Renders the HTML report for jarsigner output and saves it to the report
+ * file, either built as a String first (string) or rendered straight to the
+ * file (stream), with the output kept in memory or in a file.
+ */
+public class HtmlReportBenchmark extends Benchmark {
+	private static final String LOW = "Description: \tApp is signed.\n\n";
+	private static final String MODERATE = "Description: \tApp is unsigned or incorrectly signed.\n\n";
+	private static final String HIGH = MODERATE;
+	private static final String ERROR = "Description: \tError or exception processing app.\n\n";
+	private OutputCapture report = null;
+	private boolean stream = false;
+	private String reportPath = null;
+
+	public HtmlReportBenchmark() {
+		super("getHtmlReport");
+		addParam("output", "small", "medium", "huge");
+		addParam("target", "string", "stream");
+		addParam("capture", "memory", "file");
+	}
+
+	@Override
+	protected void setup(Map<String, String> params) throws Exception {
+		// Service collects command output in an OutputCapture. "file" moves
+		// it all to a file in the benchmark directory.
+		int memoryThreshold = params.get("capture").equals("file") ? 0
+				: Integer.MAX_VALUE;
+		report = new OutputCapture(Charset.forName("UTF-8"),
+				Integer.MAX_VALUE, memoryThreshold, Inputs.getDirectory());
+		report.append(Inputs.getJarsignerOutput(params.get("output")));
+		stream = params.get("target").equals("stream");
+		File reportFile = new File(Inputs.getDirectory(), "report.html");
+		reportFile.deleteOnExit();
+		reportPath = reportFile.getPath();
+	}
+
+	@Override
+	protected Object run() {
+		if (stream) {
+			return Boolean.valueOf(FileUtil.saveReport(ReportUtil
+					.getHtmlRenderer("app.apk", ToolStatus.LOW, report, LOW,
+							MODERATE, HIGH, ERROR), reportPath));
+		}
+		String html = ReportUtil.getHtmlReport(null, "app.apk",
+				ToolStatus.LOW, report.toString(), LOW, MODERATE, HIGH, ERROR);
+		return Boolean.valueOf(FileUtil.saveReport(html, reportPath));
+	}
+
+	@Override
+	protected void tearDown() {
+		report.close();
+	}
+}
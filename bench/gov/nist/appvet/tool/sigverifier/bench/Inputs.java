@@ -0,0 +1,582 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates realistic benchmark inputs: verbose jarsigner output, APKs of a
+ * given size, small signed APKs that are tampered with in the ways the
+ * verifier must reject and archives that use the ZIP format's limits. Inputs
+ * are generated once per JVM and reused.
+ */
+final class Inputs {
+	private static final Map<String, String> outputs = new HashMap<String, String>();
+	private static final Map<String, File> apks = new HashMap<String, File>();
+	private static File directory = null;
+
+	/** Returns the number of signed entries in a jarsigner output size. */
+	static int getEntryCount(String size) {
+		if (size.equals("small")) {
+			return 20;
+		} else if (size.equals("medium")) {
+			return 2000;
+		} else if (size.equals("huge")) {
+			return 50000;
+		}
+		return Integer.parseInt(size);
+	}
+
+	/**
+	 * Returns the output of jarsigner -verify -verbose -certs for an APK
+	 * with the given number of entries ("small", "medium", "huge" or a
+	 * number).
+	 */
+	static synchronized String getJarsignerOutput(String size) {
+		String output = outputs.get(size);
+		if (output != null) {
+			return output;
+		}
+		int entryCount = getEntryCount(size);
+		Random random = new Random(entryCount);
+		StringBuilder builder = new StringBuilder();
+		builder.append("s k      1543 Tue Jan 01 00:00:00 UTC 2008 META-INF/MANIFEST.MF\n");
+		builder.append("         1596 Tue Jan 01 00:00:00 UTC 2008 META-INF/CERT.SF\n");
+		builder.append("         1107 Tue Jan 01 00:00:00 UTC 2008 META-INF/CERT.RSA\n");
+		for (int i = 0; i < entryCount; i++) {
+			builder.append("sm   ").append(String.format("%8d", random.nextInt(200000)))
+					.append(" Tue Jan 01 00:00:00 UTC 2008 res/drawable-hdpi/image_")
+					.append(i).append(".png\n\n");
+			builder.append("      X.509, CN=Android Debug, O=Android, C=US\n");
+			builder.append("      [certificate is valid from 1/1/20 12:00 AM to 12/31/49 11:59 PM]\n\n");
+		}
+		builder.append("\n  s = signature was verified \n");
+		builder.append("  m = entry is listed in manifest\n");
+		builder.append("  k = at least one certificate was found in keystore\n");
+		builder.append("  i = at least one certificate was found in identity scope\n\n");
+		builder.append("- Signed by \"CN=Android Debug, O=Android, C=US\"\n");
+		builder.append("    Digest algorithm: SHA-256\n");
+		builder.append("    Signature algorithm: SHA256withRSA, 2048-bit key\n\n");
+		builder.append("jar verified.\n\n");
+		builder.append("Warning: \n");
+		builder.append("This jar contains entries whose certificate chain is not validated.\n");
+		builder.append("This jar contains signatures that does not include a timestamp.\n");
+		output = builder.toString();
+		outputs.put(size, output);
+		return output;
+	}
+
+	/**
+	 * Returns the given number of result patterns: the Low and High results
+	 * of the default configuration followed by patterns that never match.
+	 */
+	static List<String> getPatterns(int count) {
+		List<String> patterns = new ArrayList<String>();
+		patterns.add("java.lang.SecurityException");
+		patterns.add("jar verified.");
+		patterns.add("jar contains unsigned entries which have not been integrity-checked");
+		patterns.add("jar contains entries whose signer certificate has expired");
+		patterns.add("jar contains entries whose certificate chain is not validated");
+		patterns.add("jar contains signatures that does not include a timestamp");
+		for (int i = patterns.size(); i < count; i++) {
+			patterns.add("unmatched result string " + i);
+		}
+		return patterns.subList(0, Math.min(count, patterns.size()));
+	}
+
+	/** Returns a directory for generated files, deleted on exit. */
+	static synchronized File getDirectory() throws IOException {
+		if (directory == null) {
+			directory = File.createTempFile("sigverifier-bench", "");
+			directory.delete();
+			directory.mkdirs();
+			directory.deleteOnExit();
+		}
+		return directory;
+	}
+
+	/**
+	 * Returns an APK of about the given size in megabytes, with a mix of
+	 * stored and compressible entries. The APK is signed with jarsigner from
+	 * the running JDK if it is available.
+	 */
+	static synchronized File getApk(String sizeMb) throws Exception {
+		File apk = apks.get(sizeMb);
+		if (apk != null) {
+			return apk;
+		}
+		apk = new File(getDirectory(), "app-" + sizeMb + "mb.apk");
+		apk.deleteOnExit();
+		long targetSize = (long) (Double.parseDouble(sizeMb) * 1024 * 1024);
+		Random random = new Random(targetSize);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk));
+		try {
+			byte[] content = new byte[64 * 1024];
+			long written = 0;
+			for (int i = 0; written < targetSize; i++) {
+				ZipEntry entry = new ZipEntry("res/raw/asset_" + i + ".bin");
+				if (i % 2 == 0) {
+					// Random bytes, stored as media files are in APKs
+					random.nextBytes(content);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(content.length);
+					entry.setCompressedSize(content.length);
+					CRC32 crc = new CRC32();
+					crc.update(content);
+					entry.setCrc(crc.getValue());
+					written += content.length;
+				} else {
+					// Compressible text, like dex files and layouts
+					for (int j = 0; j < content.length; j++) {
+						content[j] = (byte) ('a' + random.nextInt(8));
+					}
+					written += content.length / 3;
+				}
+				out.putNextEntry(entry);
+				out.write(content);
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		sign(apk, "SHA-256", "SHA256withRSA");
+		apks.put(sizeMb, apk);
+		return apk;
+	}
+
+	/** Returns true if jarsigner and keytool of the running JDK are found. */
+	static boolean canSign() {
+		File bin = getJdkBin();
+		return new File(bin, "jarsigner").exists()
+				&& new File(bin, "keytool").exists();
+	}
+
+	/** Returns the jarsigner of the running JDK, or null if not found. */
+	static String getJarsigner() {
+		return canSign() ? new File(getJdkBin(), "jarsigner").getPath() : null;
+	}
+
+	/**
+	 * Returns a small signed APK, intact or tampered with after signing:
+	 * <ul>
+	 * <li>signed: signed with SHA-256 and SHA256withRSA.</li>
+	 * <li>sha1: signed with SHA-1 and SHA1withRSA, which the JDK disables
+	 * for signed JARs.</li>
+	 * <li>modifiedEntry: an entry is changed after signing.</li>
+	 * <li>manifestDigest: an entry is changed and its digest is updated in
+	 * MANIFEST.MF, so only the signature file section catches it.</li>
+	 * <li>missingSection: the manifest section of a signed entry is
+	 * removed.</li>
+	 * <li>duplicateEntry: a changed copy of a signed entry is added before
+	 * it under the same name.</li>
+	 * </ul>
+	 * Requires jarsigner (see canSign()).
+	 */
+	static synchronized File getSignedApk(String kind) throws Exception {
+		File apk = apks.get(kind);
+		if (apk != null) {
+			return apk;
+		}
+		apk = new File(getDirectory(), "app-" + kind + ".apk");
+		apk.deleteOnExit();
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for (int i = 1; i <= 5; i++) {
+			entries.put("res/raw/t" + i + ".txt",
+					("content of entry " + i + "\n").getBytes("UTF-8"));
+		}
+		writeZip(apk, entries);
+		if (kind.equals("sha1")) {
+			sign(apk, "SHA-1", "SHA1withRSA");
+		} else {
+			sign(apk, "SHA-256", "SHA256withRSA");
+		}
+		String tampered = "res/raw/t5.txt";
+		if (kind.equals("modifiedEntry") || kind.equals("manifestDigest")) {
+			entries = readZip(apk);
+			byte[] content = "tampered content\n".getBytes("UTF-8");
+			entries.put(tampered, content);
+			if (kind.equals("manifestDigest")) {
+				String digest = Base64.getEncoder().encodeToString(
+						MessageDigest.getInstance("SHA-256").digest(content));
+				String manifest = new String(
+						entries.get("META-INF/MANIFEST.MF"), "UTF-8");
+				entries.put("META-INF/MANIFEST.MF", manifest.replaceFirst(
+						"(Name: " + Pattern.quote(tampered)
+								+ "\r\n)SHA-256-Digest: \\S+",
+						"$1SHA-256-Digest: " + digest).getBytes("UTF-8"));
+			}
+			writeZip(apk, entries);
+		} else if (kind.equals("missingSection")) {
+			entries = readZip(apk);
+			String manifest = new String(entries.get("META-INF/MANIFEST.MF"),
+					"UTF-8");
+			entries.put("META-INF/MANIFEST.MF", manifest.replaceFirst(
+					"Name: " + Pattern.quote(tampered)
+					+ "\r\n[^\r]*\r\n\r\n", "")
+					.getBytes("UTF-8"));
+			writeZip(apk, entries);
+		} else if (kind.equals("duplicateEntry")) {
+			// ZipOutputStream rejects duplicate names, so the copy is
+			// written under a name of the same length and renamed after
+			Map<String, byte[]> signed = readZip(apk);
+			String placeholder = "res/raw/t0.txt";
+			entries = new LinkedHashMap<String, byte[]>();
+			entries.put(placeholder, "tampered content\n".getBytes("UTF-8"));
+			entries.putAll(signed);
+			writeZip(apk, entries);
+			String bytes = new String(Files.readAllBytes(apk.toPath()),
+					"ISO-8859-1");
+			Files.write(apk.toPath(), bytes.replace(placeholder, tampered)
+					.getBytes("ISO-8859-1"));
+		} else if (!kind.equals("signed") && !kind.equals("sha1")) {
+			throw new IllegalArgumentException("Unknown APK kind " + kind);
+		}
+		apks.put(kind, apk);
+		return apk;
+	}
+
+	/** The number of entries of the manyEntries archive. */
+	static final int MANY_ENTRIES = 70000;
+
+	/** The size of each zeros entry of the overMappingLimit archive. */
+	static final long LARGE_ENTRY_SIZE = (1L << 30) + (1 << 20);
+
+	/**
+	 * Returns an unsigned archive that uses the ZIP format's limits:
+	 * <ul>
+	 * <li>zip64: five entries with a ZIP64 End of Central Directory record,
+	 * found through the ZIP64 locator. The End of Central Directory fields
+	 * are all set to their ZIP64 markers.</li>
+	 * <li>zip64NoLocator: the same End of Central Directory without the
+	 * ZIP64 record and locator.</li>
+	 * <li>zip64NegativeCount: the zip64 archive with an entry count of -1
+	 * in its ZIP64 record.</li>
+	 * <li>shortZip64Extra: an entry whose ZIP64 extra field is too short for
+	 * the size it replaces.</li>
+	 * <li>manyEntries: MANY_ENTRIES entries, more than the 65,535 the End of
+	 * Central Directory can count. ZipOutputStream adds the ZIP64 records.
+	 * </li>
+	 * <li>overMappingLimit: two stored entries of LARGE_ENTRY_SIZE zeros
+	 * followed by a small entry, so the file is larger than the 2 GB that
+	 * one memory mapping can hold and the small entry and central directory
+	 * lie past it. The zeros are left as holes in a sparse file.</li>
+	 * </ul>
+	 */
+	static synchronized File getZip(String kind) throws Exception {
+		File zip = apks.get(kind);
+		if (zip != null) {
+			return zip;
+		}
+		zip = new File(getDirectory(), "zip-" + kind + ".apk");
+		zip.deleteOnExit();
+		if (kind.equals("zip64") || kind.equals("zip64NoLocator")
+				|| kind.equals("zip64NegativeCount")) {
+			Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+			for (int i = 1; i <= 5; i++) {
+				entries.put("res/raw/t" + i + ".txt", ("content of entry " + i
+						+ "\n").getBytes("UTF-8"));
+			}
+			writeZip(zip, entries);
+			byte[] bytes = Files.readAllBytes(zip.toPath());
+			long recordOffset = bytes.length - 22;
+			bytes = toZip64(bytes, !kind.equals("zip64NoLocator"));
+			if (kind.equals("zip64NegativeCount")) {
+				ByteBuffer record = ByteBuffer.wrap(bytes).order(
+						ByteOrder.LITTLE_ENDIAN);
+				record.putLong((int) recordOffset + 24, -1);
+				record.putLong((int) recordOffset + 32, -1);
+			}
+			Files.write(zip.toPath(), bytes);
+		} else if (kind.equals("shortZip64Extra")) {
+			writeShortZip64Extra(zip);
+		} else if (kind.equals("manyEntries")) {
+			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+					zip));
+			try {
+				for (int i = 0; i < MANY_ENTRIES; i++) {
+					out.putNextEntry(new ZipEntry("res/raw/e" + i + ".txt"));
+					out.write(("entry " + i).getBytes("UTF-8"));
+					out.closeEntry();
+				}
+			} finally {
+				out.close();
+			}
+		} else if (kind.equals("overMappingLimit")) {
+			writeLargeZip(zip);
+		} else {
+			throw new IllegalArgumentException("Unknown archive kind " + kind);
+		}
+		apks.put(kind, zip);
+		return zip;
+	}
+
+	/**
+	 * Rewrites the end of a ZIP archive without a comment so that the End of
+	 * Central Directory defers to a ZIP64 End of Central Directory record.
+	 * If locator is false, the ZIP64 record and locator are left out.
+	 */
+	private static byte[] toZip64(byte[] zip, boolean locator) {
+		ByteBuffer eocd = ByteBuffer.wrap(zip, zip.length - 22, 22).slice()
+				.order(ByteOrder.LITTLE_ENDIAN);
+		long entryCount = eocd.getShort(10) & 0xffff;
+		long centralDirSize = eocd.getInt(12) & 0xffffffffL;
+		long centralDirOffset = eocd.getInt(16) & 0xffffffffL;
+		long recordOffset = zip.length - 22;
+		ByteBuffer out = ByteBuffer.allocate(zip.length + 56 + 20).order(
+				ByteOrder.LITTLE_ENDIAN);
+		out.put(zip, 0, zip.length - 22);
+		if (locator) {
+			out.putInt(0x06064b50).putLong(44).putShort((short) 45)
+					.putShort((short) 45).putInt(0).putInt(0)
+					.putLong(entryCount).putLong(entryCount)
+					.putLong(centralDirSize).putLong(centralDirOffset);
+			out.putInt(0x07064b50).putInt(0).putLong(recordOffset).putInt(1);
+		}
+		out.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+				.putShort((short) 0xffff).putShort((short) 0xffff)
+				.putInt(0xffffffff).putInt(0xffffffff).putShort((short) 0);
+		byte[] bytes = new byte[out.position()];
+		out.flip();
+		out.get(bytes);
+		return bytes;
+	}
+
+	/** Writes the overMappingLimit archive as a sparse file. */
+	private static void writeLargeZip(File zip) throws IOException {
+		CRC32 zerosCrc = new CRC32();
+		byte[] zeros = new byte[1 << 20];
+		for (long i = 0; i < LARGE_ENTRY_SIZE; i += zeros.length) {
+			zerosCrc.update(zeros);
+		}
+		byte[] small = "content past the mapping limit\n".getBytes("UTF-8");
+		CRC32 smallCrc = new CRC32();
+		smallCrc.update(small);
+		String[] names = { "assets/zeros0.bin", "assets/zeros1.bin",
+				"assets/small.txt" };
+		long[] crcs = { zerosCrc.getValue(), zerosCrc.getValue(),
+				smallCrc.getValue() };
+		long[] sizes = { LARGE_ENTRY_SIZE, LARGE_ENTRY_SIZE, small.length };
+		long[] offsets = new long[names.length];
+		RandomAccessFile out = new RandomAccessFile(zip, "rw");
+		try {
+			out.setLength(0);
+			for (int i = 0; i < names.length; i++) {
+				offsets[i] = out.getFilePointer();
+				out.write(getLocalHeader(names[i], crcs[i], sizes[i]));
+				if (i == names.length - 1) {
+					out.write(small);
+				} else {
+					// Skipped bytes read as zeros and take no disk space
+					out.seek(out.getFilePointer() + sizes[i]);
+				}
+			}
+			long centralDirOffset = out.getFilePointer();
+			for (int i = 0; i < names.length; i++) {
+				out.write(getCentralDirEntry(names[i], crcs[i], sizes[i],
+						sizes[i], offsets[i], new byte[0]));
+			}
+			out.write(getEndOfCentralDir(names.length, out.getFilePointer()
+					- centralDirOffset, centralDirOffset));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the shortZip64Extra archive: one stored entry whose
+	 * uncompressed size is deferred to a ZIP64 extra field that holds 4 of
+	 * the 8 bytes.
+	 */
+	private static void writeShortZip64Extra(File zip) throws IOException {
+		String name = "res/raw/t1.txt";
+		byte[] content = "content of entry 1\n".getBytes("UTF-8");
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		byte[] localHeader = getLocalHeader(name, crc.getValue(),
+				content.length);
+		byte[] extra = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+				.putShort((short) 1).putShort((short) 4).putInt(0).array();
+		byte[] centralDir = getCentralDirEntry(name, crc.getValue(),
+				content.length, 0xffffffffL, 0, extra);
+		long centralDirOffset = localHeader.length + content.length;
+		FileOutputStream out = new FileOutputStream(zip);
+		try {
+			out.write(localHeader);
+			out.write(content);
+			out.write(centralDir);
+			out.write(getEndOfCentralDir(1, centralDir.length,
+					centralDirOffset));
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Returns the local file header of a stored entry. */
+	private static byte[] getLocalHeader(String name, long crc, long size)
+			throws IOException {
+		byte[] nameBytes = name.getBytes("UTF-8");
+		return ByteBuffer.allocate(30 + nameBytes.length)
+				.order(ByteOrder.LITTLE_ENDIAN).putInt(0x04034b50)
+				.putShort((short) 10).putShort((short) 0).putShort((short) 0)
+				.putInt(0).putInt((int) crc).putInt((int) size)
+				.putInt((int) size).putShort((short) nameBytes.length)
+				.putShort((short) 0).put(nameBytes).array();
+	}
+
+	/** Returns the central directory entry of a stored entry. */
+	private static byte[] getCentralDirEntry(String name, long crc,
+			long compressedSize, long uncompressedSize, long offset,
+			byte[] extra) throws IOException {
+		byte[] nameBytes = name.getBytes("UTF-8");
+		return ByteBuffer.allocate(46 + nameBytes.length + extra.length)
+				.order(ByteOrder.LITTLE_ENDIAN).putInt(0x02014b50)
+				.putShort((short) 20).putShort((short) 10)
+				.putShort((short) 0).putShort((short) 0).putInt(0)
+				.putInt((int) crc).putInt((int) compressedSize)
+				.putInt((int) uncompressedSize)
+				.putShort((short) nameBytes.length)
+				.putShort((short) extra.length).putShort((short) 0)
+				.putShort((short) 0).putShort((short) 0).putInt(0)
+				.putInt((int) offset).put(nameBytes).put(extra).array();
+	}
+
+	/** Returns an End of Central Directory record without a comment. */
+	private static byte[] getEndOfCentralDir(int entryCount,
+			long centralDirSize, long centralDirOffset) {
+		return ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+				.putShort((short) entryCount).putShort((short) entryCount)
+				.putInt((int) centralDirSize).putInt((int) centralDirOffset)
+				.putShort((short) 0).array();
+	}
+
+	private static Map<String, byte[]> readZip(File file) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipFile zip = new ZipFile(file);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry entry = zipEntries.nextElement();
+				if (entry.isDirectory()) {
+					continue;
+				}
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				InputStream in = zip.getInputStream(entry);
+				try {
+					byte[] buffer = new byte[8192];
+					int length;
+					while ((length = in.read(buffer)) > 0) {
+						content.write(buffer, 0, length);
+					}
+				} finally {
+					in.close();
+				}
+				entries.put(entry.getName(), content.toByteArray());
+			}
+		} finally {
+			zip.close();
+		}
+		return entries;
+	}
+
+	private static void writeZip(File file, Map<String, byte[]> entries)
+			throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				out.putNextEntry(new ZipEntry(entry.getKey()));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static File getJdkBin() {
+		File javaHome = new File(System.getProperty("java.home"));
+		File bin = new File(javaHome, "bin");
+		if (!new File(bin, "jarsigner").exists()) {
+			// Java 8 runs from the jre directory of the JDK
+			bin = new File(javaHome.getParentFile(), "bin");
+		}
+		return bin;
+	}
+
+	private static void sign(File apk, String digestAlgorithm,
+			String signatureAlgorithm) throws Exception {
+		File bin = getJdkBin();
+		if (!canSign()) {
+			System.err.println("jarsigner not found. " + apk.getName()
+					+ " is unsigned.");
+			return;
+		}
+		File keystore = new File(getDirectory(), "bench.jks");
+		keystore.deleteOnExit();
+		if (!keystore.exists()) {
+			exec(new File(bin, "keytool").getPath(), "-genkeypair",
+					"-keystore", keystore.getPath(), "-storepass", "benchmark",
+					"-keypass", "benchmark", "-alias", "bench", "-keyalg",
+					"RSA", "-keysize", "2048", "-validity", "365", "-dname",
+					"CN=Benchmark");
+		}
+		exec(new File(bin, "jarsigner").getPath(), "-keystore",
+				keystore.getPath(), "-storepass", "benchmark", "-digestalg",
+				digestAlgorithm, "-sigalg", signatureAlgorithm, apk.getPath(),
+				"bench");
+	}
+
+	private static void exec(String... command) throws Exception {
+		File log = new File(getDirectory(), "exec.log");
+		log.deleteOnExit();
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(log)).start();
+		if (!process.waitFor(5, TimeUnit.MINUTES) || process.exitValue() != 0) {
+			throw new IOException(command[0] + " failed");
+		}
+	}
+
+	private Inputs() {
+	}
+}
@@ -0,0 +1,78 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Writes INFO messages to a scratch log file, synchronously or through the
+ * asynchronous writer, with and without caller location capture.
+ */
+public class LoggerBenchmark extends Benchmark {
+	private Logger logger = null;
+	private String message = null;
+
+	public LoggerBenchmark() {
+		super("logger");
+		addParam("async", "false", "true");
+		addParam("callerLocation", "true", "false");
+		addParam("messageLength", "80", "4000");
+	}
+
+	@Override
+	protected void setup(Map<String, String> params) throws Exception {
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < Integer.parseInt(params.get("messageLength"))) {
+			builder.append("Verified res/drawable-hdpi/image.png; ");
+		}
+		message = builder.toString();
+		File logFile = new File(Inputs.getDirectory(), "bench-log.txt");
+		logFile.deleteOnExit();
+		boolean async = Properties.LOG_ASYNC;
+		boolean callerLocation = Properties.LOG_CALLER_LOCATION;
+		String level = Properties.LOG_LEVEL;
+		Properties.LOG_ASYNC = Boolean.parseBoolean(params.get("async"));
+		Properties.LOG_CALLER_LOCATION = Boolean.parseBoolean(params
+				.get("callerLocation"));
+		Properties.LOG_LEVEL = "INFO";
+		try {
+			logger = new Logger(logFile.getPath(), "BENCH");
+		} finally {
+			Properties.LOG_ASYNC = async;
+			Properties.LOG_CALLER_LOCATION = callerLocation;
+			Properties.LOG_LEVEL = level;
+		}
+	}
+
+	@Override
+	protected Object run() {
+		logger.info(message);
+		return logger;
+	}
+
+	@Override
+	protected void tearDown() {
+		logger.close();
+	}
+}
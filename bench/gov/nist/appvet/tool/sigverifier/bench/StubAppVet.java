@@ -0,0 +1,251 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the AppVet report endpoint. It accepts SUBMIT_REPORT
+ * and SUBMIT_REPORTS requests, counts the reports it receives and waits a
+ * fixed latency per request to model AppVet's processing cost. It can be set
+ * to reject SUBMIT_REPORTS to test the per-app fallback. Request bodies sent
+ * with gzip Content-Encoding are decompressed. The status and report file
+ * received for each app ID are kept for checks.
+ */
+public class StubAppVet {
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger reports = new AtomicInteger();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final Map<String, String> statuses = new ConcurrentHashMap<String, String>();
+	private final Map<String, String> reportFiles = new ConcurrentHashMap<String, String>();
+	private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)");
+	private static final Pattern PART_NAME = Pattern.compile("name=\"([^\"]+)\"");
+	private volatile long latency = 0;
+	private volatile boolean rejectBatches = false;
+
+	static {
+		// Without this the JDK server's split writes wait on delayed ACKs
+		// and every request takes about 40 ms.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	public StubAppVet() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		executor = Executors.newFixedThreadPool(16);
+		server.setExecutor(executor);
+		server.createContext("/appvet/AppVetServlet", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		server.start();
+	}
+
+	/** Returns the URL to use as the AppVet URL. */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort()
+				+ "/appvet/AppVetServlet";
+	}
+
+	/** Sets the time in milliseconds spent on each request. */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void setRejectBatches(boolean rejectBatches) {
+		this.rejectBatches = rejectBatches;
+	}
+
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	public int getReportCount() {
+		return reports.get();
+	}
+
+	/** Returns the toolrisk last received for an app, or null. */
+	public String getStatus(String appId) {
+		return statuses.get(appId);
+	}
+
+	/** Returns the report file last received for an app, or null. */
+	public String getReport(String appId) {
+		return reportFiles.get(appId);
+	}
+
+	/** Returns the request body bytes received, before decompression. */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		CountingInputStream counter = new CountingInputStream(
+				exchange.getRequestBody());
+		InputStream in = counter;
+		if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst(
+				"Content-Encoding"))) {
+			in = new GZIPInputStream(in);
+		}
+		String body = read(in);
+		bytesReceived.addAndGet(counter.getCount());
+		int status;
+		if (body.contains("SUBMIT_REPORTS") && rejectBatches) {
+			status = 400;
+		} else if (body.contains("SUBMIT_REPORT")) {
+			requests.incrementAndGet();
+			recordReports(exchange.getRequestHeaders().getFirst(
+					"Content-Type"), body);
+			reports.addAndGet(count(body, "name=\"appid\""));
+			status = 200;
+		} else {
+			status = 400;
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		byte[] response = (status == 200 ? "OK" : "Unsupported command")
+				.getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, response.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(response);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Records the toolrisk and file parts that follow each appid part of a
+	 * multipart body.
+	 */
+	private void recordReports(String contentType, String body) {
+		Matcher boundary = contentType == null ? null : BOUNDARY
+				.matcher(contentType);
+		if (boundary == null || !boundary.find()) {
+			return;
+		}
+		String appId = null;
+		for (String part : body.split(Pattern.quote("--" + boundary.group(1)))) {
+			int headersEnd = part.indexOf("\r\n\r\n");
+			if (headersEnd < 0) {
+				continue;
+			}
+			Matcher name = PART_NAME.matcher(part.substring(0, headersEnd));
+			if (!name.find()) {
+				continue;
+			}
+			String value = part.substring(headersEnd + 4);
+			if (value.endsWith("\r\n")) {
+				value = value.substring(0, value.length() - 2);
+			}
+			if (name.group(1).equals("appid")) {
+				appId = value;
+			} else if (appId != null && name.group(1).equals("toolrisk")) {
+				statuses.put(appId, value);
+			} else if (appId != null && name.group(1).equals("file")) {
+				reportFiles.put(appId, value);
+			}
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] bytes = new byte[8192];
+		int read;
+		while ((read = in.read(bytes)) != -1) {
+			buffer.write(bytes, 0, read);
+		}
+		// ISO-8859-1 keeps the multipart headers readable for any file bytes
+		return buffer.toString("ISO-8859-1");
+	}
+
+	private static int count(String text, String part) {
+		int count = 0;
+		for (int i = text.indexOf(part); i != -1; i = text.indexOf(part,
+				i + part.length())) {
+			count++;
+		}
+		return count;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length)
+				throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.bench;
+
+import gov.nist.appvet.tool.sigverifier.ApkVerifier;
+import gov.nist.appvet.tool.sigverifier.Service;
+import gov.nist.appvet.tool.sigverifier.VerificationResult;
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Verifies the signed and tampered APKs of Inputs in-process (INTERNAL mode)
+ * and checks their status. If jarsigner is found, it also checks that
+ * jarsigner output gets the same status, as the two verifier modes must
+ * classify every APK the same way:
+ * 
+ * java gov.nist.appvet.tool.sigverifier.bench.VerifierCheck
+ */
+public class VerifierCheck {
+
+	public static void main(String[] args) throws Exception {
+		Checks checks = new Checks();
+		if (!Inputs.canSign()) {
+			System.out.println("jarsigner not found. Run with a JDK.");
+			System.exit(1);
+		}
+		check(checks, "signed", ToolStatus.LOW, "jar verified.");
+		check(checks, "modifiedEntry", ToolStatus.HIGH,
+				"SHA-256 digest error for res/raw/t5.txt");
+		check(checks, "manifestDigest", ToolStatus.HIGH,
+				"invalid SHA-256 signature file digest for res/raw/t5.txt");
+		check(checks, "missingSection", ToolStatus.HIGH,
+				"no manifest section for signature file entry res/raw/t5.txt");
+		check(checks, "duplicateEntry", ToolStatus.HIGH,
+				"duplicate entry: res/raw/t5.txt");
+		// The JDK disables SHA-1 for JARs signed after 2019-01-01, so the
+		// APK is treated as unsigned
+		VerificationResult result = check(checks, "sha1", null, null);
+		checks.check(
+				result.getV1Status() == VerificationResult.SchemeStatus.NOT_PRESENT
+						&& result.getSigners().isEmpty()
+						&& result.getWarnings().contains(
+								"The jar will be treated as unsigned, because it is signed with a weak algorithm that is now disabled."),
+				"sha1: treated as unsigned\n" + result.getOutput());
+		checks.exit();
+	}
+
+	/**
+	 * Checks the status of an APK in both modes and that the in-process
+	 * output contains a message.
+	 */
+	private static VerificationResult check(Checks checks, String kind,
+			ToolStatus expectedStatus, String expectedMessage)
+			throws Exception {
+		File apk = Inputs.getSignedApk(kind);
+		VerificationResult result = ApkVerifier.verify(apk);
+		ToolStatus status = Service.analyzeReport(result);
+		if (expectedStatus != null) {
+			checks.check(status == expectedStatus, kind + ": status " + status
+					+ ", expected " + expectedStatus + "\n"
+					+ result.getOutput());
+		}
+		if (expectedMessage != null) {
+			checks.check(result.getOutput().contains(expectedMessage), kind
+					+ ": output does not contain \"" + expectedMessage
+					+ "\"\n" + result.getOutput());
+		}
+		String jarsignerOutput = runJarsigner(apk);
+		ToolStatus jarsignerStatus = Service.analyzeReport(jarsignerOutput);
+		checks.check(jarsignerStatus == status, kind + ": jarsigner status "
+				+ jarsignerStatus + ", in-process status " + status + "\n"
+				+ jarsignerOutput);
+		System.out.println(kind + ": " + status);
+		return result;
+	}
+
+	/** Returns the output of jarsigner -verify -verbose -certs. */
+	private static String runJarsigner(File apk) throws Exception {
+		Process process = new ProcessBuilder(Inputs.getJarsigner(),
+				"-verify", "-verbose", "-certs", apk.getPath())
+				.redirectErrorStream(true).start();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream in = process.getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = in.read(buffer)) > 0) {
+				output.write(buffer, 0, length);
+			}
+		} finally {
+			in.close();
+		}
+		process.waitFor();
+		return output.toString("UTF-8");
+	}
+}
@@ -0,0 +1,379 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.ApkArchive;
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class verifies APK Signature Scheme v2 and v3 signatures stored in the
+ * APK Signing Block that precedes the ZIP central directory.
+ */
+final class ApkSignatureSchemeVerifier {
+	private static final Logger log = Properties.log;
+	static final int V2_BLOCK_ID = 0x7109871a;
+	static final int V3_BLOCK_ID = 0xf05368c0;
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	static void verify(ApkArchive archive, VerificationResult result) {
+		if (!archive.hasSigningBlock()) {
+			return;
+		}
+		Map<String, byte[]> contentDigests = new HashMap<String, byte[]>();
+		ByteBuffer v2Block = archive.getSigningBlockPairs().get(V2_BLOCK_ID);
+		if (v2Block != null) {
+			result.setV2Status(verifyScheme(2, v2Block, archive,
+					contentDigests, result));
+		}
+		ByteBuffer v3Block = archive.getSigningBlockPairs().get(V3_BLOCK_ID);
+		if (v3Block != null) {
+			result.setV3Status(verifyScheme(3, v3Block, archive,
+					contentDigests, result));
+		}
+	}
+
+	private static VerificationResult.SchemeStatus verifyScheme(int version,
+			ByteBuffer block, ApkArchive archive,
+			Map<String, byte[]> contentDigests, VerificationResult result) {
+		String schemeName = "APK Signature Scheme v" + version;
+		try {
+			Map<String, byte[]> expectedDigests = new HashMap<String, byte[]>();
+			ByteBuffer signers = getLengthPrefixedSlice(block.duplicate()
+					.order(ByteOrder.LITTLE_ENDIAN));
+			if (!signers.hasRemaining()) {
+				throw new SecurityException("No signers found");
+			}
+			while (signers.hasRemaining()) {
+				verifySigner(version, getLengthPrefixedSlice(signers),
+						expectedDigests, result);
+			}
+			for (Map.Entry<String, byte[]> expected : expectedDigests
+					.entrySet()) {
+				String digestAlgorithm = expected.getKey();
+				byte[] actual = contentDigests.get(digestAlgorithm);
+				if (actual == null) {
+					actual = computeContentDigest(digestAlgorithm, archive);
+					contentDigests.put(digestAlgorithm, actual);
+				}
+				if (!Arrays.equals(expected.getValue(), actual)) {
+					throw new SecurityException(digestAlgorithm
+							+ " digest of contents did not verify");
+				}
+			}
+			log.debug(schemeName + " verified");
+			return VerificationResult.SchemeStatus.VERIFIED;
+		} catch (SecurityException e) {
+			result.addError(schemeName + ": " + e.getMessage());
+		} catch (BufferUnderflowException e) {
+			result.addError(schemeName + ": Malformed signature block");
+		} catch (GeneralSecurityException e) {
+			result.addError(schemeName + ": " + e.toString());
+		} catch (IOException e) {
+			result.addError(schemeName + ": " + e.toString());
+		}
+		return VerificationResult.SchemeStatus.FAILED;
+	}
+
+	private static void verifySigner(int version, ByteBuffer signer,
+			Map<String, byte[]> expectedDigests, VerificationResult result)
+			throws GeneralSecurityException {
+		ByteBuffer signedData = getLengthPrefixedSlice(signer);
+		int minSdk = 0;
+		int maxSdk = 0;
+		if (version >= 3) {
+			minSdk = signer.getInt();
+			maxSdk = signer.getInt();
+		}
+		ByteBuffer signatures = getLengthPrefixedSlice(signer);
+		byte[] publicKeyBytes = readBytes(getLengthPrefixedSlice(signer));
+
+		// Verify every signature made with an algorithm this JRE supports
+		List<Integer> signatureAlgorithms = new ArrayList<Integer>();
+		List<Integer> verifiedAlgorithms = new ArrayList<Integer>();
+		PublicKey publicKey = null;
+		while (signatures.hasRemaining()) {
+			ByteBuffer signature = getLengthPrefixedSlice(signatures);
+			int algorithmId = signature.getInt();
+			byte[] signatureBytes = readBytes(getLengthPrefixedSlice(signature));
+			signatureAlgorithms.add(algorithmId);
+			Signature verifier = newSignature(algorithmId);
+			if (verifier == null) {
+				log.debug("Skipping unsupported signature algorithm 0x"
+						+ Integer.toHexString(algorithmId));
+				continue;
+			}
+			if (publicKey == null) {
+				publicKey = KeyFactory.getInstance(getKeyAlgorithm(algorithmId))
+						.generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+			}
+			verifier.initVerify(publicKey);
+			verifier.update(signedData.duplicate());
+			if (!verifier.verify(signatureBytes)) {
+				throw new SecurityException(verifier.getAlgorithm()
+						+ " signature did not verify");
+			}
+			verifiedAlgorithms.add(algorithmId);
+		}
+		if (signatureAlgorithms.isEmpty()) {
+			throw new SecurityException("No signatures found");
+		}
+		if (verifiedAlgorithms.isEmpty()) {
+			throw new SecurityException("No supported signatures found");
+		}
+
+		// Signed data is trusted from here on
+		ByteBuffer digests = getLengthPrefixedSlice(signedData);
+		ByteBuffer certificates = getLengthPrefixedSlice(signedData);
+		if (version >= 3) {
+			if (signedData.getInt() != minSdk || signedData.getInt() != maxSdk) {
+				throw new SecurityException(
+						"SDK versions mismatch between signed and unsigned data");
+			}
+		}
+		List<Integer> digestAlgorithms = new ArrayList<Integer>();
+		while (digests.hasRemaining()) {
+			ByteBuffer digest = getLengthPrefixedSlice(digests);
+			int algorithmId = digest.getInt();
+			byte[] digestBytes = readBytes(getLengthPrefixedSlice(digest));
+			digestAlgorithms.add(algorithmId);
+			if (!verifiedAlgorithms.contains(algorithmId)) {
+				continue;
+			}
+			String digestAlgorithm = getContentDigestAlgorithm(algorithmId);
+			byte[] previous = expectedDigests.put(digestAlgorithm, digestBytes);
+			if (previous != null && !Arrays.equals(previous, digestBytes)) {
+				throw new SecurityException(digestAlgorithm
+						+ " contents digest does not match the digest"
+						+ " specified by a preceding signer");
+			}
+		}
+		if (!signatureAlgorithms.equals(digestAlgorithms)) {
+			throw new SecurityException(
+					"Signature algorithms do not match between digests and signatures records");
+		}
+
+		CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+		boolean first = true;
+		while (certificates.hasRemaining()) {
+			byte[] encoded = readBytes(getLengthPrefixedSlice(certificates));
+			X509Certificate certificate = (X509Certificate) certFactory
+					.generateCertificate(new ByteArrayInputStream(encoded));
+			if (first) {
+				if (!Arrays.equals(publicKeyBytes, certificate.getPublicKey()
+						.getEncoded())) {
+					throw new SecurityException(
+							"Public key mismatch between certificate and signature record");
+				}
+				first = false;
+			}
+			result.addSigner("v" + version, certificate);
+			if (certificate.getNotAfter().before(new Date())) {
+				result.addWarning("This jar contains entries whose signer certificate has expired.");
+			}
+		}
+		if (first) {
+			throw new SecurityException("No certificates listed");
+		}
+	}
+
+	/**
+	 * Computes the chunked content digest over the ZIP entries, the central
+	 * directory and the End of Central Directory (with its central directory
+	 * offset pointing at the APK Signing Block).
+	 */
+	private static byte[] computeContentDigest(String digestAlgorithm,
+			ApkArchive archive) throws IOException, NoSuchAlgorithmException {
+		if (archive.isZip64()) {
+			throw new SecurityException("ZIP64 APKs cannot be signed with"
+					+ " this scheme");
+		}
+		ByteBuffer eocd = ByteBuffer.allocate(
+				archive.getEndOfCentralDirectory().remaining()).order(
+				ByteOrder.LITTLE_ENDIAN);
+		eocd.put(archive.getEndOfCentralDirectory());
+		eocd.flip();
+		eocd.putInt(16, (int) archive.getSigningBlockOffset());
+		long[][] ranges = new long[][] {
+				{ 0, archive.getSigningBlockOffset() },
+				{ archive.getCentralDirectoryOffset(),
+						archive.getCentralDirectoryOffset()
+								+ archive.getCentralDirectorySize() } };
+		long chunkCount = 0;
+		for (long[] range : ranges) {
+			chunkCount += (range[1] - range[0] + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		}
+		chunkCount += (eocd.remaining() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (chunkCount > Integer.MAX_VALUE / 64) {
+			throw new IOException("Too many chunks: " + chunkCount);
+		}
+
+		MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
+		int digestLength = md.getDigestLength();
+		byte[] chunkDigests = new byte[5 + (int) chunkCount * digestLength];
+		chunkDigests[0] = 0x5a;
+		setIntLittleEndian((int) chunkCount, chunkDigests, 1);
+		byte[] chunkPrefix = new byte[5];
+		chunkPrefix[0] = (byte) 0xa5;
+		int offset = 5;
+		for (long[] range : ranges) {
+			long position = range[0];
+			while (position < range[1]) {
+				int size = (int) Math.min(CHUNK_SIZE, range[1] - position);
+				setIntLittleEndian(size, chunkPrefix, 1);
+				md.update(chunkPrefix);
+				md.update(archive.getRange(position, size));
+				offset += digestInto(md, chunkDigests, offset, digestLength);
+				position += size;
+			}
+		}
+		setIntLittleEndian(eocd.remaining(), chunkPrefix, 1);
+		md.update(chunkPrefix);
+		md.update(eocd);
+		digestInto(md, chunkDigests, offset, digestLength);
+		return md.digest(chunkDigests);
+	}
+
+	private static int digestInto(MessageDigest md, byte[] out, int offset,
+			int length) throws IOException {
+		try {
+			return md.digest(out, offset, length);
+		} catch (java.security.DigestException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static Signature newSignature(int algorithmId)
+			throws GeneralSecurityException {
+		try {
+			Signature signature = null;
+			switch (algorithmId) {
+			case 0x0101:
+				signature = Signature.getInstance("RSASSA-PSS");
+				signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1",
+						MGF1ParameterSpec.SHA256, 32, 1));
+				break;
+			case 0x0102:
+				signature = Signature.getInstance("RSASSA-PSS");
+				signature.setParameter(new PSSParameterSpec("SHA-512", "MGF1",
+						MGF1ParameterSpec.SHA512, 64, 1));
+				break;
+			case 0x0103:
+				signature = Signature.getInstance("SHA256withRSA");
+				break;
+			case 0x0104:
+				signature = Signature.getInstance("SHA512withRSA");
+				break;
+			case 0x0201:
+				signature = Signature.getInstance("SHA256withECDSA");
+				break;
+			case 0x0202:
+				signature = Signature.getInstance("SHA512withECDSA");
+				break;
+			case 0x0301:
+				signature = Signature.getInstance("SHA256withDSA");
+				break;
+			default:
+				// Includes verity-based algorithms, which always accompany
+				// one of the algorithms above
+				return null;
+			}
+			return signature;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	private static String getKeyAlgorithm(int algorithmId) {
+		switch (algorithmId & 0xff00) {
+		case 0x0200:
+			return "EC";
+		case 0x0300:
+			return "DSA";
+		default:
+			return "RSA";
+		}
+	}
+
+	private static String getContentDigestAlgorithm(int algorithmId) {
+		switch (algorithmId) {
+		case 0x0102:
+		case 0x0104:
+		case 0x0202:
+			return "SHA-512";
+		default:
+			return "SHA-256";
+		}
+	}
+
+	private static ByteBuffer getLengthPrefixedSlice(ByteBuffer source) {
+		if (source.remaining() < 4) {
+			throw new SecurityException(
+					"Remaining buffer too short to contain length of length-prefixed field");
+		}
+		int length = source.getInt();
+		if (length < 0 || length > source.remaining()) {
+			throw new SecurityException("Length-prefixed field longer than"
+					+ " remaining buffer: " + length);
+		}
+		ByteBuffer slice = source.slice();
+		slice.limit(length);
+		source.position(source.position() + length);
+		return slice.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static void setIntLittleEndian(int value, byte[] out, int offset) {
+		out[offset] = (byte) value;
+		out[offset + 1] = (byte) (value >>> 8);
+		out[offset + 2] = (byte) (value >>> 16);
+		out[offset + 3] = (byte) (value >>> 24);
+	}
+
+	private ApkSignatureSchemeVerifier() {
+	}
+}
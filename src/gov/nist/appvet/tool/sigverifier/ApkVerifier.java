@@ -0,0 +1,77 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.ApkArchive;
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class verifies APK signatures in-process as an alternative to running
+ * jarsigner as an external command. It checks APK Signature Scheme v1 (JAR
+ * signing), v2 and v3 signatures and returns a structured result.
+ */
+public class ApkVerifier {
+	private static final Logger log = Properties.log;
+
+	public static VerificationResult verify(File apkFile) {
+		VerificationResult result = new VerificationResult(apkFile.getName());
+		long start = System.currentTimeMillis();
+		try {
+			ApkArchive archive = new ApkArchive(apkFile);
+			try {
+				long phaseStart = System.currentTimeMillis();
+				V1SchemeVerifier.verify(archive, result);
+				result.addTiming("v1", System.currentTimeMillis() - phaseStart);
+				phaseStart = System.currentTimeMillis();
+				ApkSignatureSchemeVerifier.verify(archive, result);
+				result.addTiming("v2v3", System.currentTimeMillis()
+						- phaseStart);
+			} finally {
+				archive.close();
+			}
+		} catch (IOException e) {
+			log.error(e.toString());
+			result.setCompleted(false);
+			result.addError(e.toString());
+		} catch (RuntimeException e) {
+			// A malformed APK can still trip a parser. Report it as an error
+			// instead of losing the app's report.
+			log.error("Could not verify " + apkFile.getName() + ": "
+					+ e.toString());
+			result.setCompleted(false);
+			result.addError(e.toString());
+		}
+		result.addTiming("total", System.currentTimeMillis() - start);
+		log.debug("Verified " + apkFile.getName() + " in "
+				+ Logger.formatElapsed(System.currentTimeMillis() - start));
+		return result;
+	}
+
+	/** Stops the verifier's worker threads. Called when the service stops. */
+	public static void shutdown() {
+		V1SchemeVerifier.shutdown();
+	}
+
+	private ApkVerifier() {
+	}
+}
@@ -0,0 +1,244 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.interfaces.DSAKey;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * This class applies the jdk.jar.disabledAlgorithms security property to v1
+ * signatures, as the JDK does when it verifies a signed JAR. Signatures and
+ * digests that use a disabled algorithm are ignored, so a JAR signed only
+ * with them is treated as unsigned. The keySize, denyAfter and usage
+ * constraints are supported. jdkCA never applies because the certificate
+ * chain is not validated.
+ */
+final class DisabledAlgorithms {
+	private static final Logger log = Properties.log;
+	static final String JAR_PROPERTY = "jdk.jar.disabledAlgorithms";
+	private static DisabledAlgorithms jarAlgorithms = null;
+
+	/** An algorithm and the constraints that must all hold to disable it. */
+	private static class Rule {
+		final String algorithm;
+		final List<String[]> constraints = new ArrayList<String[]>();
+		Date denyAfter = null;
+
+		Rule(String algorithm) {
+			this.algorithm = algorithm;
+		}
+
+		boolean disables(int keySize, Date date) {
+			for (String[] constraint : constraints) {
+				if (constraint[0].equals("keySize")) {
+					if (keySize < 0 || !compare(keySize, constraint)) {
+						return false;
+					}
+				} else if (constraint[0].equals("denyAfter")) {
+					if (denyAfter == null || !date.after(denyAfter)) {
+						return false;
+					}
+				} else if (constraint[0].equals("usage")) {
+					boolean signedJar = false;
+					for (int i = 1; i < constraint.length; i++) {
+						if (constraint[i].equals("SignedJAR")) {
+							signedJar = true;
+						}
+					}
+					if (!signedJar) {
+						return false;
+					}
+				} else {
+					// jdkCA or an unknown constraint
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean compare(int keySize, String[] constraint) {
+			if (constraint.length < 3) {
+				return false;
+			}
+			int limit;
+			try {
+				limit = Integer.parseInt(constraint[2]);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+			String operator = constraint[1];
+			if (operator.equals("<")) {
+				return keySize < limit;
+			} else if (operator.equals("<=")) {
+				return keySize <= limit;
+			} else if (operator.equals(">")) {
+				return keySize > limit;
+			} else if (operator.equals(">=")) {
+				return keySize >= limit;
+			} else if (operator.equals("==")) {
+				return keySize == limit;
+			} else if (operator.equals("!=")) {
+				return keySize != limit;
+			}
+			return false;
+		}
+	}
+
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	DisabledAlgorithms(String property) {
+		add(property, new HashSet<String>());
+	}
+
+	/** Returns the algorithms disabled for signed JARs in this JVM. */
+	static synchronized DisabledAlgorithms getJarAlgorithms() {
+		if (jarAlgorithms == null) {
+			jarAlgorithms = new DisabledAlgorithms(JAR_PROPERTY);
+			log.debug(JAR_PROPERTY + ": "
+					+ Security.getProperty(JAR_PROPERTY));
+		}
+		return jarAlgorithms;
+	}
+
+	/**
+	 * Returns false if a digest or signature algorithm (e.g., SHA-1 or
+	 * SHA1withRSA) is disabled for a signature made at the given date.
+	 */
+	boolean permits(String algorithm, Date date) {
+		return permits(decompose(algorithm), -1, date);
+	}
+
+	/** Returns false if the algorithm or size of a signer key is disabled. */
+	boolean permits(PublicKey key, Date date) {
+		return permits(decompose(key.getAlgorithm()), getKeySize(key), date);
+	}
+
+	private boolean permits(Set<String> names, int keySize, Date date) {
+		for (Rule rule : rules) {
+			if (names.contains(rule.algorithm)
+					&& rule.disables(keySize, date)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the rules of a security property. Entries have the form
+	 * "algorithm [constraint {&amp; constraint}]" or "include property".
+	 */
+	private void add(String property, Set<String> included) {
+		if (!included.add(property)) {
+			return;
+		}
+		String value = Security.getProperty(property);
+		if (value == null) {
+			return;
+		}
+		for (String entry : value.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			String[] words = entry.split("\\s+", 2);
+			if (words[0].equals("include")) {
+				if (words.length > 1) {
+					add(words[1].trim(), included);
+				}
+				continue;
+			}
+			Rule rule = new Rule(normalize(words[0]));
+			if (words.length > 1) {
+				for (String constraint : words[1].split("&")) {
+					String[] tokens = constraint.trim().split("\\s+");
+					if (tokens[0].equals("denyAfter") && tokens.length > 1) {
+						rule.denyAfter = parseDate(tokens[1]);
+					}
+					rule.constraints.add(tokens);
+				}
+			}
+			rules.add(rule);
+		}
+	}
+
+	/**
+	 * Splits a signature algorithm into its digest and key algorithms, so
+	 * that SHA1withRSA is disabled by a rule for SHA1 or for RSA.
+	 */
+	private static Set<String> decompose(String algorithm) {
+		Set<String> names = new HashSet<String>();
+		names.add(normalize(algorithm));
+		for (String part : algorithm.split("(?i)with|and|/")) {
+			if (!part.isEmpty()) {
+				names.add(normalize(part));
+			}
+		}
+		if (names.contains("ECDSA")) {
+			names.add("EC");
+		}
+		return names;
+	}
+
+	/** Returns the upper case name without the dash of SHA-1, SHA-256... */
+	private static String normalize(String algorithm) {
+		String name = algorithm.trim().toUpperCase();
+		if (name.startsWith("SHA-")) {
+			name = "SHA" + name.substring(4);
+		}
+		return name;
+	}
+
+	private static int getKeySize(PublicKey key) {
+		if (key instanceof RSAKey) {
+			return ((RSAKey) key).getModulus().bitLength();
+		} else if (key instanceof DSAKey && ((DSAKey) key).getParams() != null) {
+			return ((DSAKey) key).getParams().getP().bitLength();
+		} else if (key instanceof ECKey) {
+			return ((ECKey) key).getParams().getOrder().bitLength();
+		}
+		return -1;
+	}
+
+	private static Date parseDate(String date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		format.setLenient(false);
+		try {
+			return format.parse(date);
+		} catch (ParseException e) {
+			log.warn("Invalid denyAfter date " + date + " in "
+					+ JAR_PROPERTY);
+			return null;
+		}
+	}
+}
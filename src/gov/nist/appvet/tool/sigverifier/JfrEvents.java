@@ -0,0 +1,177 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class defines the Java Flight Recorder events for the phases of
+ * processing an app. The events are created at run time with
+ * jdk.jfr.EventFactory through reflection, so the tool still compiles against
+ * Java 8 class libraries that have no jdk.jfr (e.g., javac --release 8).
+ * Events carry no stack trace and are written only while a recording has them
+ * enabled and they last at least its threshold (see conf/sigverifier.jfc).
+ */
+final class JfrEvents {
+	private static final String[][] EVENTS = {
+			{ "Upload", "Upload",
+					"Parsing the multipart upload, including saving the app" },
+			{ "SaveUpload", "Save Upload", "Saving and hashing the uploaded app" },
+			{ "Verify", "Verify",
+					"Running the command, the in-process tool or the APK verifier" },
+			{ "AnalyzeReport", "Analyze Report", "Classifying the verifier output" },
+			{ "RenderReport", "Render Report",
+					"Rendering the report to the HTTP response" },
+			{ "SaveReport", "Save Report", "Rendering the report to its file" },
+			{ "SendReport", "Send Report",
+					"Sending reports to AppVet in a new HTTP request" } };
+	private static final String EVENT_PREFIX = "gov.nist.appvet.sigverifier.";
+	private static final int APP_ID = 0;
+	private static final int APK_SIZE = 1;
+	private static final int ENTRY_COUNT = 2;
+	private static final int STATUS = 3;
+	private static final int SUCCEEDED = 4;
+
+	/** EventFactory of each phase, kept so the events stay registered. */
+	private static Object[] factories = null;
+	private static Method newEvent;
+	private static Method begin;
+	private static Method end;
+	private static Method shouldCommit;
+	private static Method set;
+	private static Method commit;
+
+	private JfrEvents() {
+	}
+
+	/**
+	 * Defines and registers the events.
+	 * 
+	 * @throws ReflectiveOperationException
+	 *             if the JVM has no jdk.jfr API.
+	 */
+	static synchronized void define() throws ReflectiveOperationException {
+		if (factories != null) {
+			return;
+		}
+		if (EVENTS.length != Metrics.Phase.values().length) {
+			throw new IllegalStateException("No event for each phase");
+		}
+		Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+		Constructor<?> descriptor = descriptorClass.getConstructor(
+				Class.class, String.class, List.class);
+		Method create = factoryClass.getMethod("create", List.class,
+				List.class);
+		Object[] newFactories = new Object[EVENTS.length];
+		for (int i = 0; i < EVENTS.length; i++) {
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(annotation(annotationClass, "Name", EVENT_PREFIX
+					+ EVENTS[i][0]));
+			annotations.add(annotation(annotationClass, "Label", EVENTS[i][1]));
+			annotations.add(annotation(annotationClass, "Description",
+					EVENTS[i][2]));
+			annotations.add(annotation(annotationClass, "Category",
+					new String[] { "AppVet", "Signature Verifier" }));
+			annotations.add(annotation(annotationClass, "StackTrace",
+					Boolean.FALSE));
+			// In the order of APP_ID, APK_SIZE, ENTRY_COUNT, STATUS and
+			// SUCCEEDED
+			List<Object> fields = new ArrayList<Object>();
+			fields.add(descriptor.newInstance(String.class, "appId", Arrays
+					.asList(annotation(annotationClass, "Label", "App ID"),
+							annotation(annotationClass, "Description",
+									"AppVet app IDs, comma-separated for a batch"))));
+			fields.add(descriptor.newInstance(long.class, "apkSize", Arrays
+					.asList(annotation(annotationClass, "Label", "APK Size"),
+							annotation(annotationClass, "Description",
+									"-1 if not known in this phase"),
+							annotation(annotationClass, "DataAmount",
+									"BYTES"))));
+			fields.add(descriptor.newInstance(int.class, "entryCount", Arrays
+					.asList(annotation(annotationClass, "Label", "Entries"),
+							annotation(annotationClass, "Description",
+									"APK entries verified, -1 if not known in this phase"))));
+			fields.add(descriptor.newInstance(String.class, "status", Arrays
+					.asList(annotation(annotationClass, "Label", "Result"),
+							annotation(annotationClass, "Description",
+									"ToolStatus of the app, if known in this phase"))));
+			fields.add(descriptor.newInstance(boolean.class, "succeeded",
+					Arrays.asList(annotation(annotationClass, "Label",
+							"Succeeded"))));
+			newFactories[i] = create.invoke(null, annotations, fields);
+		}
+		newEvent = factoryClass.getMethod("newEvent");
+		begin = eventClass.getMethod("begin");
+		end = eventClass.getMethod("end");
+		shouldCommit = eventClass.getMethod("shouldCommit");
+		set = eventClass.getMethod("set", int.class, Object.class);
+		commit = eventClass.getMethod("commit");
+		factories = newFactories;
+	}
+
+	/** Starts the event for a phase. define() must have succeeded. */
+	static Object begin(Metrics.Phase phase) {
+		try {
+			Object event = newEvent.invoke(factories[phase.ordinal()]);
+			begin.invoke(event);
+			return event;
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/** Ends the event started by begin() and commits it if enabled. */
+	static void commit(Object event, String appId, long apkSize,
+			int entryCount, String status, boolean succeeded) {
+		try {
+			end.invoke(event);
+			if (((Boolean) shouldCommit.invoke(event)).booleanValue()) {
+				set.invoke(event, APP_ID, appId);
+				set.invoke(event, APK_SIZE, apkSize);
+				set.invoke(event, ENTRY_COUNT, entryCount);
+				set.invoke(event, STATUS, status);
+				set.invoke(event, SUCCEEDED, succeeded);
+				commit.invoke(event);
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/** Returns an AnnotationElement for a jdk.jfr annotation and its value. */
+	private static Object annotation(Class<?> annotationClass, String type,
+			Object value) throws ReflectiveOperationException {
+		Class<?> annotationType = Class.forName("jdk.jfr." + type);
+		return annotationClass.getConstructor(Class.class, Object.class)
+				.newInstance(annotationType, value);
+	}
+}
@@ -0,0 +1,96 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+import gov.nist.appvet.tool.sigverifier.util.ServiceThreads;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class queues apps received under the ASYNCHRONOUS protocol and
+ * verifies them on a fixed pool of worker threads so that the container's
+ * request threads are released as soon as an app has been received. When the
+ * queue is full, submissions are rejected rather than blocking.
+ */
+public class JobQueue {
+	private static final Logger log = Properties.log;
+	private final ThreadPoolExecutor executor;
+	private final int capacity;
+
+	public JobQueue(int workers, int capacity) {
+		this.capacity = capacity;
+		executor = new ThreadPoolExecutor(workers, workers, 0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity),
+				ServiceThreads.newFactory("sigverifier-worker-"),
+				new ThreadPoolExecutor.AbortPolicy());
+		log.info("Started " + workers + (ServiceThreads.isVirtual() ? " virtual" : "")
+				+ " verification workers with queue capacity " + capacity);
+	}
+
+	/**
+	 * Queues a job for verification.
+	 * 
+	 * @return false if the queue is full or shut down.
+	 */
+	public boolean submit(Runnable job) {
+		try {
+			executor.execute(job);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/** Returns the number of jobs waiting for a worker. */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/** Returns the number of jobs currently being verified. */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** Stops accepting jobs and waits for queued jobs to finish. */
+	public void shutdown(long timeoutMillis) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeoutMillis,
+					TimeUnit.MILLISECONDS)) {
+				log.warn("Verification workers did not finish within "
+						+ timeoutMillis + " ms; " + getQueueDepth()
+						+ " jobs abandoned");
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.Histogram;
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the runtime metrics of the tool service and writes them in
+ * the Prometheus text format for MetricsServlet. Recording only updates
+ * LongAdders and fixed-bucket histograms, so it takes no lock on the
+ * verification path. Gauges are read when the metrics are written.
+ * <p>
+ * Each timed phase is also a Java Flight Recorder event if /Tool/JfrEvents is
+ * true and the JVM has the jdk.jfr API (Java 11, or Java 8u262 and later).
+ * JfrEvents defines the events at run time, so building the tool does not
+ * need jdk.jfr.
+ */
+public class Metrics {
+	private static final Logger log = Properties.log;
+	/** Timed phases of receiving, verifying and reporting an app. */
+	public enum Phase {
+		/** Parsing the multipart upload, including saving the app. */
+		MULTIPART("multipart"),
+		/** FileUtil.saveFileUpload(). */
+		SAVE_UPLOAD("save_upload"),
+		/** Running the command, the in-process tool or the APK verifier. */
+		EXECUTE("execute"),
+		/** analyzeReport(). */
+		ANALYZE_REPORT("analyze_report"),
+		/** Rendering the report to the HTTP response (SYNCHRONOUS). */
+		RENDER_REPORT("render_report"),
+		/** Rendering the report to its file (ASYNCHRONOUS). */
+		SAVE_REPORT("save_report"),
+		/** Sending reports to AppVet in a new HTTP request. */
+		SEND_REPORT("send_report");
+
+		private final String label;
+		private final Histogram histogram = new Histogram(
+				Histogram.LATENCY_BOUNDS);
+
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private static final LongAdder jobsInFlight = new LongAdder();
+	private static final LongAdder[] results = new LongAdder[ToolStatus
+			.values().length];
+	static {
+		for (int i = 0; i < results.length; i++) {
+			results[i] = new LongAdder();
+		}
+	}
+	private static volatile JobQueue jobQueue = null;
+	private static volatile ReportOutbox reportOutbox = null;
+	private static volatile ResultCache resultCache = null;
+	private static final boolean jfrEnabled = isJfrAvailable();
+
+	private Metrics() {
+	}
+
+	/** A phase being timed. It is ended once, with its outcome. */
+	public static final class Timer {
+		private final Phase phase;
+		private final long startNanos;
+		private final Object event;
+
+		private Timer(Phase phase) {
+			this.phase = phase;
+			event = jfrEnabled ? JfrEvents.begin(phase) : null;
+			startNanos = System.nanoTime();
+		}
+
+		public void end(boolean succeeded) {
+			end(null, -1, -1, null, succeeded);
+		}
+
+		/** Ends a phase of a job. entryCount is -1 if unknown. */
+		public void end(VerificationJob job, int entryCount,
+				ToolStatus status, boolean succeeded) {
+			end(job.getAppId(), job.getAppSize(), entryCount, status,
+					succeeded);
+		}
+
+		/**
+		 * Ends the phase. The app ID, APK size, entry count and status are
+		 * only recorded in the flight recorder event; pass null or -1 if
+		 * they are not known in this phase.
+		 */
+		public void end(String appId, long apkSize, int entryCount,
+				ToolStatus status, boolean succeeded) {
+			phase.histogram.recordSince(startNanos, succeeded);
+			if (event != null) {
+				JfrEvents.commit(event, appId, apkSize, entryCount,
+						status == null ? null : status.name(), succeeded);
+			}
+		}
+	}
+
+	/** Starts timing a phase. */
+	public static Timer start(Phase phase) {
+		return new Timer(phase);
+	}
+
+	public static void recordResult(ToolStatus status) {
+		results[status.ordinal()].increment();
+	}
+
+	public static void jobStarted() {
+		jobsInFlight.increment();
+	}
+
+	public static void jobFinished() {
+		jobsInFlight.decrement();
+	}
+
+	/**
+	 * Sets the queue, outbox and result cache whose sizes and counters are
+	 * reported. The queue and outbox are null under the SYNCHRONOUS protocol,
+	 * and the cache is null if it is disabled.
+	 */
+	public static void register(JobQueue queue, ReportOutbox outbox,
+			ResultCache cache) {
+		jobQueue = queue;
+		reportOutbox = outbox;
+		resultCache = cache;
+	}
+
+	/** Writes all metrics in the Prometheus text exposition format. */
+	public static void write(Writer out) throws IOException {
+		out.write("# HELP sigverifier_phase_duration_seconds Duration of each phase of processing an app.\n");
+		out.write("# TYPE sigverifier_phase_duration_seconds histogram\n");
+		for (Phase phase : Phase.values()) {
+			String label = "phase=\"" + phase.label + "\"";
+			double[] bounds = phase.histogram.getBounds();
+			long[] counts = phase.histogram.getCumulativeCounts();
+			for (int i = 0; i < bounds.length; i++) {
+				out.write("sigverifier_phase_duration_seconds_bucket{" + label
+						+ ",le=\"" + bounds[i] + "\"} " + counts[i] + "\n");
+			}
+			long count = counts[counts.length - 1];
+			out.write("sigverifier_phase_duration_seconds_bucket{" + label
+					+ ",le=\"+Inf\"} " + count + "\n");
+			out.write("sigverifier_phase_duration_seconds_sum{" + label + "} "
+					+ phase.histogram.getSumSeconds() + "\n");
+			out.write("sigverifier_phase_duration_seconds_count{" + label
+					+ "} " + count + "\n");
+		}
+		out.write("# HELP sigverifier_phase_failures_total Phases that failed.\n");
+		out.write("# TYPE sigverifier_phase_failures_total counter\n");
+		for (Phase phase : Phase.values()) {
+			out.write("sigverifier_phase_failures_total{phase=\""
+					+ phase.label + "\"} "
+					+ phase.histogram.getFailureCount() + "\n");
+		}
+		out.write("# HELP sigverifier_results_total Apps reported by result.\n");
+		out.write("# TYPE sigverifier_results_total counter\n");
+		for (ToolStatus status : ToolStatus.values()) {
+			out.write("sigverifier_results_total{status=\"" + status.name()
+					+ "\"} " + results[status.ordinal()].sum() + "\n");
+		}
+		gauge(out, "sigverifier_jobs_in_flight",
+				"Apps being verified or reported.", jobsInFlight.sum());
+		JobQueue queue = jobQueue;
+		if (queue != null) {
+			gauge(out, "sigverifier_job_queue_depth",
+					"Apps waiting for a verification worker.",
+					queue.getQueueDepth());
+			gauge(out, "sigverifier_job_queue_capacity",
+					"Apps that can wait for a verification worker.",
+					queue.getCapacity());
+		}
+		ReportOutbox outbox = reportOutbox;
+		if (outbox != null) {
+			gauge(out, "sigverifier_outbox_pending",
+					"Reports waiting to be delivered to AppVet.",
+					outbox.getPendingCount());
+		}
+		ResultCache cache = resultCache;
+		if (cache != null) {
+			counter(out, "sigverifier_cache_hits_total",
+					"Apps whose result was found in the result cache.",
+					cache.getHits());
+			counter(out, "sigverifier_cache_misses_total",
+					"Apps whose result was not in the result cache.",
+					cache.getMisses());
+			counter(out, "sigverifier_cache_evictions_total",
+					"Results evicted because the result cache was full.",
+					cache.getEvictions());
+			counter(out, "sigverifier_cache_expirations_total",
+					"Results discarded because they expired.",
+					cache.getExpirations());
+			gauge(out, "sigverifier_cache_entries",
+					"Results in the result cache.", cache.size());
+			gauge(out, "sigverifier_cache_chars",
+					"Total length of the reports in the result cache.",
+					cache.getChars());
+		}
+		gauge(out, "sigverifier_temp_dir_bytes",
+				"Bytes of apps, reports and output files in the apps directory.",
+				getDirectorySize(Properties.TEMP_DIR));
+	}
+
+	private static boolean isJfrAvailable() {
+		if (!Properties.jfrEvents) {
+			return false;
+		}
+		try {
+			JfrEvents.define();
+			return true;
+		} catch (ClassNotFoundException e) {
+			log.info("Flight recorder events are not available in this JVM");
+			return false;
+		} catch (ReflectiveOperationException e) {
+			log.warn("Could not define flight recorder events: " + e);
+			return false;
+		} catch (RuntimeException e) {
+			log.warn("Could not define flight recorder events: " + e);
+			return false;
+		} catch (LinkageError e) {
+			log.warn("Could not define flight recorder events: " + e);
+			return false;
+		}
+	}
+
+	private static void counter(Writer out, String name, String help,
+			long value) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n");
+		out.write("# TYPE " + name + " counter\n");
+		out.write(name + " " + value + "\n");
+	}
+
+	private static void gauge(Writer out, String name, String help, long value)
+			throws IOException {
+		out.write("# HELP " + name + " " + help + "\n");
+		out.write("# TYPE " + name + " gauge\n");
+		out.write(name + " " + value + "\n");
+	}
+
+	/**
+	 * Returns the total size of the files under a directory. Files deleted by
+	 * a job during the walk are skipped.
+	 */
+	private static long getDirectorySize(String directory) throws IOException {
+		if (directory == null || !new File(directory).isDirectory()) {
+			return 0;
+		}
+		final long[] size = new long[1];
+		Files.walkFileTree(new File(directory).toPath(),
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file,
+							BasicFileAttributes attrs) {
+						size[0] += attrs.size();
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file,
+							IOException e) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+		return size[0];
+	}
+}
@@ -19,12 +19,14 @@
  */
 package gov.nist.appvet.tool.sigverifier;
 
-import gov.nist.appvet.tool.sigverifier.util.LogMaintainer;
 import gov.nist.appvet.tool.sigverifier.util.Logger;
+import gov.nist.appvet.tool.sigverifier.util.PatternClassifier;
 import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+import gov.nist.appvet.tool.sigverifier.util.VerifierMode;
 import gov.nist.appvet.tool.sigverifier.util.Xml;
 
 import java.io.File;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 
 /**
@@ -51,15 +53,38 @@ public class Properties {
     public static String toolVersion = null;
     public static String protocol = null;
     public static boolean keepApps = false;
+    public static VerifierMode verifierMode = null;
+    public static int verifierParallelism = 0;
+    public static int toolConcurrency = 0;
     public static String command = null;
     public static int commandTimeout = 0;
+    public static boolean fastFail = false;
+    public static Charset commandCharset = null;
+    public static int commandOutputLimit = 0;
+    public static int commandMemoryThreshold = 0;
     public static int delay = 0;
+    public static int jobWorkers = 0;
+    public static int jobQueueCapacity = 0;
+    public static boolean virtualThreads = false;
+    public static boolean jfrEvents = false;
+    public static int jobRetryAfter = 0;
+    public static int cacheSize = 0;
+    public static int cacheMaxChars = 0;
+    public static int cacheTtl = 0;
     public static String reportFormat = null;
     public static String serviceUrl = null;
     public static Logger log = null;
     public static String LOG_PATH = null;
     public static boolean LOG_TO_CONSOLE = false;
     public static String LOG_LEVEL = null;
+    public static boolean LOG_ASYNC = false;
+    public static int LOG_BUFFER_SIZE = 0;
+    public static boolean LOG_CALLER_LOCATION = true;
+    public static Logger.OverflowPolicy LOG_OVERFLOW_POLICY = null;
+    public static int LOG_MAX_SIZE_MB = 0;
+    public static int LOG_ROTATE_HOURS = 0;
+    public static int LOG_MAX_ARCHIVES = 0;
+    public static boolean LOG_COMPRESS = true;
     public static String TEMP_DIR = null;
     public static String CONF_DIR = null;
     public static String LOGS_DIR = null;
@@ -68,12 +93,27 @@ public class Properties {
     public static ArrayList<String> moderateResults = null;
     public static ArrayList<String> highResults = null;
     public static ArrayList<String> errorResults = null;
+    public static PatternClassifier classifier = null;
     // Asynchronous authentication parameters for returning report to AppVet
     public static String appvetUrl = null;
     public static String appvetHttpMode = null;
     public static String toolId = null;
     public static String appvetUsername = null;
     public static String appvetPassword = null;
+    public static int appvetConnectTimeout = 0;
+    public static int appvetSocketTimeout = 0;
+    public static int appvetMaxConnections = 0;
+    public static int appvetMaxConnectionsPerRoute = 0;
+    public static int appvetIdleTimeout = 0;
+    public static boolean appvetCompression = false;
+    public static int appvetCompressionLevel = 0;
+    public static String OUTBOX_DIR = null;
+    public static int outboxThreads = 0;
+    public static int outboxMaxAttempts = 0;
+    public static int outboxInitialBackoff = 0;
+    public static int outboxMaxBackoff = 0;
+    public static int outboxBatchSize = 0;
+    public static int outboxBatchWindow = 0;
     /** DON'T CHANGE (END) **/
 
     static {
@@ -136,11 +176,40 @@ public class Properties {
 	LOG_LEVEL = xml.getXPathValue("/Tool/Logging/Level");
 	LOG_TO_CONSOLE = new Boolean(
 		xml.getXPathValue("/Tool/Logging/ToConsole")).booleanValue();
+	LOG_ASYNC = new Boolean(xml.getXPathValue("/Tool/Logging/Async"))
+		.booleanValue();
+	LOG_BUFFER_SIZE = getIntValue(xml, "/Tool/Logging/BufferSize", 8192);
+	String callerLocationStr = xml
+		.getXPathValue("/Tool/Logging/CallerLocation");
+	if (callerLocationStr != null) {
+	    LOG_CALLER_LOCATION = new Boolean(callerLocationStr).booleanValue();
+	}
+	LOG_OVERFLOW_POLICY = Logger.OverflowPolicy.getEnum(xml
+		.getXPathValue("/Tool/Logging/OverflowPolicy"));
+	if (LOG_OVERFLOW_POLICY == null) {
+	    LOG_OVERFLOW_POLICY = Logger.OverflowPolicy.BLOCK;
+	}
+	// Rotation (0 disables the size or time threshold, or pruning)
+	LOG_MAX_SIZE_MB = getIntValue(xml, "/Tool/Logging/MaxSizeMB", 100);
+	LOG_ROTATE_HOURS = getIntValue(xml, "/Tool/Logging/RotateHours", 24);
+	LOG_MAX_ARCHIVES = getIntValue(xml, "/Tool/Logging/MaxArchives", 30);
+	String compressStr = xml.getXPathValue("/Tool/Logging/Compress");
+	if (compressStr != null) {
+	    LOG_COMPRESS = new Boolean(compressStr).booleanValue();
+	}
 	log = new Logger(LOG_PATH, LOG_DISPLAY_NAME);
 	log.info("/Tool/Logging/LogName: " + logName);
 	log.info("/Tool/Logging/Level: " + LOG_LEVEL);
 	log.info("/Tool/Logging/ToConsole: "
 		+ new Boolean(LOG_TO_CONSOLE).toString());
+	log.info("/Tool/Logging/Async: " + LOG_ASYNC);
+	log.info("/Tool/Logging/BufferSize: " + LOG_BUFFER_SIZE);
+	log.info("/Tool/Logging/CallerLocation: " + LOG_CALLER_LOCATION);
+	log.info("/Tool/Logging/OverflowPolicy: " + LOG_OVERFLOW_POLICY.name());
+	log.info("/Tool/Logging/MaxSizeMB: " + LOG_MAX_SIZE_MB);
+	log.info("/Tool/Logging/RotateHours: " + LOG_ROTATE_HOURS);
+	log.info("/Tool/Logging/MaxArchives: " + LOG_MAX_ARCHIVES);
+	log.info("/Tool/Logging/Compress: " + LOG_COMPRESS);
 
 	// Tool name
 	toolName = xml.getXPathValue("/Tool/Name");
@@ -162,17 +231,85 @@ public class Properties {
 	keepApps = new Boolean(xml.getXPathValue("/Tool/KeepApps")).booleanValue();
 	log.info("/Tool/KeepApps: " + keepApps);
 
+	// Verifier mode (INTERNAL verifies in-process, COMMAND runs <Command>,
+	// TOOL runs <Command> in-process through ToolProvider)
+	verifierMode = VerifierMode.getEnum(xml
+		.getXPathValue("/Tool/VerifierMode"));
+	if (verifierMode == null) {
+	    verifierMode = VerifierMode.COMMAND;
+	}
+	log.info("/Tool/VerifierMode: " + verifierMode.name());
+	verifierParallelism = getIntValue(xml, "/Tool/VerifierParallelism",
+		Runtime.getRuntime().availableProcessors());
+	log.info("/Tool/VerifierParallelism: " + verifierParallelism);
+
 	// Command
 	command = xml.getXPathValue("/Tool/Command");
 	log.info("/Tool/Command: " + command);
+	toolConcurrency = getIntValue(xml, "/Tool/ToolConcurrency", Runtime
+		.getRuntime().availableProcessors());
+	log.info("/Tool/ToolConcurrency: " + toolConcurrency);
 
 	// Command Timeout
 	String cmdTimeoutStr = xml.getXPathValue("/Tool/CommandTimeout");
 	commandTimeout = new Integer(cmdTimeoutStr).intValue();
+
+	// Stop the command as soon as its output matches an Error result
+	fastFail = new Boolean(xml.getXPathValue("/Tool/FastFail"))
+		.booleanValue();
+	log.info("/Tool/FastFail: " + fastFail);
+
+	// Charset of the command output and characters of it kept
+	String charsetStr = xml.getXPathValue("/Tool/CommandCharset");
+	commandCharset = Charset.defaultCharset();
+	if (charsetStr != null && !charsetStr.trim().isEmpty()) {
+	    try {
+		commandCharset = Charset.forName(charsetStr.trim());
+	    } catch (IllegalArgumentException e) {
+		log.warn("Unsupported /Tool/CommandCharset " + charsetStr
+			+ ". Using " + commandCharset);
+	    }
+	}
+	log.info("/Tool/CommandCharset: " + commandCharset);
+	commandOutputLimit = getIntValue(xml, "/Tool/CommandOutputLimit",
+		16777216);
+	log.info("/Tool/CommandOutputLimit: " + commandOutputLimit);
+	// Characters of output kept in memory before moving it to a file
+	commandMemoryThreshold = getIntValue(xml,
+		"/Tool/CommandMemoryThreshold", 1048576);
+	log.info("/Tool/CommandMemoryThreshold: " + commandMemoryThreshold);
 	
 	String delayStr = xml.getXPathValue("/Tool/Delay");
 	delay = new Integer(delayStr).intValue();
 
+	// Asynchronous job queue
+	jobWorkers = getIntValue(xml, "/Tool/Jobs/Workers", Runtime
+		.getRuntime().availableProcessors());
+	log.info("/Tool/Jobs/Workers: " + jobWorkers);
+	jobQueueCapacity = getIntValue(xml, "/Tool/Jobs/QueueCapacity", 100);
+	log.info("/Tool/Jobs/QueueCapacity: " + jobQueueCapacity);
+	jobRetryAfter = getIntValue(xml, "/Tool/Jobs/RetryAfter", 30);
+	log.info("/Tool/Jobs/RetryAfter: " + jobRetryAfter);
+
+	// Run blocking work (job workers, output draining and report delivery)
+	// on virtual threads when the JVM supports them
+	virtualThreads = new Boolean(xml.getXPathValue("/Tool/VirtualThreads"))
+		.booleanValue();
+	log.info("/Tool/VirtualThreads: " + virtualThreads);
+
+	// Emit flight recorder events for each phase of processing an app
+	jfrEvents = new Boolean(xml.getXPathValue("/Tool/JfrEvents"))
+		.booleanValue();
+	log.info("/Tool/JfrEvents: " + jfrEvents);
+
+	// Verification result cache (disabled if size is 0)
+	cacheSize = getIntValue(xml, "/Tool/Cache/Size", 0);
+	log.info("/Tool/Cache/Size: " + cacheSize);
+	cacheMaxChars = getIntValue(xml, "/Tool/Cache/MaxChars", 16777216);
+	log.info("/Tool/Cache/MaxChars: " + cacheMaxChars);
+	cacheTtl = getIntValue(xml, "/Tool/Cache/TTL", 0);
+	log.info("/Tool/Cache/TTL: " + cacheTtl);
+
 	// Get report format
 	reportFormat = xml.getXPathValue("/Tool/Report/Format");
 	log.info("/Tool/Report/Format: " + reportFormat);
@@ -194,6 +331,9 @@ public class Properties {
 	moderateResults = xml.getXPathValues("/Tool/Report/Result/Moderate");
 	highResults = xml.getXPathValues("/Tool/Report/Result/High");
 	errorResults = xml.getXPathValues("/Tool/Report/Result/Error");
+	classifier = new PatternClassifier(errorResults, highResults,
+		moderateResults, lowResults);
+	log.info("Report classifier: " + classifier);
 
 	// Get any additional parameters for asynchronous reports back to AppVet
 	appvetUrl = xml.getXPathValue("/Tool/AppVet/URL");
@@ -207,9 +347,69 @@ public class Properties {
 	appvetPassword = xml.getXPathValue("/Tool/AppVet/Password");
 	// log.info("/Tool/AppVet/Password: " + appvetPassword);
 
-	// Start log maintainer
-	LogMaintainer logMaintainer = new LogMaintainer();
-	Thread thread = new Thread(logMaintainer);
-	thread.start();
+	// Pooled HTTP client for reports sent to AppVet
+	appvetConnectTimeout = getIntValue(xml, "/Tool/AppVet/ConnectTimeout",
+		30000);
+	log.info("/Tool/AppVet/ConnectTimeout: " + appvetConnectTimeout);
+	appvetSocketTimeout = getIntValue(xml, "/Tool/AppVet/SocketTimeout",
+		1200000);
+	log.info("/Tool/AppVet/SocketTimeout: " + appvetSocketTimeout);
+	appvetMaxConnections = getIntValue(xml, "/Tool/AppVet/MaxConnections",
+		20);
+	log.info("/Tool/AppVet/MaxConnections: " + appvetMaxConnections);
+	appvetMaxConnectionsPerRoute = getIntValue(xml,
+		"/Tool/AppVet/MaxConnectionsPerRoute", 10);
+	log.info("/Tool/AppVet/MaxConnectionsPerRoute: "
+		+ appvetMaxConnectionsPerRoute);
+	appvetIdleTimeout = getIntValue(xml, "/Tool/AppVet/IdleTimeout", 60000);
+	log.info("/Tool/AppVet/IdleTimeout: " + appvetIdleTimeout);
+	// gzip report callbacks. Synchronous responses are compressed when the
+	// request's Accept-Encoding allows it.
+	appvetCompression = new Boolean(
+		xml.getXPathValue("/Tool/AppVet/Compression")).booleanValue();
+	log.info("/Tool/AppVet/Compression: " + appvetCompression);
+	appvetCompressionLevel = getIntValue(xml,
+		"/Tool/AppVet/CompressionLevel", 6);
+	log.info("/Tool/AppVet/CompressionLevel: " + appvetCompressionLevel);
+
+	// Outbox for reports that could not be delivered yet
+	OUTBOX_DIR = ANDROID_SIGVERIFIER_FILES_HOME + "/outbox";
+	outboxThreads = getIntValue(xml, "/Tool/AppVet/Outbox/Threads", 2);
+	log.info("/Tool/AppVet/Outbox/Threads: " + outboxThreads);
+	outboxMaxAttempts = getIntValue(xml, "/Tool/AppVet/Outbox/MaxAttempts",
+		10);
+	log.info("/Tool/AppVet/Outbox/MaxAttempts: " + outboxMaxAttempts);
+	outboxInitialBackoff = getIntValue(xml,
+		"/Tool/AppVet/Outbox/InitialBackoff", 5000);
+	log.info("/Tool/AppVet/Outbox/InitialBackoff: " + outboxInitialBackoff);
+	outboxMaxBackoff = getIntValue(xml, "/Tool/AppVet/Outbox/MaxBackoff",
+		600000);
+	log.info("/Tool/AppVet/Outbox/MaxBackoff: " + outboxMaxBackoff);
+	// A batch size of 1 sends each report in its own request
+	outboxBatchSize = getIntValue(xml, "/Tool/AppVet/Outbox/BatchSize", 1);
+	log.info("/Tool/AppVet/Outbox/BatchSize: " + outboxBatchSize);
+	outboxBatchWindow = getIntValue(xml, "/Tool/AppVet/Outbox/BatchWindow",
+		2000);
+	log.info("/Tool/AppVet/Outbox/BatchWindow: " + outboxBatchWindow);
+    }
+
+    /** Returns the integer value at nodePath, or defaultValue if not set. */
+    private static int getIntValue(Xml xml, String nodePath, int defaultValue) {
+	String value = xml.getXPathValue(nodePath);
+	if (value == null) {
+	    return defaultValue;
+	}
+	try {
+	    return Integer.parseInt(value);
+	} catch (NumberFormatException e) {
+	    String message = "Invalid value for " + nodePath + ": " + value;
+	    if (log == null) {
+		// Logging is not configured yet
+		System.err.println(message);
+	    } else {
+		log.error(message);
+	    }
+	    return defaultValue;
+	}
     }
 }
@@ -0,0 +1,486 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.FileUtil;
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+import gov.nist.appvet.tool.sigverifier.util.ReportUtil;
+import gov.nist.appvet.tool.sigverifier.util.ServiceThreads;
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class delivers reports to AppVet under the ASYNCHRONOUS protocol
+ * without losing them when AppVet is unavailable. Each report is moved into
+ * the outbox directory and recorded in an append-only journal before it is
+ * sent. Delivery threads send the reports and retry failures with exponential
+ * backoff and jitter. Reports still pending at startup are replayed from the
+ * journal. Reports that fail MaxAttempts times are moved to the dead-letter
+ * directory.
+ * <p>
+ * When the batch size is greater than one, new reports are held for up to the
+ * batch window and sent to AppVet together in one SUBMIT_REPORTS request. If
+ * AppVet rejects a batch, batching is turned off and each report is sent on
+ * its own. Retries are always sent on their own.
+ */
+public class ReportOutbox {
+	private static final Logger log = Properties.log;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String JOURNAL_NAME = "journal.txt";
+	private static final String ADD = "ADD";
+	private static final String RETRY = "RETRY";
+	private static final String DONE = "DONE";
+	private static final String DEAD = "DEAD";
+	private final File directory;
+	private final File reportsDir;
+	private final File deadDir;
+	private final File journalFile;
+	private final int maxAttempts;
+	private final long initialBackoff;
+	private final long maxBackoff;
+	private final int batchSize;
+	private final long batchWindow;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Random random = new Random();
+	/** Reports not yet delivered or dead-lettered, by ID. */
+	private final Map<String, Entry> pending = new LinkedHashMap<String, Entry>();
+	private final AtomicInteger sequence = new AtomicInteger();
+	private FileOutputStream journalStream = null;
+	private Writer journal = null;
+	/** New reports waiting to be sent in the next batch. */
+	private final List<Entry> batch = new ArrayList<Entry>();
+	private ScheduledFuture<?> batchTimer = null;
+	/** Set when AppVet rejects a batch; reports are then sent one by one. */
+	private volatile boolean batchRejected = false;
+
+	/** A report waiting for delivery. */
+	private static class Entry {
+		final String id;
+		final String appId;
+		final ToolStatus status;
+		final File report;
+		int attempts;
+
+		Entry(String id, String appId, ToolStatus status, File report,
+				int attempts) {
+			this.id = id;
+			this.appId = appId;
+			this.status = status;
+			this.report = report;
+			this.attempts = attempts;
+		}
+	}
+
+	public ReportOutbox(File directory, int deliveryThreads, int maxAttempts,
+			long initialBackoff, long maxBackoff, int batchSize,
+			long batchWindow) {
+		this.directory = directory;
+		this.reportsDir = new File(directory, "reports");
+		this.deadDir = new File(directory, "dead");
+		this.journalFile = new File(directory, JOURNAL_NAME);
+		this.maxAttempts = maxAttempts;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.batchSize = batchSize;
+		this.batchWindow = batchWindow;
+		executor = new ScheduledThreadPoolExecutor(deliveryThreads,
+				ServiceThreads.newFactory("sigverifier-delivery-"));
+	}
+
+	/**
+	 * Replays the journal, compacts it and schedules the reports that were
+	 * still pending when the service stopped.
+	 */
+	public synchronized void start() throws IOException {
+		reportsDir.mkdirs();
+		deadDir.mkdirs();
+		if (journalFile.exists()) {
+			replay();
+		}
+		compact();
+		for (Entry entry : pending.values()) {
+			dispatch(entry);
+		}
+		log.info("Started report outbox in " + directory + " with "
+				+ pending.size() + " pending reports");
+	}
+
+	/**
+	 * Moves a report into the outbox and queues it for delivery. The caller
+	 * does not wait for AppVet.
+	 * 
+	 * @return false if the report could not be stored in the outbox.
+	 */
+	public boolean submit(String appId, String reportFilePath,
+			ToolStatus status) {
+		String id = System.currentTimeMillis() + "-"
+				+ sequence.incrementAndGet();
+		String fileName = FileUtil.getFileName(reportFilePath);
+		File report = new File(reportsDir, id + "-" + fileName);
+		Entry entry = new Entry(id, appId, status, report, 0);
+		try {
+			Files.move(new File(reportFilePath).toPath(), report.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			synchronized (this) {
+				append(ADD, id, appId, status.name(), report.getName());
+				pending.put(id, entry);
+			}
+		} catch (IOException e) {
+			log.error("Could not add report for app " + appId
+					+ " to the outbox: " + e.toString());
+			return false;
+		}
+		dispatch(entry);
+		return true;
+	}
+
+	/** Returns the number of reports waiting for delivery. */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Stops delivery. Pending reports stay in the journal and are sent after
+	 * the next start.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		synchronized (this) {
+			try {
+				if (journal != null) {
+					journal.close();
+					journal = null;
+				}
+			} catch (IOException e) {
+				log.error("Could not close outbox journal: " + e.toString());
+			}
+		}
+		log.info("Stopped report outbox with " + getPendingCount()
+				+ " pending reports");
+	}
+
+	/** Adds a new report to the current batch, or schedules it on its own. */
+	private void dispatch(Entry entry) {
+		if (batchSize <= 1 || batchRejected) {
+			schedule(entry, 0);
+			return;
+		}
+		synchronized (batch) {
+			batch.add(entry);
+			if (batch.size() >= batchSize) {
+				if (batchTimer != null) {
+					batchTimer.cancel(false);
+					batchTimer = null;
+				}
+				scheduleBatch(takeBatch(), 0);
+			} else if (batchTimer == null) {
+				batchTimer = scheduleBatch(null, batchWindow);
+			}
+		}
+	}
+
+	/** Removes and returns the reports in the current batch. */
+	private List<Entry> takeBatch() {
+		synchronized (batch) {
+			List<Entry> entries = new ArrayList<Entry>(batch);
+			batch.clear();
+			return entries;
+		}
+	}
+
+	/**
+	 * Schedules a batch for delivery. A null batch is taken from the current
+	 * batch when the window closes.
+	 */
+	private ScheduledFuture<?> scheduleBatch(final List<Entry> entries,
+			long delay) {
+		try {
+			return executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					List<Entry> toSend = entries;
+					if (toSend == null) {
+						synchronized (batch) {
+							batchTimer = null;
+							toSend = takeBatch();
+						}
+					}
+					deliver(toSend);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down; the journal keeps the reports
+			return null;
+		}
+	}
+
+	private void schedule(final Entry entry, long delay) {
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					deliver(entry);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down; the journal keeps the report
+		}
+	}
+
+	private void deliver(Entry entry) {
+		boolean delivered = ReportUtil.sendInNewHttpRequest(entry.appId,
+				entry.report.getPath(), entry.status);
+		synchronized (this) {
+			complete(entry, delivered);
+		}
+	}
+
+	private void deliver(List<Entry> entries) {
+		if (entries.isEmpty()) {
+			return;
+		} else if (entries.size() == 1) {
+			deliver(entries.get(0));
+			return;
+		}
+		List<String> appIds = new ArrayList<String>(entries.size());
+		List<String> reportFilePaths = new ArrayList<String>(entries.size());
+		List<ToolStatus> statuses = new ArrayList<ToolStatus>(entries.size());
+		for (Entry entry : entries) {
+			appIds.add(entry.appId);
+			reportFilePaths.add(entry.report.getPath());
+			statuses.add(entry.status);
+		}
+		int statusCode = ReportUtil.sendBatchInNewHttpRequest(appIds,
+				reportFilePaths, statuses);
+		if (statusCode >= 200 && statusCode < 300) {
+			log.debug("Delivered batch of " + entries.size() + " reports");
+		} else if (statusCode != -1) {
+			// AppVet answered but does not accept batches. Send these and
+			// all later reports one by one without counting an attempt.
+			if (!batchRejected) {
+				batchRejected = true;
+				log.warn("AppVet rejected a batch of " + entries.size()
+						+ " reports (HTTP " + statusCode
+						+ "). Sending reports one by one");
+			}
+			for (Entry entry : takeBatch()) {
+				schedule(entry, 0);
+			}
+			for (Entry entry : entries) {
+				schedule(entry, 0);
+			}
+			return;
+		}
+		synchronized (this) {
+			for (Entry entry : entries) {
+				complete(entry, statusCode != -1);
+			}
+		}
+	}
+
+	/**
+	 * Records the result of a delivery attempt and retries, dead-letters or
+	 * removes the report. Called with the outbox lock held.
+	 */
+	private void complete(Entry entry, boolean delivered) {
+		try {
+			entry.attempts++;
+			if (delivered) {
+				append(DONE, entry.id);
+				pending.remove(entry.id);
+				FileUtil.deleteFile(entry.report.getPath());
+				log.debug("Delivered report for app " + entry.appId);
+			} else if (entry.attempts >= maxAttempts) {
+				try {
+					deadLetter(entry);
+				} catch (IOException e) {
+					if (!pending.containsKey(entry.id)) {
+						// Moved, but the journal was not updated
+						throw e;
+					}
+					// Still in the outbox. Keep trying rather than lose it.
+					long delay = getBackoff(entry.attempts);
+					log.error("Could not move report for app " + entry.appId
+							+ " to the dead-letter directory: " + e.toString()
+							+ ". Retrying in " + delay + " ms");
+					schedule(entry, delay);
+				}
+			} else {
+				append(RETRY, entry.id, Integer.toString(entry.attempts));
+				long delay = getBackoff(entry.attempts);
+				log.warn("Could not deliver report for app "
+						+ entry.appId + " (attempt " + entry.attempts
+						+ " of " + maxAttempts + "). Retrying in "
+						+ delay + " ms");
+				schedule(entry, delay);
+			}
+			if (pending.isEmpty()) {
+				compact();
+			}
+		} catch (IOException e) {
+			log.error("Could not update outbox journal: " + e.toString());
+		}
+	}
+
+	/**
+	 * Returns initialBackoff doubled for each failed attempt, capped at
+	 * maxBackoff, with jitter so retries from many reports spread out.
+	 */
+	private long getBackoff(int attempts) {
+		long delay = initialBackoff << Math.min(attempts - 1, 30);
+		if (delay <= 0 || delay > maxBackoff) {
+			delay = maxBackoff;
+		}
+		// Equal jitter: between half and all of the delay
+		return delay / 2 + (long) (random.nextDouble() * (delay / 2 + 1));
+	}
+
+	/**
+	 * Moves a report to the dead-letter directory. The report stays pending
+	 * if it could not be moved.
+	 */
+	private void deadLetter(Entry entry) throws IOException {
+		File deadReport = new File(deadDir, entry.report.getName());
+		Writer info = new OutputStreamWriter(new FileOutputStream(new File(
+				deadDir, entry.report.getName() + ".properties")), UTF_8);
+		try {
+			info.write("appid=" + entry.appId + "\n");
+			info.write("toolrisk=" + entry.status.name() + "\n");
+			info.write("attempts=" + entry.attempts + "\n");
+		} finally {
+			info.close();
+		}
+		Files.move(entry.report.toPath(), deadReport.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		pending.remove(entry.id);
+		log.error("Gave up delivering report for app " + entry.appId
+				+ " after " + entry.attempts + " attempts. Moved to "
+				+ deadReport);
+		append(DEAD, entry.id);
+	}
+
+	/** Rebuilds the pending reports from the journal. */
+	private void replay() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(journalFile), UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields[0].equals(ADD) && fields.length == 5) {
+					ToolStatus status = ToolStatus.getEnum(fields[3]);
+					File report = new File(reportsDir, fields[4]);
+					if (status != null && report.exists()) {
+						pending.put(fields[1], new Entry(fields[1], fields[2],
+								status, report, 0));
+					} else {
+						log.warn("Dropping outbox entry " + fields[1]
+								+ ": report missing");
+					}
+				} else if (fields[0].equals(RETRY) && fields.length == 3) {
+					Entry entry = pending.get(fields[1]);
+					if (entry != null) {
+						entry.attempts = Integer.parseInt(fields[2]);
+					}
+				} else if ((fields[0].equals(DONE) || fields[0].equals(DEAD))
+						&& fields.length == 2) {
+					pending.remove(fields[1]);
+				} else if (!line.isEmpty()) {
+					// A torn write at the end of the journal
+					log.warn("Ignoring outbox journal line: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with only the pending reports. The new journal
+	 * replaces the old one with an atomic rename.
+	 */
+	private void compact() throws IOException {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		File compacted = new File(directory, JOURNAL_NAME + ".tmp");
+		FileOutputStream out = new FileOutputStream(compacted);
+		Writer writer = new OutputStreamWriter(out, UTF_8);
+		try {
+			for (Entry entry : pending.values()) {
+				writer.write(ADD + "\t" + entry.id + "\t" + entry.appId + "\t"
+						+ entry.status.name() + "\t" + entry.report.getName()
+						+ "\n");
+				if (entry.attempts > 0) {
+					writer.write(RETRY + "\t" + entry.id + "\t"
+							+ entry.attempts + "\n");
+				}
+			}
+			writer.flush();
+			out.getFD().sync();
+		} finally {
+			writer.close();
+		}
+		Files.move(compacted.toPath(), journalFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Appends a record to the journal and syncs it to disk. */
+	private void append(String... fields) throws IOException {
+		if (journal == null) {
+			journalStream = new FileOutputStream(journalFile, true);
+			journal = new OutputStreamWriter(journalStream, UTF_8);
+		}
+		StringBuilder line = new StringBuilder();
+		for (String field : fields) {
+			if (line.length() > 0) {
+				line.append('\t');
+			}
+			// Fields cannot contain the separators
+			line.append(field.replace('\t', ' ').replace('\n', ' '));
+		}
+		journal.write(line.append('\n').toString());
+		journal.flush();
+		journalStream.getFD().sync();
+	}
+}
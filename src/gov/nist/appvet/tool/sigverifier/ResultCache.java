@@ -0,0 +1,181 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches verification results by the SHA-256 digest of the APK
+ * so that the same binary submitted under different app IDs is verified only
+ * once. The cache is bounded by the number of results and by the total
+ * length of their reports, which can each be up to
+ * /Tool/CommandMemoryThreshold characters. The least recently used results
+ * are evicted when either limit is reached, and results older than the
+ * configured time-to-live are discarded.
+ */
+public class ResultCache {
+
+	/** A cached tool status and verifier output. */
+	public static class Entry {
+		private final ToolStatus status;
+		private final String report;
+		private final VerificationResult result;
+		private final long created;
+
+		public Entry(ToolStatus status, String report,
+				VerificationResult result) {
+			this.status = status;
+			this.report = report;
+			this.result = result;
+			this.created = System.currentTimeMillis();
+		}
+
+		public ToolStatus getStatus() {
+			return status;
+		}
+
+		/** Returns the verifier output the status was derived from. */
+		public String getReport() {
+			return report;
+		}
+
+		/** Returns the in-process verification result, or null. */
+		public VerificationResult getResult() {
+			return result;
+		}
+	}
+
+	private final int maxEntries;
+	private final long maxChars;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private long chars = 0;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	/**
+	 * @param maxEntries
+	 *            Maximum number of cached results.
+	 * @param maxChars
+	 *            Maximum total length of the cached reports.
+	 * @param ttlMillis
+	 *            Time-to-live of a result, or 0 for no limit.
+	 */
+	public ResultCache(int maxEntries, long maxChars, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.maxChars = maxChars;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/** Returns the cached result for an APK digest, or null. */
+	public synchronized Entry get(String sha256) {
+		Entry entry = entries.get(sha256);
+		if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+			entries.remove(sha256);
+			chars -= entry.getReport().length();
+			expirations.incrementAndGet();
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Caches a result and evicts the least recently used results until both
+	 * limits are met. Returns false if the report alone is longer than the
+	 * character limit, so the result is not cached.
+	 */
+	public synchronized boolean put(String sha256, Entry entry) {
+		int length = entry.getReport().length();
+		if (length > maxChars) {
+			return false;
+		}
+		Entry previous = entries.put(sha256, entry);
+		if (previous != null) {
+			chars -= previous.getReport().length();
+		}
+		chars += length;
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (entries.size() > maxEntries || chars > maxChars) {
+			chars -= eldest.next().getReport().length();
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+		return true;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/** Returns the total length of the cached reports. */
+	public synchronized long getChars() {
+		return chars;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxChars() {
+		return maxChars;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** Returns the number of results evicted because the cache was full. */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/** Returns the number of results discarded because they expired. */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return ttlMillis > 0 && now - entry.created > ttlMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + size() + "/" + maxEntries + ", chars=" + getChars()
+				+ "/" + maxChars + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions()
+				+ ", expirations=" + getExpirations();
+	}
+}
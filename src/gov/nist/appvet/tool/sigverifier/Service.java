@@ -20,28 +20,35 @@
 package gov.nist.appvet.tool.sigverifier;
 
 import gov.nist.appvet.tool.sigverifier.util.FileUtil;
+import gov.nist.appvet.tool.sigverifier.util.HttpClientPool;
 import gov.nist.appvet.tool.sigverifier.util.HttpUtil;
 import gov.nist.appvet.tool.sigverifier.util.Logger;
+import gov.nist.appvet.tool.sigverifier.util.OutputCapture;
+import gov.nist.appvet.tool.sigverifier.util.PatternClassifier;
+import gov.nist.appvet.tool.sigverifier.util.PooledGzipOutputStream;
 import gov.nist.appvet.tool.sigverifier.util.Protocol;
 import gov.nist.appvet.tool.sigverifier.util.ReportFormat;
+import gov.nist.appvet.tool.sigverifier.util.ReportRenderer;
 import gov.nist.appvet.tool.sigverifier.util.ReportUtil;
+import gov.nist.appvet.tool.sigverifier.util.ServiceThreads;
 import gov.nist.appvet.tool.sigverifier.util.ToolStatus;
+import gov.nist.appvet.tool.sigverifier.util.VerifierMode;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
@@ -49,26 +56,26 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.fileupload.FileItem;
-import org.apache.commons.fileupload.FileItemFactory;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 
 /**
- * This class implements a synchronous tool service.
+ * This class implements a tool service. Under the ASYNCHRONOUS protocol,
+ * received apps are verified by the workers of a JobQueue.
  */
 public class Service extends HttpServlet {
 	private static final long serialVersionUID = 1L;
-	private static final String reportName = "report";
 	private static final Logger log = Properties.log;
-	private static String appDirPath = null;
-	private String appFilePath = null;
-	private String reportFilePath = null;
-	private String fileName = null;
-	private String appId = null;
-	private String command = null;
-	private StringBuffer reportBuffer = null;
+	/** Threads that drain command output. */
+	private static final ThreadFactory ioThreadFactory = ServiceThreads
+			.newFactory("sigverifier-io-");
+	private transient JobQueue jobQueue = null;
+	private transient ResultCache resultCache = null;
+	private transient ReportOutbox reportOutbox = null;
+	private transient ToolRunner toolRunner = null;
 
 	/** CHANGE (START): Add expected HTTP request parameters **/
 	/** CHANGE (END): Add expected HTTP request parameters **/
@@ -76,6 +83,81 @@ public class Service extends HttpServlet {
 		super();
 	}
 
+	/**
+	 * Creates a service with its job queue, report outbox and result cache,
+	 * any of which may be null, to run jobs outside a servlet container.
+	 * init() is not called.
+	 */
+	public Service(JobQueue jobQueue, ReportOutbox reportOutbox,
+			ResultCache resultCache) {
+		super();
+		this.jobQueue = jobQueue;
+		this.reportOutbox = reportOutbox;
+		this.resultCache = resultCache;
+	}
+
+	@Override
+	public void init() throws ServletException {
+		if (Properties.verifierMode == VerifierMode.TOOL) {
+			// Refuse to start rather than quietly fork the command. The JDK
+			// does not register jarsigner as a ToolProvider.
+			if (Properties.command == null) {
+				throw new ServletException(
+						"VerifierMode TOOL requires /Tool/Command");
+			}
+			String toolName = Properties.command.trim().split("\\s+")[0];
+			toolRunner = ToolRunner.find(toolName, Properties.toolConcurrency);
+			if (toolRunner == null) {
+				throw new ServletException("VerifierMode TOOL requires a "
+						+ "ToolProvider named " + toolName
+						+ " in this JVM. Use VerifierMode COMMAND to run "
+						+ toolName + " as a command.");
+			}
+		}
+		if (Properties.cacheSize > 0) {
+			resultCache = new ResultCache(Properties.cacheSize,
+					Properties.cacheMaxChars, Properties.cacheTtl);
+		}
+		if (Properties.protocol.equals(Protocol.ASYNCHRONOUS.name())) {
+			jobQueue = new JobQueue(Properties.jobWorkers,
+					Properties.jobQueueCapacity);
+			reportOutbox = new ReportOutbox(new File(Properties.OUTBOX_DIR),
+					Properties.outboxThreads, Properties.outboxMaxAttempts,
+					Properties.outboxInitialBackoff,
+					Properties.outboxMaxBackoff, Properties.outboxBatchSize,
+					Properties.outboxBatchWindow);
+			try {
+				reportOutbox.start();
+			} catch (IOException e) {
+				throw new ServletException("Could not start report outbox", e);
+			}
+		}
+		Metrics.register(jobQueue, reportOutbox, resultCache);
+	}
+
+	@Override
+	public void destroy() {
+		if (jobQueue != null) {
+			jobQueue.shutdown(Properties.commandTimeout);
+		}
+		if (reportOutbox != null) {
+			reportOutbox.shutdown();
+		}
+		Metrics.register(null, null, null);
+		if (toolRunner != null) {
+			toolRunner.shutdown();
+		}
+		ApkVerifier.shutdown();
+		if (resultCache != null) {
+			log.info("Result cache: " + resultCache);
+		}
+		log.info("AppVet connections: " + HttpClientPool.getStats());
+		HttpClientPool.shutdown();
+		PooledGzipOutputStream.clearPool();
+		// Write any queued log messages
+		log.close();
+	}
+
 	/*
 	 * // AppVet tool services will rarely use HTTP GET protected void
 	 * doGet(HttpServletRequest request, HttpServletResponse response) throws
@@ -84,256 +166,454 @@ public class Service extends HttpServlet {
 
 	protected void doPost(HttpServletRequest request,
 			HttpServletResponse response) throws ServletException, IOException {
-		// Get received HTTP parameters and file upload
-		FileItemFactory factory = new DiskFileItemFactory();
-		ServletFileUpload upload = new ServletFileUpload(factory);
-		List items = null;
-		FileItem fileItem = null;
+		// Get received HTTP parameters and stream the file upload straight
+		// to disk, hashing it on the way
+		ServletFileUpload upload = new ServletFileUpload();
+		String appId = null;
+		String fileName = null;
+		File uploadedFile = null;
+		String sha256 = null;
+		long appSize = -1;
+		Metrics.Timer parseTimer = Metrics.start(Metrics.Phase.MULTIPART);
+		boolean parsed = false;
 
 		try {
-			items = upload.parseRequest(request);
-		} catch (FileUploadException e) {
-			e.printStackTrace();
-		}
-
-		// Get received items
-		Iterator iter = items.iterator();
-		FileItem item = null;
-
-		while (iter.hasNext()) {
-			item = (FileItem) iter.next();
-			if (item.isFormField()) {
-				// Get HTML form parameters
-				String incomingParameter = item.getFieldName();
-				String incomingValue = item.getString();
-				if (incomingParameter.equals("appid")) {
-					appId = incomingValue;
-				}
-				/** CHANGE (START): Get other tools-specific form parameters **/
-				/** CHANGE (END): Get other tools-specific form parameters **/
-			} else {
-				// item should now hold the received file
-				if (item != null) {
-					fileItem = item;
-					log.debug("Received file: " + fileItem.getName());
+			FileItemIterator iter = upload.getItemIterator(request);
+			while (iter.hasNext()) {
+				FileItemStream item = iter.next();
+				InputStream stream = item.openStream();
+				if (item.isFormField()) {
+					// Get HTML form parameters
+					String incomingParameter = item.getFieldName();
+					String incomingValue = Streams.asString(stream, "UTF-8");
+					if (incomingParameter.equals("appid")) {
+						appId = incomingValue;
+					}
+					/** CHANGE (START): Get other tools-specific form parameters **/
+					/** CHANGE (END): Get other tools-specific form parameters **/
+				} else if (uploadedFile == null) {
+					// item holds the received file
+					log.debug("Received file: " + item.getName());
+					fileName = FileUtil.getFileName(item.getName());
+					if (!fileName.endsWith(".apk")) {
+						HttpUtil.sendHttp400(response,
+								"Invalid app file: " + item.getName());
+						return;
+					}
+					// Write to the app directory if the app ID is already
+					// known. Otherwise, move the file there afterwards.
+					if (appId != null) {
+						File appDir = new File(Properties.TEMP_DIR + "/" + appId);
+						if (!appDir.exists()) {
+							appDir.mkdir();
+						}
+						uploadedFile = new File(appDir, fileName);
+					} else {
+						uploadedFile = File.createTempFile("upload-", ".apk",
+								new File(Properties.TEMP_DIR));
+					}
+					MessageDigest md = MessageDigest.getInstance("SHA-256");
+					Metrics.Timer saveTimer = Metrics
+							.start(Metrics.Phase.SAVE_UPLOAD);
+					appSize = FileUtil.saveFileUpload(stream, uploadedFile, md);
+					saveTimer.end(appId, appSize, -1, null, appSize >= 0);
+					if (appSize < 0) {
+						HttpUtil.sendHttp500(response,
+								"Could not save uploaded file");
+						return;
+					}
+					sha256 = FileUtil.toHex(md.digest());
 				}
 			}
+			parsed = true;
+		} catch (FileUploadException e) {
+			log.error(e.toString());
+			if (uploadedFile != null) {
+				uploadedFile.delete();
+			}
+			HttpUtil.sendHttp400(response, "Invalid upload: " + e.getMessage());
+			return;
+		} catch (NoSuchAlgorithmException e) {
+			log.error(e.toString());
+			HttpUtil.sendHttp500(response, "Could not save uploaded file");
+			return;
+		} finally {
+			parseTimer.end(appId, appSize, -1, null, parsed);
 		}
 
 		if (appId == null) {
 			// All tool services require an AppVet app ID
+			if (uploadedFile != null) {
+				uploadedFile.delete();
+			}
 			HttpUtil.sendHttp400(response, "No app ID specified");
 			return;
 		}
 
-		if (fileItem != null) {
-			// Get app file
-			fileName = FileUtil.getFileName(fileItem.getName());
-			if (!fileName.endsWith(".apk")) {
-				HttpUtil.sendHttp400(response,
-						"Invalid app file: " + fileItem.getName());
-				return;
-			}
-			// Create app directory
-			appDirPath = Properties.TEMP_DIR + "/" + appId;
-			File appDir = new File(appDirPath);
+		if (uploadedFile == null) {
+			HttpUtil.sendHttp400(response, "No app was received.");
+			return;
+		}
+
+		VerificationJob job = new VerificationJob(appId, fileName,
+				sha256, appSize);
+		File appFile = new File(job.getAppFilePath());
+		if (!uploadedFile.equals(appFile)) {
+			File appDir = new File(job.getAppDirPath());
 			if (!appDir.exists()) {
 				appDir.mkdir();
 			}
-			// Create report path
-			reportFilePath = Properties.TEMP_DIR + "/" + appId + "/"
-					+ reportName + "." + Properties.reportFormat.toLowerCase();
-
-			appFilePath = Properties.TEMP_DIR + "/" + appId + "/" + fileName;
-			log.debug("App file path: " + appFilePath);
-			if (!FileUtil.saveFileUpload(fileItem, appFilePath)) {
+			if (!FileUtil.moveFile(uploadedFile, appFile)) {
+				uploadedFile.delete();
 				HttpUtil.sendHttp500(response, "Could not save uploaded file");
 				return;
 			}
-		} else {
-			HttpUtil.sendHttp400(response, "No app was received.");
-			return;
 		}
+		log.debug("App file path: " + job.getAppFilePath() + " (SHA-256 "
+				+ sha256 + ", " + appSize + " bytes)");
 
-		// Use if reading command from ToolProperties.xml. Otherwise,
-		// comment-out if using custom command (called by customExecute())
-		command = getCommand();
-
-		// If asynchronous, send acknowledgement back to AppVet now
+		// If asynchronous, queue the app and send acknowledgement back to
+		// AppVet now. The app is verified later by a worker thread.
 		if (Properties.protocol.equals(Protocol.ASYNCHRONOUS.name())) {
+			if (!submit(job)) {
+				log.warn("Job queue is full. Rejected " + job);
+				FileUtil.deleteDirectory(new File(job.getAppDirPath()));
+				HttpUtil.sendHttp503(response, "Too many apps queued. Retry app "
+						+ appId + " later.", Properties.jobRetryAfter);
+				return;
+			}
 			HttpUtil.sendHttp202(response, "Received app " + appId
 					+ " for processing.");
+			return;
 		}
+		processApp(response, HttpUtil.acceptsGzip(request), job);
+	}
+
+	/**
+	 * Queues an app for a worker thread under the ASYNCHRONOUS protocol. The
+	 * worker verifies the app, sends its report to AppVet through the outbox
+	 * and deletes the app directory.
+	 * 
+	 * @return false if the job queue is full.
+	 */
+	public boolean submit(final VerificationJob job) {
+		return jobQueue.submit(new Runnable() {
+			@Override
+			public void run() {
+				processApp(null, false, job);
+			}
+		});
+	}
+
+	/**
+	 * Verifies an app and sends its report to AppVet. The response is only
+	 * used under the SYNCHRONOUS protocol and is null otherwise. If
+	 * compressResponse is true, the response is gzip-compressed.
+	 */
+	private void processApp(HttpServletResponse response,
+			boolean compressResponse, VerificationJob job) {
+		// Command output past the memory threshold moves to the app directory
+		OutputCapture output = new OutputCapture(Properties.commandCharset,
+				Properties.commandOutputLimit,
+				Properties.commandMemoryThreshold, new File(
+						job.getAppDirPath()));
+		Metrics.jobStarted();
+		boolean reportSent = false;
+		try {
+			reportSent = processApp(response, compressResponse, job, output);
+		} catch (RuntimeException e) {
+			// Always answer AppVet, or it waits for this app's report forever
+			log.error("Could not process " + job + ": " + e.toString());
+			Metrics.recordResult(ToolStatus.ERROR);
+			try {
+				reportSent = sendReport(response, compressResponse, job, -1,
+						getErrorReport(job, null, null, e.toString(), 0),
+						ToolStatus.ERROR);
+			} catch (RuntimeException sendException) {
+				log.error("Could not send error report for " + job + ": "
+						+ sendException.toString());
+			}
+		} finally {
+			// Clean up on every path, as the app directory outlives the
+			// job on a worker thread. The output file, if any, is in the app
+			// directory. The report file has been moved to the outbox.
+			output.close();
+			if (!reportSent) {
+				// Keep the app and any report so the app can be sent again
+				log.error("Keeping " + job.getAppDirPath()
+						+ " as its report was not sent to AppVet");
+			} else if (!Properties.keepApps) {
+				if (FileUtil.deleteDirectory(new File(job.getAppDirPath()))) {
+					log.debug("Deleted " + job.getAppFilePath());
+				} else {
+					log.warn("Could not delete " + job.getAppFilePath());
+				}
+			}
+			Metrics.jobFinished();
+		}
+	}
+
+	/**
+	 * @return false if the report could not be sent or queued for AppVet.
+	 */
+	private boolean processApp(HttpServletResponse response,
+			boolean compressResponse, VerificationJob job, OutputCapture output) {
 		/*
 		 * CHANGE: Select either execute() to execute a native OS command or
 		 * customExecute() to execute your own custom code. Make sure that the
 		 * unused method call is commented-out.
 		 */
-		reportBuffer = new StringBuffer();
-		boolean succeeded = execute(command, reportBuffer);
+		// Reuse the result of an identical APK verified earlier
+		ResultCache.Entry cachedResult = null;
+		if (resultCache != null) {
+			cachedResult = resultCache.get(job.getSha256());
+			log.debug("Result cache " + (cachedResult != null ? "hit" : "miss")
+					+ " for " + job + " (" + resultCache + ")");
+		}
+
+		CharSequence report = output;
+		VerificationResult verificationResult = null;
+		boolean succeeded = false;
+		PatternClassifier.Session session = null;
+		Metrics.Timer verifyTimer = Metrics.start(Metrics.Phase.EXECUTE);
+		long verifyStart = System.nanoTime();
+		if (cachedResult != null) {
+			report = cachedResult.getReport();
+			verificationResult = cachedResult.getResult();
+			succeeded = true;
+		} else if (Properties.verifierMode == VerifierMode.INTERNAL) {
+			// Verify in-process instead of forking jarsigner
+			verificationResult = ApkVerifier.verify(new File(job
+					.getAppFilePath()));
+			report = verificationResult.getOutput();
+			succeeded = verificationResult.isCompleted();
+		} else if (toolRunner != null) {
+			// Run the command's tool in-process instead of forking it
+			session = Properties.classifier.newSession();
+			succeeded = toolRunner.run(job.getCommand(), output,
+					session, Properties.commandTimeout);
+		} else {
+			// Classify the output as the command runs
+			session = Properties.classifier.newSession();
+			succeeded = execute(job.getCommand(), output, session);
+		}
+		// Entries are only counted by the in-process verifier
+		int entryCount = verificationResult != null ? verificationResult
+				.getEntryCount() : -1;
+		if (cachedResult == null) {
+			verifyTimer.end(job, entryCount, null, succeeded);
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- verifyStart);
 		
 		// Delay for demo purposes
-        try {
-			Thread.sleep(Properties.delay);
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (Properties.delay > 0) {
+			try {
+				Thread.sleep(Properties.delay);
+			} catch (InterruptedException e) {
+				// The service is stopping. Keep the interrupt for the worker.
+				Thread.currentThread().interrupt();
+				log.warn("Demo delay interrupted for " + job);
+			}
 		}
-        
-		// boolean succeeded = customExecute(reportBuffer);
+
+		// boolean succeeded = customExecute(output);
 		if (!succeeded) {
-			log.error("Error detected: " + reportBuffer.toString());
-			String errorReport = ReportUtil
-					.getHtmlReport(
-							response,
-							fileName,
-							ToolStatus.ERROR,
-							reportBuffer.toString(),
-							"Description: \tApp is signed.\n\n",
-							"Description: \tApp is unsigned or incorrectly signed.\n\n",
-							null,
-							"Description: \tError or exception processing app.\n\n");
+			log.error("Error detected: " + ReportUtil.abbreviate(report));
 			// Send report to AppVet
-			if (Properties.protocol.equals(Protocol.SYNCHRONOUS.name())) {
-				// Send back ASCII in HTTP Response
-				ReportUtil.sendInHttpResponse(response, errorReport,
-						ToolStatus.ERROR);
-			} else if (Properties.protocol.equals(Protocol.ASYNCHRONOUS.name())) {
-				// Send report file in new HTTP Request to AppVet
-				if (FileUtil.saveReport(errorReport, reportFilePath)) {
-					ReportUtil.sendInNewHttpRequest(appId, reportFilePath,
-							ToolStatus.ERROR);
-				}
-			}
-			return;
+			Metrics.recordResult(ToolStatus.ERROR);
+			return sendReport(response, compressResponse, job, entryCount,
+					getErrorReport(job, session, verificationResult, report,
+							elapsed), ToolStatus.ERROR);
 		}
 
 		// Analyze report and generate tool status
-		log.debug("Analyzing report for " + appFilePath);
-		ToolStatus reportStatus = analyzeReport(reportBuffer
-				.toString());
+		log.debug("Analyzing report for " + job.getAppFilePath());
+		ToolStatus reportStatus = null;
+		if (cachedResult != null) {
+			reportStatus = cachedResult.getStatus();
+		} else {
+			Metrics.Timer analyzeTimer = Metrics
+					.start(Metrics.Phase.ANALYZE_REPORT);
+			if (verificationResult != null) {
+				reportStatus = analyzeReport(verificationResult);
+			} else {
+				reportStatus = analyzeReport(session);
+			}
+			analyzeTimer.end(job, entryCount, reportStatus, true);
+			if (resultCache != null
+					&& (output.isSpilled() || report.length() > resultCache
+							.getMaxChars())) {
+				// Too large to keep in memory for later hits
+				log.debug("Not caching the result of " + job + " ("
+						+ report.length() + " characters of output)");
+			} else if (resultCache != null) {
+				resultCache.put(job.getSha256(), new ResultCache.Entry(
+						reportStatus, report.toString(), verificationResult));
+			}
+		}
 		log.debug("Result: " + reportStatus.name());
-		String reportContent = null;
+		ReportRenderer reportContent = null;
 
-		// Get report
+		// Get report. HTML and JSON reports are rendered straight to the
+		// response or report file instead of being built as a String first.
 		if (Properties.reportFormat.equals(ReportFormat.HTML.name())) {
-			reportContent = ReportUtil
-					.getHtmlReport(
-							response,
-							fileName,
-							reportStatus,
-							reportBuffer.toString(),
-							"Description: \tApp is signed (Note: some warnings may exist. See below for details).\n\n",
-							"Description: \tApp is unsigned or incorrectly signed.\n\n",
-							"Description: \tApp is unsigned or incorrectly signed.\n\n",
-							"Description: \tError or exception processing app.\n\n");
-		} else if (Properties.reportFormat.equals(ReportFormat.TXT.name())) {
-			reportContent = getTxtReport();
-		} else if (Properties.reportFormat.equals(ReportFormat.PDF.name())) {
-			reportContent = getPdfReport();
+			String lowDescription = "Description: \tApp is signed (Note: some warnings may exist. See below for details).\n\n";
+			String moderateDescription = "Description: \tApp is unsigned or incorrectly signed.\n\n";
+			String highDescription = "Description: \tApp is unsigned or incorrectly signed.\n\n";
+			String errorDescription = "Description: \tError or exception processing app.\n\n";
+			if (verificationResult != null) {
+				reportContent = ReportUtil.getHtmlRenderer(
+						job.getFileName(), reportStatus, verificationResult,
+						lowDescription,
+						moderateDescription, highDescription, errorDescription);
+			} else {
+				reportContent = ReportUtil.getHtmlRenderer(
+						job.getFileName(), reportStatus,
+						report, lowDescription,
+						moderateDescription, highDescription, errorDescription);
+			}
 		} else if (Properties.reportFormat.equals(ReportFormat.JSON.name())) {
-			reportContent = getJsonReport();
+			reportContent = getJsonRenderer(job, reportStatus, session,
+					verificationResult, report, elapsed);
+		} else {
+			String textReport = null;
+			if (Properties.reportFormat.equals(ReportFormat.TXT.name())) {
+				textReport = getTxtReport();
+			} else if (Properties.reportFormat.equals(ReportFormat.PDF.name())) {
+				textReport = getPdfReport();
+			}
+			// If report is null or empty, stop processing
+			if (textReport == null || textReport.isEmpty()) {
+				log.error("Tool report is null or empty");
+				return false;
+			}
+			reportContent = ReportUtil.getTextRenderer(textReport);
 		}
 
-		// If report is null or empty, stop processing
-		if (reportContent == null || reportContent.isEmpty()) {
-			log.error("Tool report is null or empty");
-			return;
+		// Send report to AppVet
+		Metrics.recordResult(reportStatus);
+		return sendReport(response, compressResponse, job, entryCount,
+				reportContent, reportStatus);
+	}
+	
+	/** Returns a renderer for the report of an app that failed. */
+	private static ReportRenderer getErrorReport(VerificationJob job,
+			PatternClassifier.Session session,
+			VerificationResult verificationResult, CharSequence report,
+			long elapsed) {
+		if (Properties.reportFormat.equals(ReportFormat.JSON.name())) {
+			return getJsonRenderer(job, ToolStatus.ERROR, session,
+					verificationResult, report, elapsed);
 		}
+		return ReportUtil
+				.getHtmlRenderer(
+						job.getFileName(),
+						ToolStatus.ERROR,
+						report,
+						"Description: \tApp is signed.\n\n",
+						"Description: \tApp is unsigned or incorrectly signed.\n\n",
+						null,
+						"Description: \tError or exception processing app.\n\n");
+	}
 
-		// Send report to AppVet
+	/**
+	 * Sends the report back in the HTTP response under the SYNCHRONOUS
+	 * protocol, or queues its file for a new HTTP request to AppVet under the
+	 * ASYNCHRONOUS protocol.
+	 * 
+	 * @return false if the report could not be saved or queued under the
+	 *         ASYNCHRONOUS protocol. A failed HTTP response cannot be sent
+	 *         again, so it is only logged.
+	 */
+	private boolean sendReport(HttpServletResponse response,
+			boolean compressResponse, VerificationJob job, int entryCount,
+			ReportRenderer report, ToolStatus reportStatus) {
 		if (Properties.protocol.equals(Protocol.SYNCHRONOUS.name())) {
 			// Send back ASCII in HTTP Response
-			ReportUtil
-			.sendInHttpResponse(response, reportContent, reportStatus);
+			Metrics.Timer renderTimer = Metrics
+					.start(Metrics.Phase.RENDER_REPORT);
+			boolean sent = ReportUtil.sendInHttpResponse(response, report,
+					reportStatus, compressResponse);
+			renderTimer.end(job, entryCount, reportStatus, sent);
+			if (!sent) {
+				log.error("Could not send report for " + job
+						+ " in the HTTP response");
+			}
 		} else if (Properties.protocol.equals(Protocol.ASYNCHRONOUS.name())) {
-			// Send report file in new HTTP Request to AppVet
-			if (FileUtil.saveReport(reportContent, reportFilePath)) {
-				ReportUtil.sendInNewHttpRequest(appId, reportFilePath,
-						reportStatus);
+			// Queue report file for a new HTTP Request to AppVet. The
+			// outbox moves it out of the app directory before cleanup.
+			Metrics.Timer saveTimer = Metrics.start(Metrics.Phase.SAVE_REPORT);
+			boolean saved = FileUtil.saveReport(report,
+					job.getReportFilePath());
+			saveTimer.end(job, entryCount, reportStatus, saved);
+			if (!saved) {
+				log.error("Could not save report for " + job + " to "
+						+ job.getReportFilePath());
+				return false;
 			}
-		}
-
-		// Clean up
-		if (!Properties.keepApps) {
-			if (FileUtil.deleteDirectory(new File(appDirPath))) {
-				log.debug("Deleted " + appFilePath);
-			} else {
-				log.warn("Could not delete " + appFilePath);
+			if (!reportOutbox.submit(job.getAppId(), job.getReportFilePath(),
+					reportStatus)) {
+				log.error("Could not queue report for " + job
+						+ " for AppVet");
+				return false;
 			}
 		}
-
-		reportBuffer = null;
-		
-		// Clean up
-		System.gc();
+		return true;
 	}
-	
+
     public static ToolStatus analyzeReport(String report) {
 	if (report == null || report.isEmpty()) {
 	    log.error("Report is null or empty.");
 	    return ToolStatus.ERROR;
 	}
-	// Scan file for result strings defined in configuration file. Here,
-	// we always scan in this order: ERRORs, HIGHs, MODERATEs, and LOWs.
-	if (Properties.errorResults != null
-		&& !Properties.errorResults.isEmpty()) {
-	    for (String s : Properties.errorResults) {
-		if (report.indexOf(s) > -1) {
-		    log.debug("Error message: " + s);
-		    return ToolStatus.ERROR;
+	// Scan the report once for all result strings defined in the
+	// configuration file. ERRORs take precedence over HIGHs, MODERATEs and
+	// LOWs.
+	return getStatus(Properties.classifier.classify(report));
+    }
+
+	/** Returns the status of a report already scanned while it was read. */
+	public static ToolStatus analyzeReport(PatternClassifier.Session session) {
+		if (session == null || session.getLength() == 0) {
+			log.error("Report is null or empty.");
+			return ToolStatus.ERROR;
 		}
-	    }
+		return getStatus(session.getClassification());
 	}
-	if (Properties.highResults != null && !Properties.highResults.isEmpty()) {
-	    for (String s : Properties.highResults) {
-		if (report.indexOf(s) > -1) {
-		    log.debug("High message: " + s);
-		    return ToolStatus.HIGH;
+
+	private static ToolStatus getStatus(
+			PatternClassifier.Classification classification) {
+		for (PatternClassifier.Rule rule : classification.getMatchedRules()) {
+			log.debug("Matched " + rule);
 		}
-	    }
-	}
-	if (Properties.moderateResults != null
-		&& !Properties.moderateResults.isEmpty()) {
-	    for (String s : Properties.moderateResults) {
-		if (report.indexOf(s) > -1) {
-		    log.debug("Moderate message: " + s);
-		    return ToolStatus.MODERATE;
+		if (classification.getStatus() != null) {
+			return classification.getStatus();
 		}
-	    }
+		return Properties.defaultStatus;
 	}
-	if (Properties.lowResults != null && !Properties.lowResults.isEmpty()) {
-	    for (String s : Properties.lowResults) {
-		if (report.indexOf(s) > -1) {
-		    log.debug("Low message: " + s);
-		    return ToolStatus.LOW;
-		}
-	    }
-	}
-	return Properties.defaultStatus;
-    }
 
-	public String getCommand() {
-		// Get command from ToolProperties.xml file
-		String cmd1 = Properties.command;
-		String cmd2 = null;
-		if (cmd1.indexOf(Properties.APP_FILE_PATH) > -1) {
-			// Add app file path
-			cmd2 = cmd1.replace(Properties.APP_FILE_PATH, appFilePath);
-		} else {
-			cmd2 = cmd1;
+	public static ToolStatus analyzeReport(VerificationResult result) {
+		if (result == null || !result.isCompleted()) {
+			log.error("APK could not be verified.");
+			return ToolStatus.ERROR;
 		}
-
-		log.debug("full command: " + cmd2);
-		return cmd2;
+		return analyzeReport(result.getOutput());
 	}
 
-	private static boolean execute(String command, StringBuffer output) {
+	/**
+	 * Runs the command and captures its output. Standard output is written to
+	 * output and fed to session as it is read. If the command fails, output
+	 * gets its error output instead.
+	 */
+	private static boolean execute(String command, OutputCapture output,
+			PatternClassifier.Session session) {
 		List<String> commandArgs = Arrays.asList(command.split("\\s+"));
 		ProcessBuilder pb = new ProcessBuilder(commandArgs);
 		Process process = null;
 		IOThreadHandler outputHandler = null;
 		IOThreadHandler errorHandler = null;
+		OutputCapture errors = output.newCapture();
 		int exitValue = -1;
 		try {
 			if (command == null || command.isEmpty()) {
@@ -342,97 +622,158 @@ public class Service extends HttpServlet {
 			}
 			log.debug("Executing " + command);
 			process = pb.start();
-			outputHandler = new IOThreadHandler(process.getInputStream());
+			outputHandler = new IOThreadHandler(process.getInputStream(),
+					output, session, Properties.fastFail ? process : null);
 			outputHandler.start();
-			errorHandler = new IOThreadHandler(process.getErrorStream());
+			errorHandler = new IOThreadHandler(process.getErrorStream(),
+					errors, null, null);
 			errorHandler.start();
 			if (process.waitFor(Properties.commandTimeout,
 					TimeUnit.MILLISECONDS)) {
 				// Process has waited and exited within the timeout
+				if (session != null && session.isDecided()
+						&& Properties.fastFail) {
+					outputHandler.finish(0);
+					errorHandler.finish(0);
+					log.error("Command stopped after an error result: \n"
+							+ ReportUtil.abbreviate(output));
+					return false;
+				}
+				// Let the handlers drain and classify the rest of the output
+				outputHandler.finish(Properties.commandTimeout);
+				errorHandler.finish(Properties.commandTimeout);
 				exitValue = process.exitValue();
 				if (exitValue == 0) {
-					log.debug("Command terminated normally: \n"
-							+ outputHandler.getOutput() + "\nErrors: "
-							+ errorHandler.getOutput());
-					StringBuffer resultOut = outputHandler.getOutput();
-					output.append(resultOut);
+					log.debug("Command terminated normally with "
+							+ output.length() + " characters of output. Errors: "
+							+ ReportUtil.abbreviate(errors));
 					return true;
 				} else {
 					log.error("Command terminated abnormally: \n"
-							+ outputHandler.getOutput() + "\nErrors: "
-							+ errorHandler.getOutput());
-					StringBuffer resultError = errorHandler.getOutput();
-					output.append(resultError);
+							+ ReportUtil.abbreviate(output) + "\nErrors: "
+							+ ReportUtil.abbreviate(errors));
+					output.clear();
+					output.append(errors);
 					return false;
 				}
 			} else {
 				// Process exceed timeout or was interrupted
+				process.destroy();
+				outputHandler.finish(0);
+				errorHandler.finish(0);
 				log.error("Command timed-out or was interrupted: \n"
-						+ outputHandler.getOutput() + "\nErrors: "
-						+ errorHandler.getOutput());
-				StringBuffer resultOutput = outputHandler.getOutput();
-				StringBuffer resultError = errorHandler.getOutput();
-				if (resultOutput != null) {
-					output.append(resultOutput);
-					return false;
-				} else if (resultError != null) {
-					output.append(resultError);
-				} else {
-					output.append(Properties.toolName + " timed-out");
+						+ ReportUtil.abbreviate(output) + "\nErrors: "
+						+ ReportUtil.abbreviate(errors));
+				if (output.length() == 0) {
+					if (errors.length() > 0) {
+						output.append(errors);
+					} else {
+						output.append(Properties.toolName + " timed-out");
+					}
 				}
 				return false;
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.error("Could not run " + command + ": " + e.getMessage());
 			return false;
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			// The service is stopping. Keep the interrupt for the worker.
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while running " + command);
 			return false;
 		} finally {
-			if (outputHandler.isAlive()) {
-				try {
-					outputHandler.inputStream.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+			if (outputHandler != null && outputHandler.isAlive()) {
+				outputHandler.closeStream();
 			}
-			if (errorHandler.isAlive()) {
-				try {
-					errorHandler.inputStream.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+			if (errorHandler != null && errorHandler.isAlive()) {
+				errorHandler.closeStream();
 			}
-			if (process.isAlive()) {
+			errors.close();
+			if (process != null && process.isAlive()) {
 				process.destroy();
 			}
 		}
 	}
 
-	private static class IOThreadHandler extends Thread {
+	private static class IOThreadHandler implements Runnable {
 		private InputStream inputStream;
-		private StringBuffer output = new StringBuffer();
-		private static final String lineSeparator = System
-				.getProperty("line.separator");;
-
-				IOThreadHandler(InputStream inputStream) {
+		private Thread thread;
+		private OutputCapture output;
+		private PatternClassifier.Session session;
+		private Process fastFailProcess;
+
+				/**
+				 * Output is written to output and fed to session, if not null,
+				 * as it is read. If fastFailProcess is not null, it is
+				 * destroyed as soon as an ERROR rule matches.
+				 */
+				IOThreadHandler(InputStream inputStream, OutputCapture output,
+						PatternClassifier.Session session,
+						Process fastFailProcess) {
 					this.inputStream = inputStream;
+					this.output = output;
+					this.session = session;
+					this.fastFailProcess = fastFailProcess;
 				}
 
 				public void run() {
-					Scanner br = null;
+					Runnable onDecided = null;
+					if (fastFailProcess != null) {
+						onDecided = new Runnable() {
+							public void run() {
+								log.debug("Error result found. Stopping command.");
+								fastFailProcess.destroy();
+							}
+						};
+					}
+					try {
+						output.readFrom(inputStream, session, onDecided);
+					} catch (IOException e) {
+						// Stream closed after a timeout or fast fail
+						log.debug("Output stream closed: " + e.getMessage());
+					} finally {
+						closeStream();
+					}
+					if (output.isTruncated()) {
+						log.warn("Command output exceeded "
+								+ Properties.commandOutputLimit
+								+ " characters. Discarded "
+								+ output.getDiscardedCount());
+					}
+				}
+
+				/**
+				 * Waits up to millis for the stream to end. The output is then
+				 * detached from the handler so it can be read even if a child
+				 * of the command still holds the stream open.
+				 */
+				void finish(long millis) throws InterruptedException {
+					if (millis > 0) {
+						thread.join(millis);
+					}
+					output.detach();
+					if (thread.isAlive()) {
+						closeStream();
+					}
+				}
 
-					br = new Scanner(new InputStreamReader(inputStream));
-					String line = null;
-					while (br.hasNextLine()) {
-						line = br.nextLine();
-						output.append(line + lineSeparator);
+				void closeStream() {
+					try {
+						inputStream.close();
+					} catch (IOException e) {
+						log.warn("Could not close command output: "
+								+ e.getMessage());
 					}
-					br.close();
 				}
 
-				public StringBuffer getOutput() {
-					return output;
+				/** Starts draining on a platform or virtual thread. */
+				void start() {
+					thread = ioThreadFactory.newThread(this);
+					thread.start();
+				}
+
+				boolean isAlive() {
+					return thread != null && thread.isAlive();
 				}
 	}
 	
@@ -446,8 +787,26 @@ public class Service extends HttpServlet {
 		return null;
 	}
 
-	// TODO
-	public String getJsonReport() {
-		return null;
+	/**
+	 * Returns a renderer for the JSON report. The matched rules come from the
+	 * session that classified the command output, or from classifying the
+	 * report again for in-process and cached results.
+	 */
+	private static ReportRenderer getJsonRenderer(VerificationJob job,
+			ToolStatus reportStatus, PatternClassifier.Session session,
+			VerificationResult verificationResult, CharSequence report,
+			long elapsed) {
+		PatternClassifier.Classification classification = null;
+		if (session != null) {
+			classification = session.getClassification();
+		} else {
+			classification = Properties.classifier.classify(report);
+		}
+		if (verificationResult != null) {
+			return ReportUtil.getJsonRenderer(job.getFileName(), reportStatus,
+					classification, verificationResult, elapsed);
+		}
+		return ReportUtil.getJsonRenderer(job.getFileName(), reportStatus,
+				classification, report, elapsed);
 	}
 }
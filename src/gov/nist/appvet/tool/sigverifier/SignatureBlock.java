@@ -0,0 +1,433 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * This class parses the PKCS #7 SignedData in a v1 signature block file
+ * (META-INF/*.RSA, *.DSA or *.EC) and verifies it against the signature file
+ * (META-INF/*.SF) it signs. It also verifies the timestamp token of each
+ * signer, whose time is used when checking disabled algorithms. As in the
+ * JDK, the certificate of the timestamping authority is not validated.
+ */
+final class SignatureBlock {
+	private static final String SIGNED_DATA_OID = "1.2.840.113549.1.7.2";
+	private static final String MESSAGE_DIGEST_OID = "1.2.840.113549.1.9.4";
+	private static final String TIMESTAMP_TOKEN_OID = "1.2.840.113549.1.9.16.2.14";
+	private static final String TST_INFO_OID = "1.2.840.113549.1.9.16.1.4";
+	private static final int TAG_INTEGER = 0x02;
+	private static final int TAG_OCTET_STRING = 0x04;
+	private static final int TAG_OID = 0x06;
+	private static final int TAG_GENERALIZED_TIME = 0x18;
+	private static final int TAG_SEQUENCE = 0x30;
+	private static final int TAG_SET = 0x31;
+	private static final int TAG_CONTEXT_0 = 0xa0;
+	private static final int TAG_CONTEXT_1 = 0xa1;
+
+	private static class SignerInfo {
+		X500Principal issuer;
+		BigInteger serialNumber;
+		String digestAlgorithmOid;
+		byte[] authenticatedAttributes;
+		byte[] messageDigest;
+		byte[] encryptedDigest;
+		boolean timestamped;
+		byte[] timestampToken;
+	}
+
+	private final List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+	private final List<SignerInfo> signerInfos = new ArrayList<SignerInfo>();
+	private String contentType = null;
+	private byte[] content = null;
+
+	SignatureBlock(byte[] encoded) throws GeneralSecurityException {
+		DerValue contentInfo = new DerValue(encoded, 0, encoded.length);
+		List<DerValue> contentInfoFields = contentInfo.getChildren(TAG_SEQUENCE);
+		if (contentInfoFields.size() < 2
+				|| !SIGNED_DATA_OID.equals(contentInfoFields.get(0).getOid())) {
+			throw new SignatureException("Not a PKCS #7 SignedData block");
+		}
+		DerValue signedData = contentInfoFields.get(1)
+				.getChildren(TAG_CONTEXT_0).get(0);
+		List<DerValue> fields = signedData.getChildren(TAG_SEQUENCE);
+		// version, digestAlgorithms and contentInfo come first
+		if (fields.size() > 2) {
+			List<DerValue> contentInfoValue = fields.get(2).getChildren(
+					TAG_SEQUENCE);
+			contentType = contentInfoValue.get(0).getOid();
+			// v1 signatures are detached; timestamp tokens hold a TSTInfo
+			if (contentInfoValue.size() > 1
+					&& contentInfoValue.get(1).tag == TAG_CONTEXT_0) {
+				List<DerValue> explicit = contentInfoValue.get(1)
+						.getChildren(TAG_CONTEXT_0);
+				if (!explicit.isEmpty()
+						&& explicit.get(0).tag == TAG_OCTET_STRING) {
+					content = explicit.get(0).getContent(TAG_OCTET_STRING);
+				}
+			}
+		}
+		int i = 3;
+		CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+		if (i < fields.size() && fields.get(i).tag == TAG_CONTEXT_0) {
+			for (DerValue certificate : fields.get(i).getChildren(TAG_CONTEXT_0)) {
+				certificates.add((X509Certificate) certFactory
+						.generateCertificate(new ByteArrayInputStream(
+								certificate.getEncoded())));
+			}
+			i++;
+		}
+		if (i < fields.size() && fields.get(i).tag == TAG_CONTEXT_1) {
+			i++;
+		}
+		if (i >= fields.size()) {
+			throw new SignatureException("No signer information");
+		}
+		for (DerValue signerInfo : fields.get(i).getChildren(TAG_SET)) {
+			signerInfos.add(parseSignerInfo(signerInfo));
+		}
+		if (signerInfos.isEmpty()) {
+			throw new SignatureException("No signer information");
+		}
+	}
+
+	/**
+	 * Verifies every signer of the block over the signature file.
+	 * 
+	 * @return the certificate of the first signer.
+	 */
+	X509Certificate verify(byte[] signatureFile) throws GeneralSecurityException {
+		X509Certificate first = null;
+		for (SignerInfo signerInfo : signerInfos) {
+			X509Certificate certificate = findCertificate(signerInfo);
+			String digestName = getDigestName(signerInfo.digestAlgorithmOid);
+			byte[] signedContent = signatureFile;
+			if (signerInfo.authenticatedAttributes != null) {
+				byte[] digest = MessageDigest.getInstance(digestName).digest(
+						signatureFile);
+				if (!Arrays.equals(digest, signerInfo.messageDigest)) {
+					throw new SignatureException(
+							"Signature file digest does not match signed attributes");
+				}
+				signedContent = signerInfo.authenticatedAttributes;
+			}
+			Signature signature = Signature.getInstance(getSignatureAlgorithm(
+					digestName, certificate));
+			signature.initVerify(certificate.getPublicKey());
+			signature.update(signedContent);
+			if (!signature.verify(signerInfo.encryptedDigest)) {
+				throw new SignatureException(signature.getAlgorithm()
+						+ " signature did not verify");
+			}
+			if (first == null) {
+				first = certificate;
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * Returns the first algorithm or key of a signer that is disabled for
+	 * signed JARs at the given date, or null if all are permitted.
+	 */
+	String findDisabledAlgorithm(DisabledAlgorithms disabledAlgorithms,
+			Date date) throws GeneralSecurityException {
+		for (SignerInfo signerInfo : signerInfos) {
+			X509Certificate certificate = findCertificate(signerInfo);
+			String digestName = getDigestName(signerInfo.digestAlgorithmOid);
+			String signatureAlgorithm = getSignatureAlgorithm(digestName,
+					certificate);
+			if (!disabledAlgorithms.permits(digestName, date)) {
+				return digestName;
+			} else if (!disabledAlgorithms.permits(signatureAlgorithm, date)) {
+				return signatureAlgorithm;
+			} else if (!disabledAlgorithms.permits(
+					certificate.getPublicKey(), date)) {
+				return certificate.getPublicKey().getAlgorithm() + " key";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the latest time of the verified timestamps of the signers, or
+	 * null if a signer has no timestamp that verifies. Like the JDK, disabled
+	 * algorithms are then checked at the current time.
+	 */
+	Date getTimestamp() {
+		Date latest = null;
+		for (SignerInfo signerInfo : signerInfos) {
+			Date time = signerInfo.timestampToken == null ? null
+					: verifyTimestamp(signerInfo);
+			if (time == null) {
+				return null;
+			}
+			if (latest == null || time.after(latest)) {
+				latest = time;
+			}
+		}
+		return latest;
+	}
+
+	/** Returns true if every signer includes a timestamp token. */
+	boolean isTimestamped() {
+		for (SignerInfo signerInfo : signerInfos) {
+			if (!signerInfo.timestamped) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private X509Certificate findCertificate(SignerInfo signerInfo)
+			throws SignatureException {
+		for (X509Certificate certificate : certificates) {
+			if (certificate.getSerialNumber().equals(signerInfo.serialNumber)
+					&& certificate.getIssuerX500Principal().equals(
+							signerInfo.issuer)) {
+				return certificate;
+			}
+		}
+		throw new SignatureException("Signer certificate not found");
+	}
+
+	private static SignerInfo parseSignerInfo(DerValue value)
+			throws GeneralSecurityException {
+		List<DerValue> fields = value.getChildren(TAG_SEQUENCE);
+		SignerInfo signerInfo = new SignerInfo();
+		// version
+		int i = 1;
+		DerValue signerId = fields.get(i++);
+		if (signerId.tag != TAG_SEQUENCE) {
+			throw new SignatureException(
+					"Unsupported signer identifier; issuer and serial number expected");
+		}
+		List<DerValue> issuerAndSerial = signerId.getChildren(TAG_SEQUENCE);
+		signerInfo.issuer = new X500Principal(issuerAndSerial.get(0)
+				.getEncoded());
+		signerInfo.serialNumber = new BigInteger(issuerAndSerial.get(1)
+				.getContent(TAG_INTEGER));
+		signerInfo.digestAlgorithmOid = fields.get(i++)
+				.getChildren(TAG_SEQUENCE).get(0).getOid();
+		if (fields.get(i).tag == TAG_CONTEXT_0) {
+			// Signed attributes are signed with their SET OF tag
+			DerValue attributes = fields.get(i++);
+			signerInfo.authenticatedAttributes = attributes.getEncoded();
+			signerInfo.authenticatedAttributes[0] = (byte) TAG_SET;
+			for (DerValue attribute : attributes.getChildren(TAG_CONTEXT_0)) {
+				List<DerValue> attributeFields = attribute
+						.getChildren(TAG_SEQUENCE);
+				if (MESSAGE_DIGEST_OID.equals(attributeFields.get(0).getOid())) {
+					signerInfo.messageDigest = attributeFields.get(1)
+							.getChildren(TAG_SET).get(0)
+							.getContent(TAG_OCTET_STRING);
+				}
+			}
+			if (signerInfo.messageDigest == null) {
+				throw new SignatureException(
+						"Signed attributes do not include a message digest");
+			}
+		}
+		// digestEncryptionAlgorithm
+		i++;
+		signerInfo.encryptedDigest = fields.get(i++).getContent(
+				TAG_OCTET_STRING);
+		if (i < fields.size() && fields.get(i).tag == TAG_CONTEXT_1) {
+			for (DerValue attribute : fields.get(i).getChildren(TAG_CONTEXT_1)) {
+				List<DerValue> attributeFields = attribute
+						.getChildren(TAG_SEQUENCE);
+				if (TIMESTAMP_TOKEN_OID.equals(attributeFields.get(0).getOid())) {
+					signerInfo.timestamped = true;
+					signerInfo.timestampToken = attributeFields.get(1)
+							.getChildren(TAG_SET).get(0).getEncoded();
+				}
+			}
+		}
+		return signerInfo;
+	}
+
+	/**
+	 * Verifies a timestamp token over the signature of a signer and returns
+	 * its time, or null if it does not verify.
+	 */
+	private static Date verifyTimestamp(SignerInfo signerInfo) {
+		try {
+			SignatureBlock token = new SignatureBlock(signerInfo.timestampToken);
+			if (!TST_INFO_OID.equals(token.contentType) || token.content == null) {
+				return null;
+			}
+			token.verify(token.content);
+			// version, policy, messageImprint, serialNumber and genTime
+			List<DerValue> tstInfo = new DerValue(token.content, 0,
+					token.content.length).getChildren(TAG_SEQUENCE);
+			List<DerValue> messageImprint = tstInfo.get(2).getChildren(
+					TAG_SEQUENCE);
+			String digestName = getDigestName(messageImprint.get(0)
+					.getChildren(TAG_SEQUENCE).get(0).getOid());
+			byte[] digest = MessageDigest.getInstance(digestName).digest(
+					signerInfo.encryptedDigest);
+			if (!Arrays.equals(digest, messageImprint.get(1).getContent(
+					TAG_OCTET_STRING))) {
+				return null;
+			}
+			// YYYYMMDDhhmmss[.s...]Z
+			String genTime = new String(tstInfo.get(4).getContent(
+					TAG_GENERALIZED_TIME), "US-ASCII");
+			SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return format.parse(genTime.substring(0, 14));
+		} catch (GeneralSecurityException e) {
+			return null;
+		} catch (ParseException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static String getSignatureAlgorithm(String digestName,
+			X509Certificate certificate) {
+		String keyAlgorithm = certificate.getPublicKey().getAlgorithm();
+		if (keyAlgorithm.equals("EC")) {
+			keyAlgorithm = "ECDSA";
+		}
+		return digestName.replace("-", "") + "with" + keyAlgorithm;
+	}
+
+	private static String getDigestName(String oid) throws SignatureException {
+		if ("1.3.14.3.2.26".equals(oid)) {
+			return "SHA-1";
+		} else if ("2.16.840.1.101.3.4.2.1".equals(oid)) {
+			return "SHA-256";
+		} else if ("2.16.840.1.101.3.4.2.2".equals(oid)) {
+			return "SHA-384";
+		} else if ("2.16.840.1.101.3.4.2.3".equals(oid)) {
+			return "SHA-512";
+		} else if ("2.16.840.1.101.3.4.2.4".equals(oid)) {
+			return "SHA-224";
+		}
+		throw new SignatureException("Unsupported digest algorithm " + oid);
+	}
+
+	/** A DER-encoded value within a byte array. */
+	private static final class DerValue {
+		final byte[] data;
+		final int tag;
+		final int headerOffset;
+		final int offset;
+		final int length;
+
+		DerValue(byte[] data, int position, int end) throws SignatureException {
+			if (end - position < 2) {
+				throw new SignatureException("Truncated DER value");
+			}
+			this.data = data;
+			this.headerOffset = position;
+			this.tag = data[position++] & 0xff;
+			int length = data[position++] & 0xff;
+			if (length == 0x80) {
+				throw new SignatureException("Indefinite length not supported");
+			} else if (length > 0x80) {
+				int count = length & 0x7f;
+				if (count > 4 || end - position < count) {
+					throw new SignatureException("Invalid DER length");
+				}
+				length = 0;
+				for (int i = 0; i < count; i++) {
+					length = (length << 8) | (data[position++] & 0xff);
+				}
+			}
+			if (length < 0 || end - position < length) {
+				throw new SignatureException("DER value extends past its container");
+			}
+			this.offset = position;
+			this.length = length;
+		}
+
+		List<DerValue> getChildren(int expectedTag) throws SignatureException {
+			checkTag(expectedTag);
+			List<DerValue> children = new ArrayList<DerValue>();
+			int position = offset;
+			while (position < offset + length) {
+				DerValue child = new DerValue(data, position, offset + length);
+				children.add(child);
+				position = child.offset + child.length;
+			}
+			return children;
+		}
+
+		byte[] getContent(int expectedTag) throws SignatureException {
+			checkTag(expectedTag);
+			return Arrays.copyOfRange(data, offset, offset + length);
+		}
+
+		byte[] getEncoded() {
+			return Arrays.copyOfRange(data, headerOffset, offset + length);
+		}
+
+		String getOid() throws SignatureException {
+			checkTag(TAG_OID);
+			StringBuilder oid = new StringBuilder();
+			long value = 0;
+			boolean first = true;
+			for (int i = offset; i < offset + length; i++) {
+				value = (value << 7) | (data[i] & 0x7f);
+				if ((data[i] & 0x80) == 0) {
+					if (first) {
+						int arc = (int) Math.min(value / 40, 2);
+						oid.append(arc).append('.').append(value - arc * 40);
+						first = false;
+					} else {
+						oid.append('.').append(value);
+					}
+					value = 0;
+				}
+			}
+			return oid.toString();
+		}
+
+		private void checkTag(int expectedTag) throws SignatureException {
+			if (tag != expectedTag) {
+				throw new SignatureException("Unexpected DER tag 0x"
+						+ Integer.toHexString(tag) + ", expected 0x"
+						+ Integer.toHexString(expectedTag));
+			}
+		}
+	}
+}
@@ -0,0 +1,300 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+import gov.nist.appvet.tool.sigverifier.util.OutputCapture;
+import gov.nist.appvet.tool.sigverifier.util.PatternClassifier;
+import gov.nist.appvet.tool.sigverifier.util.ReportUtil;
+import gov.nist.appvet.tool.sigverifier.util.ServiceThreads;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the verification command in-process through
+ * java.util.spi.ToolProvider instead of forking a JVM for each app. Output is
+ * captured in per-job buffers and classified line by line like the output of
+ * a forked command. At most maxConcurrent tools run at once, and a tool that
+ * exceeds the command timeout is interrupted. ToolProvider is looked up by
+ * reflection because the service is built for Java 8.
+ */
+public class ToolRunner {
+	private static final Logger log = Properties.log;
+	private static final String lineSeparator = System
+			.getProperty("line.separator");
+	private final String toolName;
+	private final Object tool;
+	private final Method run;
+	private final Semaphore permits;
+	private final ExecutorService executor;
+
+	private ToolRunner(String toolName, Object tool, Method run,
+			int maxConcurrent) {
+		this.toolName = toolName;
+		this.tool = tool;
+		this.run = run;
+		this.permits = new Semaphore(maxConcurrent, true);
+		this.executor = Executors.newCachedThreadPool(ServiceThreads
+				.newFactory("sigverifier-tool-"));
+	}
+
+	/**
+	 * Returns a runner for the named tool, or null if the JVM has no
+	 * ToolProvider for it (e.g., on Java 8).
+	 */
+	public static ToolRunner find(String toolName, int maxConcurrent) {
+		try {
+			Class<?> providerClass = Class
+					.forName("java.util.spi.ToolProvider");
+			Object optional = providerClass.getMethod("findFirst",
+					String.class).invoke(null, toolName);
+			Class<?> optionalClass = Class.forName("java.util.Optional");
+			if (!((Boolean) optionalClass.getMethod("isPresent").invoke(
+					optional)).booleanValue()) {
+				return null;
+			}
+			Object tool = optionalClass.getMethod("get").invoke(optional);
+			Method run = providerClass.getMethod("run", PrintWriter.class,
+					PrintWriter.class, String[].class);
+			log.info("Running " + toolName + " in-process with at most "
+					+ maxConcurrent + " concurrent runs");
+			return new ToolRunner(toolName, tool, run, maxConcurrent);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (Exception e) {
+			log.error("Could not look up tool " + toolName + ": "
+					+ e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the command with the tool and waits up to timeout milliseconds.
+	 * The first word of the command is the tool name and the rest are its
+	 * arguments. Like a forked command, output gets the tool's standard output
+	 * if it exits with 0 and its error output otherwise.
+	 * 
+	 * @return true if the tool exited with 0 within the timeout.
+	 */
+	public boolean run(String command, OutputCapture output,
+			final PatternClassifier.Session session, long timeout) {
+		if (command == null || command.isEmpty()) {
+			log.error("Command is null or empty");
+			return false;
+		}
+		String[] commandArgs = command.split("\\s+");
+		final String[] args = Arrays.copyOfRange(commandArgs, 1,
+				commandArgs.length);
+		final CountDownLatch done = new CountDownLatch(1);
+		final LineWriter out = new LineWriter(output, session, done);
+		final OutputCapture errors = output.newCapture();
+		final LineWriter err = new LineWriter(errors, null, null);
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				log.error("Timed out waiting to run " + toolName);
+				output.append(Properties.toolName + " timed-out");
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		Future<Integer> future = null;
+		try {
+			log.debug("Running in-process " + command);
+			future = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					try {
+						PrintWriter outWriter = new PrintWriter(out);
+						PrintWriter errWriter = new PrintWriter(err);
+						Object exitCode = run.invoke(tool, outWriter,
+								errWriter, args);
+						// Ends a last line without a line separator
+						outWriter.close();
+						errWriter.close();
+						return (Integer) exitCode;
+					} finally {
+						// Released only when the tool has really stopped
+						permits.release();
+						done.countDown();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			log.error("Could not run " + toolName + ": shutting down");
+			return false;
+		}
+		try {
+			long remaining = Math.max(deadline - System.currentTimeMillis(),
+					0);
+			if (!done.await(remaining, TimeUnit.MILLISECONDS)) {
+				future.cancel(true);
+				detach(out, err);
+				log.error("Command timed-out: \n"
+						+ ReportUtil.abbreviate(output) + "\nErrors: "
+						+ ReportUtil.abbreviate(errors));
+				if (output.length() == 0) {
+					if (errors.length() > 0) {
+						output.append(errors);
+					} else {
+						output.append(Properties.toolName + " timed-out");
+					}
+				}
+				return false;
+			}
+			if (session != null && session.isDecided()
+					&& Properties.fastFail) {
+				// An ERROR result matched; stop the tool if still running
+				future.cancel(true);
+				detach(out, err);
+				log.error("Command stopped after an error result: \n"
+						+ ReportUtil.abbreviate(output));
+				return false;
+			}
+			int exitValue = future.get().intValue();
+			detach(out, err);
+			if (exitValue == 0) {
+				log.debug("Command terminated normally with "
+						+ output.length() + " characters of output. Errors: "
+						+ ReportUtil.abbreviate(errors));
+				return true;
+			}
+			log.error("Command terminated abnormally: \n"
+					+ ReportUtil.abbreviate(output) + "\nErrors: "
+					+ ReportUtil.abbreviate(errors));
+			output.clear();
+			output.append(errors);
+			return false;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			detach(out, err);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			detach(out, err);
+			Throwable cause = e.getCause();
+			if (cause instanceof InvocationTargetException) {
+				cause = ((InvocationTargetException) cause).getCause();
+			}
+			log.error(toolName + " failed: " + cause);
+			output.clear();
+			output.append(errors);
+			return false;
+		} finally {
+			errors.close();
+		}
+	}
+
+	/**
+	 * Stops the writers from writing to their captures, so they can be read
+	 * even if a cancelled tool is still running.
+	 */
+	private static void detach(LineWriter out, LineWriter err) {
+		out.detach();
+		err.detach();
+	}
+
+	/** Returns the number of tools that can start without waiting. */
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Captures a tool's output and feeds each line to the session. If the
+	 * session matches an ERROR rule and fast fail is on, the caller is woken
+	 * up so it can stop the tool. Once detached, output is dropped.
+	 */
+	private static class LineWriter extends Writer {
+		private final OutputCapture output;
+		private final StringBuilder line = new StringBuilder();
+		private final PatternClassifier.Session session;
+		private final CountDownLatch fastFail;
+		private boolean detached = false;
+
+		LineWriter(OutputCapture output, PatternClassifier.Session session,
+				CountDownLatch fastFail) {
+			this.output = output;
+			this.session = session;
+			this.fastFail = Properties.fastFail ? fastFail : null;
+		}
+
+		@Override
+		public synchronized void write(char[] buffer, int offset, int length) {
+			if (detached) {
+				return;
+			}
+			for (int i = offset; i < offset + length; i++) {
+				char c = buffer[i];
+				if (c == '\n') {
+					endLine();
+				} else if (c != '\r') {
+					line.append(c);
+				}
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!detached && line.length() > 0) {
+				endLine();
+			}
+		}
+
+		synchronized void detach() {
+			detached = true;
+		}
+
+		private void endLine() {
+			// Lines end as they would when read from a forked command
+			String text = line.append(lineSeparator).toString();
+			line.setLength(0);
+			output.append(text);
+			if (session != null && !session.isDecided()
+					&& session.feed(text) && fastFail != null) {
+				log.debug("Error result found. Stopping command.");
+				fastFail.countDown();
+			}
+		}
+	}
+}
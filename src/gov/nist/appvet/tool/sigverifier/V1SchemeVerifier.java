@@ -0,0 +1,758 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import gov.nist.appvet.tool.sigverifier.util.ApkArchive;
+import gov.nist.appvet.tool.sigverifier.util.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * This class verifies APK Signature Scheme v1 (JAR) signatures. The
+ * signature files are checked first. The entries listed in MANIFEST.MF are
+ * then inflated and hashed in parallel on a ForkJoinPool, where every worker
+ * thread reuses its own Inflater, buffers and MessageDigests.
+ */
+final class V1SchemeVerifier {
+	private static final Logger log = Properties.log;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** Maximum number of entries hashed by a task without splitting. */
+	private static final int SEQUENTIAL_THRESHOLD = 4;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final String DISABLED_ALGORITHM_WARNING = "The jar will be treated as unsigned, because it is signed with a weak algorithm that is now disabled.";
+	private static ForkJoinPool pool = null;
+
+	private static final ThreadLocal<WorkerState> workerState = new ThreadLocal<WorkerState>() {
+		@Override
+		protected WorkerState initialValue() {
+			return new WorkerState();
+		}
+	};
+
+	/** Inflater, buffers and digests reused by a worker thread. */
+	private static class WorkerState {
+		final Inflater inflater = new Inflater(true);
+		final byte[] input = new byte[65536];
+		final byte[] output = new byte[65536];
+		final Map<String, MessageDigest> digests = new HashMap<String, MessageDigest>();
+
+		MessageDigest getDigest(String algorithm)
+				throws NoSuchAlgorithmException {
+			MessageDigest md = digests.get(algorithm);
+			if (md == null) {
+				md = MessageDigest.getInstance(algorithm);
+				digests.put(algorithm, md);
+			} else {
+				md.reset();
+			}
+			return md;
+		}
+	}
+
+	/** Receives the uncompressed bytes of an entry. */
+	private interface EntryConsumer {
+		void consume(byte[] buffer, int offset, int length);
+	}
+
+	/** Digests of one entry to check against MANIFEST.MF. */
+	private static class EntryCheck {
+		final ApkArchive.Entry entry;
+		final String[] algorithms;
+		final byte[][] expectedDigests;
+		boolean verified = false;
+		String error = null;
+
+		EntryCheck(ApkArchive.Entry entry, String[] algorithms,
+				byte[][] expectedDigests) {
+			this.entry = entry;
+			this.algorithms = algorithms;
+			this.expectedDigests = expectedDigests;
+		}
+
+		void run(ApkArchive archive) {
+			WorkerState state = workerState.get();
+			try {
+				final MessageDigest[] mds = new MessageDigest[algorithms.length];
+				for (int i = 0; i < algorithms.length; i++) {
+					mds[i] = state.getDigest(algorithms[i]);
+				}
+				readEntry(archive, entry, state, new EntryConsumer() {
+					@Override
+					public void consume(byte[] buffer, int offset, int length) {
+						for (MessageDigest md : mds) {
+							md.update(buffer, offset, length);
+						}
+					}
+				});
+				for (int i = 0; i < algorithms.length; i++) {
+					if (!Arrays.equals(mds[i].digest(), expectedDigests[i])) {
+						error = algorithms[i] + " digest error for "
+								+ entry.getName();
+						return;
+					}
+				}
+				verified = true;
+			} catch (IOException e) {
+				error = entry.getName() + ": " + e.getMessage();
+			} catch (NoSuchAlgorithmException e) {
+				error = entry.getName() + ": " + e.getMessage();
+			} catch (RuntimeException e) {
+				// Fail this entry instead of the whole verification
+				error = entry.getName() + ": " + e.toString();
+			}
+		}
+	}
+
+	/** Splits the entry checks until each task has only a few entries. */
+	private static class DigestTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ApkArchive archive;
+		private final List<EntryCheck> checks;
+		private final int from;
+		private final int to;
+
+		DigestTask(ApkArchive archive, List<EntryCheck> checks, int from,
+				int to) {
+			this.archive = archive;
+			this.checks = checks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					checks.get(i).run(archive);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DigestTask(archive, checks, from, middle),
+						new DigestTask(archive, checks, middle, to));
+			}
+		}
+	}
+
+	/** A main or per-entry section of a manifest or signature file. */
+	private static class Section {
+		final int start;
+		final int end;
+		/** End of the section without the blank line that ends it. */
+		final int contentEnd;
+		final Map<String, String> attributes = new LinkedHashMap<String, String>();
+
+		Section(int start, int end, int contentEnd) {
+			this.start = start;
+			this.end = end;
+			this.contentEnd = contentEnd;
+		}
+
+		String getName() {
+			return attributes.get("Name");
+		}
+	}
+
+	static void verify(ApkArchive archive, VerificationResult result)
+			throws IOException {
+		ApkArchive.Entry manifestEntry = null;
+		Map<String, ApkArchive.Entry> entriesByName = new HashMap<String, ApkArchive.Entry>();
+		List<ApkArchive.Entry> signatureFiles = new ArrayList<ApkArchive.Entry>();
+		List<ApkArchive.Entry> contentEntries = new ArrayList<ApkArchive.Entry>();
+		String duplicateName = null;
+		for (ApkArchive.Entry entry : archive.getEntries()) {
+			String name = entry.getName();
+			if (entriesByName.put(name, entry) != null && duplicateName == null) {
+				duplicateName = name;
+			}
+			if (entry.isDirectory()) {
+				continue;
+			}
+			if (!isSignatureRelated(name)) {
+				contentEntries.add(entry);
+			} else if (name.toUpperCase().equals("META-INF/MANIFEST.MF")) {
+				manifestEntry = entry;
+			} else if (name.toUpperCase().endsWith(".SF")) {
+				signatureFiles.add(entry);
+			}
+		}
+		int entryCount = contentEntries.size();
+		if (duplicateName != null) {
+			// Only one of the entries would be checked, and another could be
+			// the one that is installed
+			fail(result, entryCount, "duplicate entry: " + duplicateName);
+			return;
+		}
+		if (manifestEntry == null || signatureFiles.isEmpty()) {
+			result.setEntryCounts(entryCount, 0, entryCount);
+			return;
+		}
+		WorkerState state = workerState.get();
+		byte[] manifest = readEntry(archive, manifestEntry, state);
+		List<Section> manifestSections = parseSections(manifest);
+
+		// Verify each signature file against its signature block and
+		// the manifest. As in the JDK, signatures and digests that use an
+		// algorithm disabled for signed JARs are ignored.
+		DisabledAlgorithms disabledAlgorithms = DisabledAlgorithms
+				.getJarAlgorithms();
+		Set<String> disabled = new HashSet<String>();
+		List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+		Set<String> signedNames = new HashSet<String>();
+		boolean hasUntimestampedSignature = false;
+		boolean allTimestampsVerified = true;
+		Date latestTimestamp = null;
+		for (ApkArchive.Entry signatureFile : signatureFiles) {
+			String baseName = signatureFile.getName().substring(0,
+					signatureFile.getName().length() - 3);
+			ApkArchive.Entry blockFile = null;
+			for (String extension : new String[] { ".RSA", ".DSA", ".EC" }) {
+				if (blockFile == null) {
+					blockFile = entriesByName.get(baseName + extension);
+				}
+			}
+			if (blockFile == null) {
+				log.warn("No signature block file for "
+						+ signatureFile.getName());
+				continue;
+			}
+			byte[] signatureFileBytes = readEntry(archive, signatureFile, state);
+			Date date = null;
+			try {
+				SignatureBlock block = new SignatureBlock(readEntry(archive,
+						blockFile, state));
+				X509Certificate certificate = block.verify(signatureFileBytes);
+				Date timestamp = block.getTimestamp();
+				date = timestamp != null ? timestamp : new Date();
+				String disabledAlgorithm = block.findDisabledAlgorithm(
+						disabledAlgorithms, date);
+				if (disabledAlgorithm != null) {
+					log.info(signatureFile.getName() + " uses "
+							+ disabledAlgorithm + ", which is disabled by "
+							+ DisabledAlgorithms.JAR_PROPERTY
+							+ ". Treating it as unsigned.");
+					disabled.add(disabledAlgorithm);
+					continue;
+				}
+				certificates.add(certificate);
+				if (!block.isTimestamped()) {
+					hasUntimestampedSignature = true;
+				}
+				if (timestamp == null) {
+					allTimestampsVerified = false;
+				} else if (latestTimestamp == null
+						|| timestamp.after(latestTimestamp)) {
+					latestTimestamp = timestamp;
+				}
+			} catch (GeneralSecurityException e) {
+				addSigners(result, certificates);
+				fail(result, entryCount, "cannot verify signature block file "
+						+ blockFile.getName() + ": " + e.getMessage());
+				return;
+			} catch (RuntimeException e) {
+				addSigners(result, certificates);
+				fail(result, entryCount, "cannot verify signature block file "
+						+ blockFile.getName() + ": " + e.toString());
+				return;
+			}
+			try {
+				checkSignatureFile(signatureFile.getName(),
+						parseSections(signatureFileBytes), manifest,
+						manifestSections, signedNames, disabledAlgorithms,
+						date, disabled);
+			} catch (SecurityException e) {
+				addSigners(result, certificates);
+				fail(result, entryCount, e.getMessage());
+				return;
+			}
+		}
+		if (certificates.isEmpty()) {
+			result.setEntryCounts(entryCount, 0, entryCount);
+			if (!disabled.isEmpty()) {
+				result.addWarning(DISABLED_ALGORITHM_WARNING);
+			}
+			return;
+		}
+		// Entries are checked at the latest timestamp, or now if a signature
+		// has no timestamp that verifies
+		Date entryDate = allTimestampsVerified ? latestTimestamp : new Date();
+
+		// Hash the entries listed in the manifest in parallel
+		List<EntryCheck> checks = new ArrayList<EntryCheck>();
+		for (Section section : manifestSections) {
+			ApkArchive.Entry entry = section.getName() == null ? null
+					: entriesByName.get(section.getName());
+			if (entry == null || entry.isDirectory()
+					|| isSignatureRelated(entry.getName())) {
+				continue;
+			}
+			EntryCheck check = newEntryCheck(entry, section,
+					disabledAlgorithms, entryDate, disabled);
+			if (check != null) {
+				checks.add(check);
+			}
+		}
+		getPool().invoke(new DigestTask(archive, checks, 0, checks.size()));
+
+		Set<String> verifiedNames = new HashSet<String>();
+		for (EntryCheck check : checks) {
+			if (check.error != null) {
+				result.addError(check.error);
+			} else if (check.verified) {
+				verifiedNames.add(check.entry.getName());
+			}
+		}
+		int signedEntryCount = 0;
+		for (ApkArchive.Entry entry : contentEntries) {
+			if (signedNames.contains(entry.getName())
+					&& verifiedNames.contains(entry.getName())) {
+				signedEntryCount++;
+			}
+		}
+		int unsignedEntryCount = entryCount - signedEntryCount;
+		result.setEntryCounts(entryCount, signedEntryCount, unsignedEntryCount);
+		if (signedEntryCount == 0 && !disabled.isEmpty()
+				&& result.getErrors().isEmpty()) {
+			// Only disabled digests cover the entries
+			result.addWarning(DISABLED_ALGORITHM_WARNING);
+			return;
+		}
+		addSigners(result, certificates);
+		if (!result.getErrors().isEmpty()) {
+			result.setV1Status(VerificationResult.SchemeStatus.FAILED);
+			return;
+		}
+		if (signedEntryCount == 0) {
+			fail(result, entryCount,
+					"No entries are covered by the JAR signature");
+			return;
+		}
+		result.setV1Status(VerificationResult.SchemeStatus.VERIFIED);
+		if (unsignedEntryCount > 0) {
+			result.addWarning("This jar contains unsigned entries which have not been integrity-checked.");
+		}
+		for (VerificationResult.Signer signer : result.getSigners()) {
+			if (signer.getCertificate().getNotAfter().before(new Date())) {
+				result.addWarning("This jar contains entries whose signer certificate has expired.");
+			}
+		}
+		// Like jarsigner without a keystore, no chain is checked against a
+		// trust anchor
+		result.addWarning("This jar contains entries whose certificate chain is not validated.");
+		if (hasUntimestampedSignature) {
+			result.addWarning("This jar contains signatures that does not include a timestamp.");
+		}
+	}
+
+	/** Returns true for the manifest and signature files of a v1 signature. */
+	static boolean isSignatureRelated(String name) {
+		String upperName = name.toUpperCase();
+		if (!upperName.startsWith("META-INF/")
+				|| upperName.indexOf('/', 9) > -1) {
+			return false;
+		}
+		return upperName.equals("META-INF/MANIFEST.MF")
+				|| upperName.endsWith(".SF") || upperName.endsWith(".RSA")
+				|| upperName.endsWith(".DSA") || upperName.endsWith(".EC")
+				|| upperName.startsWith("META-INF/SIG-");
+	}
+
+	private static void addSigners(VerificationResult result,
+			List<X509Certificate> certificates) {
+		for (X509Certificate certificate : certificates) {
+			result.addSigner("v1", certificate);
+		}
+	}
+
+	private static void fail(VerificationResult result, int entryCount,
+			String error) {
+		result.setEntryCounts(entryCount, 0, entryCount);
+		result.setV1Status(VerificationResult.SchemeStatus.FAILED);
+		result.addError(error);
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(Properties.verifierParallelism);
+			log.info("Started v1 digest pool with parallelism "
+					+ Properties.verifierParallelism);
+		}
+		return pool;
+	}
+
+	/** Stops the digest pool. It is started again when next needed. */
+	static synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+			log.info("Stopped v1 digest pool");
+		}
+	}
+
+	/**
+	 * Adds the names of the manifest sections covered by a signature file to
+	 * signedNames. Like the JDK, throws a SecurityException if a section of
+	 * the signature file has no manifest section or its digest does not
+	 * match. Digests with disabled algorithms are ignored and added to
+	 * disabled.
+	 */
+	private static void checkSignatureFile(String name,
+			List<Section> signatureFileSections, byte[] manifest,
+			List<Section> manifestSections, Set<String> signedNames,
+			DisabledAlgorithms disabledAlgorithms, Date date,
+			Set<String> disabled) {
+		Section mainAttributes = signatureFileSections.get(0);
+		boolean manifestSigned = false;
+		boolean mainAttributesChecked = false;
+		for (Map.Entry<String, String> attribute : mainAttributes.attributes
+				.entrySet()) {
+			String key = attribute.getKey();
+			if (key.endsWith("-Digest-Manifest")) {
+				String algorithm = getPermittedAlgorithm(key.substring(0,
+						key.length() - "-Digest-Manifest".length()),
+						disabledAlgorithms, date, disabled);
+				if (digestMatches(algorithm, manifest, 0, manifest.length,
+						attribute.getValue())) {
+					manifestSigned = true;
+				}
+			}
+		}
+		if (!manifestSigned) {
+			Section manifestMain = manifestSections.get(0);
+			for (Map.Entry<String, String> attribute : mainAttributes.attributes
+					.entrySet()) {
+				String key = attribute.getKey();
+				if (key.endsWith("-Digest-Manifest-Main-Attributes")) {
+					String algorithm = getPermittedAlgorithm(key.substring(0,
+							key.length()
+									- "-Digest-Manifest-Main-Attributes"
+											.length()), disabledAlgorithms,
+							date, disabled);
+					if (algorithm != null
+							&& !digestMatches(algorithm, manifest,
+									manifestMain.start, manifestMain.end,
+									attribute.getValue())) {
+						throw new SecurityException(
+								"Invalid signature file digest for Manifest main attributes");
+					}
+					mainAttributesChecked = true;
+				}
+			}
+			log.debug(name + " does not match the whole manifest"
+					+ (mainAttributesChecked ? "; main attributes verified"
+							: "") + ". Checking sections.");
+		}
+		Map<String, Section> manifestByName = new HashMap<String, Section>();
+		for (Section section : manifestSections) {
+			if (section.getName() != null) {
+				manifestByName.put(section.getName(), section);
+			}
+		}
+		for (Section section : signatureFileSections) {
+			String entryName = section.getName();
+			if (entryName == null) {
+				continue;
+			}
+			if (manifestSigned) {
+				signedNames.add(entryName);
+				continue;
+			}
+			Section manifestSection = manifestByName.get(entryName);
+			if (manifestSection == null) {
+				throw new SecurityException(
+						"no manifest section for signature file entry "
+								+ entryName);
+			}
+			if (verifySection(entryName, section, manifest, manifestSection,
+					disabledAlgorithms, date, disabled)) {
+				signedNames.add(entryName);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if a digest of a signature file section matches its
+	 * manifest section, or false if the section has no digest with a
+	 * supported and permitted algorithm. As the JDK does for old JARs, a
+	 * digest of the manifest section without its blank line is also
+	 * accepted.
+	 */
+	private static boolean verifySection(String entryName, Section section,
+			byte[] manifest, Section manifestSection,
+			DisabledAlgorithms disabledAlgorithms, Date date,
+			Set<String> disabled) {
+		boolean verified = false;
+		for (Map.Entry<String, String> attribute : section.attributes
+				.entrySet()) {
+			String key = attribute.getKey();
+			if (!key.endsWith("-Digest")) {
+				continue;
+			}
+			String prefix = key.substring(0, key.length() - "-Digest".length());
+			String algorithm = getPermittedAlgorithm(prefix,
+					disabledAlgorithms, date, disabled);
+			if (algorithm == null) {
+				continue;
+			}
+			if (!digestMatches(algorithm, manifest, manifestSection.start,
+					manifestSection.end, attribute.getValue())
+					&& !digestMatches(algorithm, manifest,
+							manifestSection.start, manifestSection.contentEnd,
+							attribute.getValue())) {
+				throw new SecurityException("invalid " + prefix
+						+ " signature file digest for " + entryName);
+			}
+			verified = true;
+		}
+		return verified;
+	}
+
+	private static EntryCheck newEntryCheck(ApkArchive.Entry entry,
+			Section section, DisabledAlgorithms disabledAlgorithms, Date date,
+			Set<String> disabled) {
+		List<String> algorithms = new ArrayList<String>();
+		List<byte[]> digests = new ArrayList<byte[]>();
+		for (Map.Entry<String, String> attribute : section.attributes.entrySet()) {
+			String key = attribute.getKey();
+			if (!key.endsWith("-Digest")) {
+				continue;
+			}
+			String algorithm = getPermittedAlgorithm(key.substring(0,
+					key.length() - "-Digest".length()), disabledAlgorithms,
+					date, disabled);
+			if (algorithm == null) {
+				continue;
+			}
+			try {
+				digests.add(Base64.getMimeDecoder().decode(attribute.getValue()));
+				algorithms.add(algorithm);
+			} catch (IllegalArgumentException e) {
+				log.warn("Invalid " + key + " for " + entry.getName());
+			}
+		}
+		if (algorithms.isEmpty()) {
+			return null;
+		}
+		return new EntryCheck(entry, algorithms.toArray(new String[0]),
+				digests.toArray(new byte[0][]));
+	}
+
+	/** Returns the MessageDigest name for a manifest digest prefix. */
+	private static String getDigestAlgorithm(String prefix) {
+		String algorithm = prefix.toUpperCase();
+		if (algorithm.equals("SHA1")) {
+			algorithm = "SHA-1";
+		}
+		try {
+			MessageDigest.getInstance(algorithm);
+			return algorithm;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the MessageDigest name for a digest prefix, or null if it is
+	 * not supported or is disabled at the given date.
+	 */
+	private static String getPermittedAlgorithm(String prefix,
+			DisabledAlgorithms disabledAlgorithms, Date date,
+			Set<String> disabled) {
+		String algorithm = getDigestAlgorithm(prefix);
+		if (algorithm != null && !disabledAlgorithms.permits(algorithm, date)) {
+			disabled.add(algorithm);
+			return null;
+		}
+		return algorithm;
+	}
+
+	private static boolean digestMatches(String algorithm, byte[] data,
+			int start, int end, String expected) {
+		if (algorithm == null) {
+			return false;
+		}
+		try {
+			MessageDigest md = workerState.get().getDigest(algorithm);
+			md.update(data, start, end - start);
+			return Arrays.equals(md.digest(), Base64.getMimeDecoder().decode(
+					expected));
+		} catch (NoSuchAlgorithmException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Splits a manifest or signature file into sections. Each section
+	 * includes the blank line that ends it, as the section digests do.
+	 */
+	private static List<Section> parseSections(byte[] data) {
+		List<Section> sections = new ArrayList<Section>();
+		int sectionStart = 0;
+		int position = 0;
+		List<String> lines = new ArrayList<String>();
+		while (position < data.length) {
+			int lineStart = position;
+			int lineEnd = position;
+			while (lineEnd < data.length && data[lineEnd] != '\r'
+					&& data[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			position = lineEnd;
+			if (position < data.length && data[position] == '\r') {
+				position++;
+			}
+			if (position < data.length && data[position] == '\n') {
+				position++;
+			}
+			if (lineEnd > lineStart) {
+				lines.add(new String(data, lineStart, lineEnd - lineStart, UTF_8));
+			}
+			if (lineEnd == lineStart || position == data.length) {
+				if (!lines.isEmpty()) {
+					sections.add(newSection(sectionStart, position,
+							lineEnd == lineStart ? lineStart : position, lines));
+					lines.clear();
+				}
+				sectionStart = position;
+			}
+		}
+		if (sections.isEmpty()) {
+			sections.add(new Section(0, 0, 0));
+		}
+		return sections;
+	}
+
+	private static Section newSection(int start, int end, int contentEnd,
+			List<String> lines) {
+		Section section = new Section(start, end, contentEnd);
+		String key = null;
+		StringBuilder value = new StringBuilder();
+		for (String line : lines) {
+			if (line.startsWith(" ") && key != null) {
+				// Continuation of the previous value
+				value.append(line, 1, line.length());
+				continue;
+			}
+			if (key != null) {
+				section.attributes.put(key, value.toString());
+			}
+			int colon = line.indexOf(": ");
+			if (colon < 0) {
+				key = null;
+				continue;
+			}
+			key = line.substring(0, colon);
+			value.setLength(0);
+			value.append(line, colon + 2, line.length());
+		}
+		if (key != null) {
+			section.attributes.put(key, value.toString());
+		}
+		return section;
+	}
+
+	private static byte[] readEntry(ApkArchive archive, ApkArchive.Entry entry,
+			WorkerState state) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(
+				(int) Math.min(entry.getUncompressedSize(), 1 << 20));
+		readEntry(archive, entry, state, new EntryConsumer() {
+			@Override
+			public void consume(byte[] buffer, int offset, int length) {
+				out.write(buffer, offset, length);
+			}
+		});
+		return out.toByteArray();
+	}
+
+	/** Passes the uncompressed bytes of an entry to the consumer. */
+	private static void readEntry(ApkArchive archive, ApkArchive.Entry entry,
+			WorkerState state, EntryConsumer consumer) throws IOException {
+		ByteBuffer data = archive.getEntryData(entry);
+		if (entry.getMethod() == STORED) {
+			while (data.hasRemaining()) {
+				int length = Math.min(data.remaining(), state.output.length);
+				data.get(state.output, 0, length);
+				consumer.consume(state.output, 0, length);
+			}
+			return;
+		}
+		if (entry.getMethod() != DEFLATED) {
+			throw new ZipException("Unsupported compression method "
+					+ entry.getMethod());
+		}
+		Inflater inflater = state.inflater;
+		inflater.reset();
+		boolean endOfInput = false;
+		try {
+			while (!inflater.finished()) {
+				if (inflater.needsInput()) {
+					int length = Math.min(data.remaining(), state.input.length);
+					if (length == 0) {
+						if (endOfInput) {
+							throw new ZipException("Unexpected end of entry");
+						}
+						// A nowrap Inflater may need one byte past the end
+						endOfInput = true;
+						state.input[0] = 0;
+						length = 1;
+					} else {
+						data.get(state.input, 0, length);
+					}
+					inflater.setInput(state.input, 0, length);
+				}
+				int length = inflater.inflate(state.output);
+				if (length > 0) {
+					consumer.consume(state.output, 0, length);
+				} else if (inflater.needsDictionary()) {
+					throw new ZipException("Entry requires a preset dictionary");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid compressed data: " + e.getMessage());
+		}
+	}
+
+	private V1SchemeVerifier() {
+	}
+}
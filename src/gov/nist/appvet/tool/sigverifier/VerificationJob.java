@@ -0,0 +1,109 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+/**
+ * This class holds the state of a single app verification. It is created
+ * when an app is received and passed through verification, analysis,
+ * reporting and clean up, so concurrent requests never share state.
+ */
+public final class VerificationJob {
+	private static final String reportName = "report";
+	private final String appId;
+	private final String fileName;
+	private final String appDirPath;
+	private final String appFilePath;
+	private final String reportFilePath;
+	private final String command;
+	private final String sha256;
+	private final long appSize;
+
+	/**
+	 * @param sha256
+	 *            SHA-256 digest of the APK as lower-case hex.
+	 * @param appSize
+	 *            Size of the APK in bytes.
+	 */
+	public VerificationJob(String appId, String fileName, String sha256,
+			long appSize) {
+		this.appId = appId;
+		this.fileName = fileName;
+		this.sha256 = sha256;
+		this.appSize = appSize;
+		this.appDirPath = Properties.TEMP_DIR + "/" + appId;
+		this.appFilePath = appDirPath + "/" + fileName;
+		this.reportFilePath = appDirPath + "/" + reportName + "."
+				+ Properties.reportFormat.toLowerCase();
+		this.command = getCommand(appFilePath);
+	}
+
+	public String getAppId() {
+		return appId;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getAppDirPath() {
+		return appDirPath;
+	}
+
+	public String getAppFilePath() {
+		return appFilePath;
+	}
+
+	public String getReportFilePath() {
+		return reportFilePath;
+	}
+
+	/** Returns the SHA-256 digest of the APK as lower-case hex. */
+	public String getSha256() {
+		return sha256;
+	}
+
+	/** Returns the size of the APK in bytes. */
+	public long getAppSize() {
+		return appSize;
+	}
+
+	/** Returns the command from ToolProperties.xml for this app. */
+	public String getCommand() {
+		return command;
+	}
+
+	private static String getCommand(String appFilePath) {
+		// Get command from ToolProperties.xml file
+		String cmd = Properties.command;
+		if (cmd == null) {
+			return null;
+		}
+		if (cmd.indexOf(Properties.APP_FILE_PATH) > -1) {
+			// Add app file path
+			cmd = cmd.replace(Properties.APP_FILE_PATH, appFilePath);
+		}
+		return cmd;
+	}
+
+	@Override
+	public String toString() {
+		return "app " + appId + " (" + fileName + ")";
+	}
+}
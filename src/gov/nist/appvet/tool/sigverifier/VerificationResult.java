@@ -0,0 +1,288 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the outcome of an in-process APK signature verification.
+ * The text returned by getOutput() follows the wording of jarsigner so that
+ * the result strings defined in ToolProperties.xml classify both verifier
+ * modes the same way.
+ */
+public class VerificationResult {
+
+	public enum SchemeStatus {
+		NOT_PRESENT, VERIFIED, FAILED
+	}
+
+	/** A certificate that signed the APK under one of the schemes. */
+	public static class Signer {
+		private final String scheme;
+		private final X509Certificate certificate;
+		private final String sha256Fingerprint;
+
+		public Signer(String scheme, X509Certificate certificate) {
+			this.scheme = scheme;
+			this.certificate = certificate;
+			this.sha256Fingerprint = fingerprint(certificate);
+		}
+
+		public String getScheme() {
+			return scheme;
+		}
+
+		public X509Certificate getCertificate() {
+			return certificate;
+		}
+
+		public String getSubject() {
+			return certificate.getSubjectX500Principal().getName();
+		}
+
+		public String getIssuer() {
+			return certificate.getIssuerX500Principal().getName();
+		}
+
+		public String getSha256Fingerprint() {
+			return sha256Fingerprint;
+		}
+
+		public boolean isExpired() {
+			return certificate.getNotAfter().before(new Date());
+		}
+	}
+
+	private final String fileName;
+	private boolean completed = true;
+	private SchemeStatus v1Status = SchemeStatus.NOT_PRESENT;
+	private SchemeStatus v2Status = SchemeStatus.NOT_PRESENT;
+	private SchemeStatus v3Status = SchemeStatus.NOT_PRESENT;
+	private final List<Signer> signers = new ArrayList<Signer>();
+	private final List<String> errors = new ArrayList<String>();
+	private final List<String> warnings = new ArrayList<String>();
+	private final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+	private int entryCount = 0;
+	private int signedEntryCount = 0;
+	private int unsignedEntryCount = 0;
+	private String output = null;
+
+	public VerificationResult(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns false if the APK could not be read at all (e.g., it is not a
+	 * ZIP archive). A completed verification may still have failed.
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(boolean completed) {
+		this.completed = completed;
+	}
+
+	public boolean isSigned() {
+		return v1Status != SchemeStatus.NOT_PRESENT
+				|| v2Status != SchemeStatus.NOT_PRESENT
+				|| v3Status != SchemeStatus.NOT_PRESENT;
+	}
+
+	public boolean isVerified() {
+		return completed && isSigned() && errors.isEmpty()
+				&& v1Status != SchemeStatus.FAILED
+				&& v2Status != SchemeStatus.FAILED
+				&& v3Status != SchemeStatus.FAILED;
+	}
+
+	public SchemeStatus getV1Status() {
+		return v1Status;
+	}
+
+	public void setV1Status(SchemeStatus v1Status) {
+		this.v1Status = v1Status;
+	}
+
+	public SchemeStatus getV2Status() {
+		return v2Status;
+	}
+
+	public void setV2Status(SchemeStatus v2Status) {
+		this.v2Status = v2Status;
+	}
+
+	public SchemeStatus getV3Status() {
+		return v3Status;
+	}
+
+	public void setV3Status(SchemeStatus v3Status) {
+		this.v3Status = v3Status;
+	}
+
+	public List<Signer> getSigners() {
+		return signers;
+	}
+
+	public void addSigner(String scheme, X509Certificate certificate) {
+		for (Signer signer : signers) {
+			if (signer.getScheme().equals(scheme)
+					&& signer.getCertificate().equals(certificate)) {
+				return;
+			}
+		}
+		signers.add(new Signer(scheme, certificate));
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public void addError(String error) {
+		errors.add(error);
+	}
+
+	public List<String> getWarnings() {
+		return warnings;
+	}
+
+	public void addWarning(String warning) {
+		if (!warnings.contains(warning)) {
+			warnings.add(warning);
+		}
+	}
+
+	/** Elapsed milliseconds per verification phase, in execution order. */
+	public Map<String, Long> getTimings() {
+		return timings;
+	}
+
+	public void addTiming(String phase, long millis) {
+		timings.put(phase, millis);
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	public int getSignedEntryCount() {
+		return signedEntryCount;
+	}
+
+	public int getUnsignedEntryCount() {
+		return unsignedEntryCount;
+	}
+
+	public void setEntryCounts(int entryCount, int signedEntryCount,
+			int unsignedEntryCount) {
+		this.entryCount = entryCount;
+		this.signedEntryCount = signedEntryCount;
+		this.unsignedEntryCount = unsignedEntryCount;
+	}
+
+	/** Returns the verifier output as jarsigner-style text. */
+	public String getOutput() {
+		if (output == null) {
+			output = buildOutput();
+		}
+		return output;
+	}
+
+	private String buildOutput() {
+		final String lineSeparator = System.getProperty("line.separator");
+		StringBuilder out = new StringBuilder();
+		out.append("Verifying " + fileName + lineSeparator + lineSeparator);
+		out.append("APK Signature Scheme v1 (JAR): " + v1Status.name()
+				+ lineSeparator);
+		out.append("APK Signature Scheme v2: " + v2Status.name()
+				+ lineSeparator);
+		out.append("APK Signature Scheme v3: " + v3Status.name()
+				+ lineSeparator);
+		if (v1Status != SchemeStatus.NOT_PRESENT) {
+			out.append("Entries: " + entryCount + " (" + signedEntryCount
+					+ " signed, " + unsignedEntryCount + " unsigned)"
+					+ lineSeparator);
+		}
+		out.append(lineSeparator);
+		for (Signer signer : signers) {
+			X509Certificate cert = signer.getCertificate();
+			out.append("Signer (" + signer.getScheme() + "):" + lineSeparator);
+			out.append("  Subject: " + signer.getSubject() + lineSeparator);
+			out.append("  Issuer: " + signer.getIssuer() + lineSeparator);
+			out.append("  Serial number: "
+					+ cert.getSerialNumber().toString(16) + lineSeparator);
+			out.append("  Valid from: " + cert.getNotBefore() + " until: "
+					+ cert.getNotAfter() + lineSeparator);
+			out.append("  Signature algorithm: " + cert.getSigAlgName()
+					+ lineSeparator);
+			out.append("  SHA-256 fingerprint: "
+					+ signer.getSha256Fingerprint() + lineSeparator);
+			out.append(lineSeparator);
+		}
+		if (!completed || !errors.isEmpty()) {
+			for (String error : errors) {
+				out.append("java.lang.SecurityException: " + error
+						+ lineSeparator);
+			}
+		} else if (!isSigned()) {
+			out.append("jar is unsigned." + lineSeparator);
+		} else {
+			out.append("jar verified." + lineSeparator);
+		}
+		if (!warnings.isEmpty()) {
+			out.append(lineSeparator + "Warning: " + lineSeparator);
+			for (String warning : warnings) {
+				out.append(warning + lineSeparator);
+			}
+		}
+		return out.toString();
+	}
+
+	static String fingerprint(X509Certificate certificate) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+					certificate.getEncoded());
+			StringBuilder sb = new StringBuilder(digest.length * 3);
+			for (int i = 0; i < digest.length; i++) {
+				if (i > 0) {
+					sb.append(':');
+				}
+				sb.append(String.format("%02X", digest[i] & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (CertificateEncodingException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,460 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * This class memory-maps an APK and exposes its ZIP End of Central Directory,
+ * central directory entries and APK Signing Block as ByteBuffer slices of the
+ * mapping, so nothing is copied or inflated until it is needed. ZIP64
+ * archives are supported. Files larger than 2 GB are mapped region by region.
+ */
+public final class ApkArchive implements Closeable {
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_MIN_SIZE = 22;
+	private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+	private static final int CD_ENTRY_SIGNATURE = 0x02014b50;
+	private static final int CD_ENTRY_MIN_SIZE = 46;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_HEADER_MIN_SIZE = 30;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+	private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+	private static final int APK_SIG_BLOCK_MIN_SIZE = 32;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** A central directory entry. */
+	public static class Entry {
+		private final String name;
+		private final int flags;
+		private final int method;
+		private final long crc;
+		private final long compressedSize;
+		private final long uncompressedSize;
+		private final long localHeaderOffset;
+
+		Entry(String name, int flags, int method, long crc,
+				long compressedSize, long uncompressedSize,
+				long localHeaderOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.uncompressedSize = uncompressedSize;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		public int getFlags() {
+			return flags;
+		}
+
+		/** Returns the compression method (0 is STORED, 8 is DEFLATED). */
+		public int getMethod() {
+			return method;
+		}
+
+		public long getCrc() {
+			return crc;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getUncompressedSize() {
+			return uncompressedSize;
+		}
+
+		public long getLocalHeaderOffset() {
+			return localHeaderOffset;
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final ByteBuffer mapped;
+	private long eocdOffset = 0;
+	private ByteBuffer eocd = null;
+	private boolean zip64 = false;
+	private long centralDirOffset = 0;
+	private long centralDirSize = 0;
+	private long entryCount = 0;
+	private long signingBlockOffset = -1;
+	private Map<Integer, ByteBuffer> signingBlockPairs = null;
+	private List<Entry> entries = null;
+
+	public ApkArchive(File apkFile) throws IOException {
+		file = new RandomAccessFile(apkFile, "r");
+		try {
+			channel = file.getChannel();
+			size = channel.size();
+			if (size <= Integer.MAX_VALUE) {
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			} else {
+				mapped = null;
+			}
+			findEndOfCentralDirectory();
+			findSigningBlock();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		} catch (RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/** Returns the End of Central Directory record, including its comment. */
+	public ByteBuffer getEndOfCentralDirectory() {
+		return eocd.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public long getEndOfCentralDirectoryOffset() {
+		return eocdOffset;
+	}
+
+	public boolean isZip64() {
+		return zip64;
+	}
+
+	public long getCentralDirectoryOffset() {
+		return centralDirOffset;
+	}
+
+	public long getCentralDirectorySize() {
+		return centralDirSize;
+	}
+
+	public ByteBuffer getCentralDirectory() throws IOException {
+		return getRange(centralDirOffset, centralDirSize);
+	}
+
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	/** Returns the central directory entries in the order they appear. */
+	public synchronized List<Entry> getEntries() throws IOException {
+		if (entries == null) {
+			entries = Collections.unmodifiableList(readEntries());
+		}
+		return entries;
+	}
+
+	/** Returns the raw (possibly compressed) data of an entry. */
+	public ByteBuffer getEntryData(Entry entry) throws IOException {
+		ByteBuffer header = getRange(entry.getLocalHeaderOffset(),
+				Math.min(LOCAL_HEADER_MIN_SIZE, size
+						- entry.getLocalHeaderOffset()));
+		if (header.remaining() < LOCAL_HEADER_MIN_SIZE
+				|| header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local file header for "
+					+ entry.getName());
+		}
+		long dataOffset = entry.getLocalHeaderOffset() + LOCAL_HEADER_MIN_SIZE
+				+ (header.getShort(26) & 0xffff)
+				+ (header.getShort(28) & 0xffff);
+		return getRange(dataOffset, entry.getCompressedSize());
+	}
+
+	public boolean hasSigningBlock() {
+		return signingBlockOffset >= 0;
+	}
+
+	/**
+	 * Returns the offset of the APK Signing Block, or the central directory
+	 * offset if the APK has no signing block.
+	 */
+	public long getSigningBlockOffset() {
+		return hasSigningBlock() ? signingBlockOffset : centralDirOffset;
+	}
+
+	/**
+	 * Returns the ID-value pairs of the APK Signing Block, or an empty map if
+	 * the APK has no signing block.
+	 */
+	public Map<Integer, ByteBuffer> getSigningBlockPairs() {
+		if (signingBlockPairs == null) {
+			return Collections.emptyMap();
+		}
+		return signingBlockPairs;
+	}
+
+	/** Returns a little-endian view of a region of the file. */
+	public ByteBuffer getRange(long offset, long length) throws IOException {
+		// Compared without adding, as crafted values can overflow a long
+		if (offset < 0 || length < 0 || offset > size
+				|| length > size - offset) {
+			throw new ZipException("Region out of range: offset " + offset
+					+ ", length " + length + ", file size " + size);
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Region too large to map: " + length);
+		}
+		if (mapped != null) {
+			return slice(mapped, (int) offset, (int) length);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private void findEndOfCentralDirectory() throws IOException {
+		if (size < EOCD_MIN_SIZE) {
+			throw new ZipException("Not a ZIP archive: " + size + " bytes");
+		}
+		int tailSize = (int) Math.min(size, EOCD_MIN_SIZE + 0xffff);
+		ByteBuffer tail = getRange(size - tailSize, tailSize);
+		int position = -1;
+		for (int i = tailSize - EOCD_MIN_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == EOCD_SIGNATURE
+					&& (tail.getShort(i + 20) & 0xffff) == tailSize
+							- EOCD_MIN_SIZE - i) {
+				position = i;
+				break;
+			}
+		}
+		if (position == -1) {
+			throw new ZipException("End of Central Directory not found");
+		}
+		eocdOffset = size - tailSize + position;
+		eocd = slice(tail, position, tailSize - position);
+		entryCount = eocd.getShort(10) & 0xffff;
+		centralDirSize = eocd.getInt(12) & 0xffffffffL;
+		centralDirOffset = eocd.getInt(16) & 0xffffffffL;
+		long centralDirEnd = eocdOffset;
+		if (entryCount == 0xffff || centralDirSize == 0xffffffffL
+				|| centralDirOffset == 0xffffffffL) {
+			centralDirEnd = findZip64EndOfCentralDirectory();
+		}
+		if (centralDirOffset + centralDirSize != centralDirEnd) {
+			throw new ZipException("ZIP central directory is not immediately"
+					+ " followed by End of Central Directory");
+		}
+	}
+
+	/**
+	 * Reads the ZIP64 End of Central Directory record.
+	 * 
+	 * @return the offset of the record, where the central directory ends.
+	 */
+	private long findZip64EndOfCentralDirectory() throws IOException {
+		if (eocdOffset < ZIP64_EOCD_LOCATOR_SIZE) {
+			throw new ZipException("ZIP64 End of Central Directory locator"
+					+ " not found");
+		}
+		ByteBuffer locator = getRange(eocdOffset - ZIP64_EOCD_LOCATOR_SIZE,
+				ZIP64_EOCD_LOCATOR_SIZE);
+		if (locator.getInt(0) != ZIP64_EOCD_LOCATOR_SIGNATURE) {
+			throw new ZipException("ZIP64 End of Central Directory locator"
+					+ " not found");
+		}
+		long recordOffset = locator.getLong(8);
+		ByteBuffer record = getRange(recordOffset, 56);
+		if (record.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+			throw new ZipException("ZIP64 End of Central Directory not found");
+		}
+		zip64 = true;
+		entryCount = record.getLong(32);
+		centralDirSize = record.getLong(40);
+		centralDirOffset = record.getLong(48);
+		if (entryCount < 0 || centralDirSize < 0 || centralDirOffset < 0) {
+			throw new ZipException("ZIP64 End of Central Directory values out"
+					+ " of range: " + entryCount + " entries, size "
+					+ centralDirSize + ", offset " + centralDirOffset);
+		}
+		return recordOffset;
+	}
+
+	private void findSigningBlock() throws IOException {
+		// The APK Signing Block ends with its size and a 16-byte magic
+		if (centralDirOffset < APK_SIG_BLOCK_MIN_SIZE) {
+			return;
+		}
+		ByteBuffer footer = getRange(centralDirOffset - 24, 24);
+		if (footer.getLong(8) != APK_SIG_BLOCK_MAGIC_LO
+				|| footer.getLong(16) != APK_SIG_BLOCK_MAGIC_HI) {
+			return;
+		}
+		long blockSize = footer.getLong(0);
+		if (blockSize < 24 || blockSize > Integer.MAX_VALUE - 8) {
+			throw new ZipException("APK Signing Block size out of range: "
+					+ blockSize);
+		}
+		long blockOffset = centralDirOffset - (blockSize + 8);
+		if (blockOffset < 0) {
+			throw new ZipException("APK Signing Block offset out of range: "
+					+ blockOffset);
+		}
+		ByteBuffer block = getRange(blockOffset, blockSize + 8);
+		if (block.getLong(0) != blockSize) {
+			throw new ZipException("APK Signing Block sizes in header and"
+					+ " footer do not match");
+		}
+		Map<Integer, ByteBuffer> pairs = new HashMap<Integer, ByteBuffer>();
+		ByteBuffer pairsBuffer = slice(block, 8, block.capacity() - 32);
+		while (pairsBuffer.remaining() >= 8) {
+			long length = pairsBuffer.getLong();
+			if (length < 4 || length > pairsBuffer.remaining()) {
+				throw new ZipException("APK Signing Block entry length out of"
+						+ " range: " + length);
+			}
+			int id = pairsBuffer.getInt();
+			int valueLength = (int) length - 4;
+			pairs.put(id, slice(pairsBuffer, pairsBuffer.position(),
+					valueLength));
+			pairsBuffer.position(pairsBuffer.position() + valueLength);
+		}
+		signingBlockOffset = blockOffset;
+		signingBlockPairs = Collections.unmodifiableMap(pairs);
+	}
+
+	private List<Entry> readEntries() throws IOException {
+		ByteBuffer cd = getCentralDirectory();
+		List<Entry> list = new ArrayList<Entry>((int) Math.min(entryCount,
+				0xffff));
+		int position = 0;
+		while (position + CD_ENTRY_MIN_SIZE <= cd.limit()) {
+			if (cd.getInt(position) != CD_ENTRY_SIGNATURE) {
+				throw new ZipException("Invalid central directory entry at "
+						+ (centralDirOffset + position));
+			}
+			int flags = cd.getShort(position + 8) & 0xffff;
+			int method = cd.getShort(position + 10) & 0xffff;
+			long crc = cd.getInt(position + 16) & 0xffffffffL;
+			long compressedSize = cd.getInt(position + 20) & 0xffffffffL;
+			long uncompressedSize = cd.getInt(position + 24) & 0xffffffffL;
+			int nameLength = cd.getShort(position + 28) & 0xffff;
+			int extraLength = cd.getShort(position + 30) & 0xffff;
+			int commentLength = cd.getShort(position + 32) & 0xffff;
+			long localHeaderOffset = cd.getInt(position + 42) & 0xffffffffL;
+			int nameOffset = position + CD_ENTRY_MIN_SIZE;
+			int extraOffset = nameOffset + nameLength;
+			int next = extraOffset + extraLength + commentLength;
+			if (next > cd.limit()) {
+				throw new ZipException("Central directory entry at "
+						+ (centralDirOffset + position)
+						+ " extends past the central directory");
+			}
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = slice(cd, nameOffset, nameLength);
+			nameBuffer.get(nameBytes);
+			String name = new String(nameBytes, UTF_8);
+
+			// ZIP64 values replace fields that are set to 0xffffffff, in
+			// this order
+			if (uncompressedSize == 0xffffffffL
+					|| compressedSize == 0xffffffffL
+					|| localHeaderOffset == 0xffffffffL) {
+				ByteBuffer extra = findExtraField(slice(cd, extraOffset,
+						extraLength), ZIP64_EXTRA_ID);
+				if (extra == null) {
+					throw new ZipException("ZIP64 extra field missing for "
+							+ name);
+				}
+				if (uncompressedSize == 0xffffffffL) {
+					uncompressedSize = getZip64Value(extra, name);
+				}
+				if (compressedSize == 0xffffffffL) {
+					compressedSize = getZip64Value(extra, name);
+				}
+				if (localHeaderOffset == 0xffffffffL) {
+					localHeaderOffset = getZip64Value(extra, name);
+				}
+			}
+			list.add(new Entry(name, flags, method, crc, compressedSize,
+					uncompressedSize, localHeaderOffset));
+			position = next;
+		}
+		return list;
+	}
+
+	/** Reads the next value of a ZIP64 extra field. */
+	private static long getZip64Value(ByteBuffer extra, String name)
+			throws ZipException {
+		if (extra.remaining() < 8) {
+			throw new ZipException("ZIP64 extra field too short for " + name);
+		}
+		long value = extra.getLong();
+		if (value < 0) {
+			throw new ZipException("ZIP64 extra field value out of range for "
+					+ name + ": " + value);
+		}
+		return value;
+	}
+
+	private static ByteBuffer findExtraField(ByteBuffer extra, int id) {
+		while (extra.remaining() >= 4) {
+			int headerId = extra.getShort() & 0xffff;
+			int dataSize = extra.getShort() & 0xffff;
+			if (dataSize > extra.remaining()) {
+				return null;
+			}
+			if (headerId == id) {
+				return slice(extra, extra.position(), dataSize);
+			}
+			extra.position(extra.position() + dataSize);
+		}
+		return null;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.clear();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
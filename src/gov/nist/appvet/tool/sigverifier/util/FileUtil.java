@@ -21,14 +21,19 @@ package gov.nist.appvet.tool.sigverifier.util;
 
 import gov.nist.appvet.tool.sigverifier.Properties;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-
-import org.apache.commons.fileupload.FileItem;
+import java.security.MessageDigest;
 
 /**
  * @author steveq@nist.gov
@@ -124,23 +129,69 @@ public class FileUtil {
 	    return filePath.substring(lastForwardSlash + 1, filePath.length());
     }
 
-    public static boolean saveFileUpload(FileItem fileItem, String filePath) {
+    /**
+     * Writes an uploaded file to its destination in a single pass, updating
+     * the message digest with every byte written.
+     * 
+     * @return the number of bytes written, or -1 if the file could not be
+     *         saved.
+     */
+    public static long saveFileUpload(InputStream in, File file,
+	    MessageDigest md) {
+	OutputStream out = null;
 	try {
-	    if (fileItem == null) {
-		log.error("File item is NULL");
-		return false;
+	    out = new FileOutputStream(file);
+	    byte[] buffer = new byte[65536];
+	    long size = 0;
+	    int read = 0;
+	    while ((read = in.read(buffer)) != -1) {
+		out.write(buffer, 0, read);
+		md.update(buffer, 0, read);
+		size += read;
 	    }
-	    File file = new File(filePath);
-	    fileItem.write(file);
-	    log.debug("Saved " + filePath);
-	    return true;
+	    out.close();
+	    out = null;
+	    log.debug("Saved " + file.getPath() + " (" + size + " bytes)");
+	    return size;
 	} catch (IOException e) {
 	    log.error(e.toString());
+	    file.delete();
+	    return -1;
+	} finally {
+	    if (out != null) {
+		try {
+		    out.close();
+		} catch (IOException e) {
+		    log.error(e.toString());
+		}
+	    }
+	}
+    }
+
+    /** Moves a file, replacing the destination if it exists. */
+    public static boolean moveFile(File sourceFile, File destFile) {
+	if (sourceFile == null || !sourceFile.exists() || destFile == null) {
 	    return false;
-	} catch (Exception e) {
+	}
+	try {
+	    Files.move(sourceFile.toPath(), destFile.toPath(),
+		    StandardCopyOption.REPLACE_EXISTING);
+	} catch (final IOException e) {
 	    log.error(e.toString());
 	    return false;
 	}
+	return true;
+    }
+
+    /** Returns the bytes as lower-case hex. */
+    public static String toHex(byte[] bytes) {
+	final char[] digits = "0123456789abcdef".toCharArray();
+	char[] hex = new char[bytes.length * 2];
+	for (int i = 0; i < bytes.length; i++) {
+	    hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+	    hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+	}
+	return new String(hex);
     }
 
     public static String replaceSpaceWithUnderscore(String str) {
@@ -162,6 +213,34 @@ public class FileUtil {
 	}
     }
 
+    /**
+     * Renders a report straight to the file. A partly written file is deleted
+     * if rendering fails.
+     */
+    public static boolean saveReport(ReportRenderer report,
+	    String reportFilePath) {
+	Writer out = null;
+	try {
+	    out = new BufferedWriter(new FileWriter(reportFilePath));
+	    report.render(out);
+	    out.close();
+	    out = null;
+	    log.debug("Saved " + reportFilePath);
+	    return true;
+	} catch (IOException e) {
+	    log.error(e.toString());
+	    if (out != null) {
+		try {
+		    out.close();
+		} catch (IOException closeException) {
+		    // Already failed
+		}
+	    }
+	    new File(reportFilePath).delete();
+	    return false;
+	}
+    }
+
     private FileUtil() {
     }
 }
@@ -0,0 +1,97 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts durations in fixed buckets. Recording only increments
+ * striped LongAdders, so it takes no lock and threads recording at the same
+ * time rarely contend. Reads are not atomic across buckets, which is fine
+ * for metrics scraped while jobs run.
+ */
+public class Histogram {
+	/** Bucket upper bounds in seconds, from 1 ms to 5 minutes. */
+	public static final double[] LATENCY_BOUNDS = { 0.001, 0.0025, 0.005,
+			0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300 };
+	private final double[] bounds;
+	private final long[] boundNanos;
+	/** One counter per bound plus one for durations above the last bound. */
+	private final LongAdder[] buckets;
+	private final LongAdder sumNanos = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	/** Creates a histogram with the given ascending upper bounds in seconds. */
+	public Histogram(double... bounds) {
+		this.bounds = bounds.clone();
+		boundNanos = new long[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			boundNanos[i] = (long) (bounds[i] * TimeUnit.SECONDS.toNanos(1));
+		}
+		buckets = new LongAdder[bounds.length + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/** Records a duration measured with System.nanoTime(). */
+	public void record(long nanos) {
+		int index = Arrays.binarySearch(boundNanos, nanos);
+		// A duration equal to a bound belongs to that bound's bucket
+		buckets[index >= 0 ? index : -index - 1].increment();
+		sumNanos.add(nanos);
+	}
+
+	/** Records the duration since startNanos and whether it failed. */
+	public void recordSince(long startNanos, boolean succeeded) {
+		record(System.nanoTime() - startNanos);
+		if (!succeeded) {
+			failures.increment();
+		}
+	}
+
+	public double[] getBounds() {
+		return bounds.clone();
+	}
+
+	/**
+	 * Returns the number of durations at or below each bound, followed by the
+	 * total count.
+	 */
+	public long[] getCumulativeCounts() {
+		long[] counts = new long[buckets.length];
+		long total = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			total += buckets[i].sum();
+			counts[i] = total;
+		}
+		return counts;
+	}
+
+	public double getSumSeconds() {
+		return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	public long getFailureCount() {
+		return failures.sum();
+	}
+}
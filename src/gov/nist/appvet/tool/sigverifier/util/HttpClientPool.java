@@ -0,0 +1,108 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * This class holds the HTTP client shared by all report callbacks to AppVet.
+ * Connections are pooled and kept alive between reports, and TLS sessions are
+ * resumed through the shared SSLContext from SSLWrapper. The client is
+ * thread-safe and created on first use.
+ */
+public class HttpClientPool {
+	private static final Logger log = Properties.log;
+	/** Pooled connections idle longer than this are checked before reuse. */
+	private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+	private static CloseableHttpClient client = null;
+	private static PoolingHttpClientConnectionManager connectionManager = null;
+
+	public static synchronized CloseableHttpClient getClient()
+			throws Exception {
+		if (client != null) {
+			return client;
+		}
+		// Like SSLWrapper, accept AppVet's certificate and host name
+		Registry<ConnectionSocketFactory> registry = RegistryBuilder
+				.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register(
+						"https",
+						new SSLConnectionSocketFactory(SSLWrapper
+								.getSSLContext(), NoopHostnameVerifier.INSTANCE))
+				.build();
+		connectionManager = new PoolingHttpClientConnectionManager(registry);
+		connectionManager.setMaxTotal(Properties.appvetMaxConnections);
+		connectionManager
+				.setDefaultMaxPerRoute(Properties.appvetMaxConnectionsPerRoute);
+		connectionManager
+				.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(Properties.appvetConnectTimeout)
+				.setConnectionRequestTimeout(Properties.appvetConnectTimeout)
+				.setSocketTimeout(Properties.appvetSocketTimeout).build();
+		client = HttpClients.custom().setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(Properties.appvetIdleTimeout,
+						TimeUnit.MILLISECONDS).build();
+		log.debug("Created AppVet HTTP client pool");
+		return client;
+	}
+
+	/** Returns pool statistics for logging. */
+	public static synchronized String getStats() {
+		if (connectionManager == null) {
+			return "not started";
+		}
+		return connectionManager.getTotalStats().toString();
+	}
+
+	/** Closes the client, its idle connection evictor and its connections. */
+	public static synchronized void shutdown() {
+		if (client == null) {
+			return;
+		}
+		try {
+			client.close();
+		} catch (IOException e) {
+			log.error("Could not close AppVet HTTP client: " + e.toString());
+		}
+		client = null;
+		connectionManager = null;
+	}
+
+	private HttpClientPool() {
+	}
+}
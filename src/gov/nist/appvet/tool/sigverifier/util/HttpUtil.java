@@ -22,6 +22,7 @@ package gov.nist.appvet.tool.sigverifier.util;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 public class HttpUtil {
@@ -29,6 +30,38 @@ public class HttpUtil {
     private HttpUtil() {
     }
 
+    /**
+     * Returns true if the request's Accept-Encoding header allows a gzip
+     * response body.
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+	String acceptEncoding = request.getHeader("Accept-Encoding");
+	if (acceptEncoding == null) {
+	    return false;
+	}
+	for (String coding : acceptEncoding.split(",")) {
+	    String[] params = coding.split(";");
+	    String name = params[0].trim();
+	    if (!name.equalsIgnoreCase("gzip")
+		    && !name.equalsIgnoreCase("x-gzip")) {
+		continue;
+	    }
+	    // "gzip;q=0" means gzip is not acceptable
+	    for (int i = 1; i < params.length; i++) {
+		String param = params[i].trim();
+		if (param.startsWith("q=")) {
+		    try {
+			return Double.parseDouble(param.substring(2)) > 0;
+		    } catch (NumberFormatException e) {
+			return false;
+		    }
+		}
+	    }
+	    return true;
+	}
+	return false;
+    }
+
     public static boolean sendHttp202(HttpServletResponse response,
 	    String message) {
 	try {
@@ -76,4 +109,22 @@ public class HttpUtil {
 	    return false;
 	}
     }
+
+    public static boolean sendHttp503(HttpServletResponse response,
+	    String message, int retryAfterSeconds) {
+	try {
+	    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	    response.setHeader("Retry-After",
+		    Integer.toString(retryAfterSeconds));
+	    response.setContentType("text/html");
+	    PrintWriter out = response.getWriter();
+	    out.println(message);
+	    out.flush();
+	    out.close();
+	    return true;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    return false;
+	}
+    }
 }
\ No newline at end of file
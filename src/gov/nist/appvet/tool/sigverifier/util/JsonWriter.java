@@ -0,0 +1,210 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes JSON to a Writer as it is produced, without building a
+ * document tree or String first. Callers nest beginObject()/endObject() and
+ * beginArray()/endArray() and call name() before each value in an object;
+ * commas are inserted automatically. Characters outside ASCII are escaped,
+ * so the output is the same in any character encoding.
+ */
+public class JsonWriter {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/** Deepest nesting supported. Reports nest only a few levels. */
+	private static final int MAX_DEPTH = 32;
+	private final Writer out;
+	/** True at each depth until the first value has been written. */
+	private final boolean[] first = new boolean[MAX_DEPTH];
+	private int depth = 0;
+	private boolean afterName = false;
+
+	public JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	/** Writes the name of the next object member. */
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		string(name);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	/** Writes a string value, or null. Large values are copied in chunks. */
+	public JsonWriter value(CharSequence value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		separate();
+		string(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	public JsonWriter nullValue() throws IOException {
+		separate();
+		out.write("null");
+		return this;
+	}
+
+	/** Writes the name and value of a string member. */
+	public JsonWriter member(String name, CharSequence value)
+			throws IOException {
+		return name(name).value(value);
+	}
+
+	public JsonWriter member(String name, long value) throws IOException {
+		return name(name).value(value);
+	}
+
+	public JsonWriter member(String name, boolean value) throws IOException {
+		return name(name).value(value);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private JsonWriter open(char bracket) throws IOException {
+		if (depth == MAX_DEPTH) {
+			throw new IllegalStateException("JSON nested too deeply");
+		}
+		separate();
+		out.write(bracket);
+		first[depth++] = true;
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("No open JSON object or array");
+		}
+		depth--;
+		out.write(bracket);
+		return this;
+	}
+
+	/** Writes a comma unless this is the first value or follows a name. */
+	private void separate() throws IOException {
+		if (afterName) {
+			afterName = false;
+		} else if (depth > 0) {
+			if (first[depth - 1]) {
+				first[depth - 1] = false;
+			} else {
+				out.write(',');
+			}
+		}
+	}
+
+	private void string(CharSequence value) throws IOException {
+		int valueLength = value.length();
+		char[] source = new char[Math.min(Math.max(valueLength, 1), 4096)];
+		char[] chunk = new char[source.length * 6 + 2];
+		int length = 0;
+		chunk[length++] = '"';
+		for (int start = 0; start < valueLength; start += source.length) {
+			int end = Math.min(start + source.length, valueLength);
+			getChars(value, start, end, source);
+			for (int i = 0; i < end - start; i++) {
+				char c = source[i];
+				if (c == '"' || c == '\\') {
+					chunk[length++] = '\\';
+					chunk[length++] = c;
+				} else if (c == '\n') {
+					chunk[length++] = '\\';
+					chunk[length++] = 'n';
+				} else if (c == '\r') {
+					chunk[length++] = '\\';
+					chunk[length++] = 'r';
+				} else if (c == '\t') {
+					chunk[length++] = '\\';
+					chunk[length++] = 't';
+				} else if (c < 0x20 || c > 0x7e) {
+					chunk[length++] = '\\';
+					chunk[length++] = 'u';
+					chunk[length++] = HEX[(c >> 12) & 0xf];
+					chunk[length++] = HEX[(c >> 8) & 0xf];
+					chunk[length++] = HEX[(c >> 4) & 0xf];
+					chunk[length++] = HEX[c & 0xf];
+				} else {
+					chunk[length++] = c;
+				}
+			}
+			out.write(chunk, 0, length);
+			length = 0;
+		}
+		chunk[length++] = '"';
+		out.write(chunk, 0, length);
+	}
+
+	/**
+	 * Copies characters in bulk. charAt() on a StringBuffer takes its lock for
+	 * every character.
+	 */
+	private static void getChars(CharSequence value, int start, int end,
+			char[] destination) {
+		if (value instanceof String) {
+			((String) value).getChars(start, end, destination, 0);
+		} else if (value instanceof OutputCapture) {
+			((OutputCapture) value).getChars(start, end, destination, 0);
+		} else if (value instanceof StringBuffer) {
+			((StringBuffer) value).getChars(start, end, destination, 0);
+		} else if (value instanceof StringBuilder) {
+			((StringBuilder) value).getChars(start, end, destination, 0);
+		} else {
+			for (int i = start; i < end; i++) {
+				destination[i - start] = value.charAt(i);
+			}
+		}
+	}
+}
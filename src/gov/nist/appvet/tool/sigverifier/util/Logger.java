@@ -22,21 +22,76 @@ package gov.nist.appvet.tool.sigverifier.util;
 import gov.nist.appvet.tool.sigverifier.Properties;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
 public class Logger {
 
-    private SimpleDateFormat format = null;
-    private FileWriter writer = null;
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter
+	    .ofPattern("yyyy-MM-dd' 'HH:mm:ss.SSSZ").withZone(
+		    ZoneId.systemDefault());
+    /** Builders larger than this are not kept between messages. */
+    private static final int MAX_RETAINED_LINE_LENGTH = 65536;
+    private static final ThreadLocal<LineBuffer> lineBuffers = new ThreadLocal<LineBuffer>() {
+	@Override
+	protected LineBuffer initialValue() {
+	    return new LineBuffer();
+	}
+    };
+    /** The last formatted timestamp, reused within the same millisecond. */
+    private volatile Timestamp lastTimestamp = new Timestamp(Long.MIN_VALUE,
+	    "");
+    private Writer writer = null;
+    private CountingOutputStream logStream = null;
     private boolean logToConsole = false;
     private Level userLevel = null;
     private File logFile = null;
     private boolean isClosed = true;
     private String displayName = null;
+    private boolean callerLocation = true;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    /** Messages waiting for the writer thread, or null if synchronous. */
+    private BlockingQueue<LogEvent> queue = null;
+    private Thread writerThread = null;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private long reportedDroppedCount = 0;
+    /** Size in bytes at which the log is rolled over, or 0 for no limit. */
+    private long maxSize = 0;
+    /** Rollover period in milliseconds, or 0 for no time-based rollover. */
+    private long rotationPeriod = 0;
+    private long nextRotationTime = Long.MAX_VALUE;
+    private int maxArchives = 0;
+    private boolean compressArchives = true;
+    private ExecutorService archiver = null;
+    private static final DateTimeFormatter ARCHIVE_FORMAT = DateTimeFormatter
+	    .ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+    private static final int MAX_BATCH_SIZE = 1024;
 
     public enum Level {
 
@@ -66,6 +121,98 @@ public class Logger {
 
     }
 
+    /** What an asynchronous logger does when its buffer is full. */
+    public enum OverflowPolicy {
+	/** Wait for the writer thread to make room. */
+	BLOCK,
+	/** Discard the message and count it. */
+	DROP,
+	/** Write the message on the calling thread. */
+	SYNC;
+
+	private static final OverflowPolicy[] copyOfValues = values();
+
+	public static OverflowPolicy getEnum(String name) {
+	    for (OverflowPolicy value : copyOfValues) {
+		if (value.name().equals(name)) {
+		    return value;
+		}
+	    }
+	    return null;
+	}
+    }
+
+    /** A message captured on the calling thread. */
+    private static class LogEvent {
+	final long time;
+	final Level level;
+	final StackTraceElement caller;
+	final String message;
+
+	LogEvent(long time, Level level, StackTraceElement caller,
+		String message) {
+	    this.time = time;
+	    this.level = level;
+	    this.caller = caller;
+	    this.message = message;
+	}
+    }
+
+    private static class Timestamp {
+	final long millis;
+	final String text;
+
+	Timestamp(long millis, String text) {
+	    this.millis = millis;
+	    this.text = text;
+	}
+    }
+
+    /** A per-thread builder and the char array it is copied to. */
+    private static class LineBuffer {
+	StringBuilder builder = new StringBuilder(256);
+	char[] chars = new char[256];
+
+	char[] toChars() {
+	    if (chars.length < builder.length()) {
+		chars = new char[Math.max(builder.length(), chars.length * 2)];
+	    }
+	    builder.getChars(0, builder.length(), chars, 0);
+	    return chars;
+	}
+
+	void release() {
+	    if (builder.capacity() > MAX_RETAINED_LINE_LENGTH) {
+		builder = new StringBuilder(256);
+		chars = new char[256];
+	    } else {
+		builder.setLength(0);
+	    }
+	}
+    }
+
+    /** Counts the bytes written to the active log file. */
+    private static class CountingOutputStream extends FilterOutputStream {
+	long count;
+
+	CountingOutputStream(OutputStream out, long count) {
+	    super(out);
+	    this.count = count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    out.write(b);
+	    count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+	    out.write(b, off, len);
+	    count += len;
+	}
+    }
+
     public static String formatElapsed(long millis) {
 	final long hr = TimeUnit.MILLISECONDS.toHours(millis);
 	final long min = TimeUnit.MILLISECONDS.toMinutes(millis
@@ -94,26 +241,82 @@ public class Logger {
 	    }
 	    logToConsole = new Boolean(Properties.LOG_TO_CONSOLE)
 		    .booleanValue();
-	    writer = new FileWriter(logFile, true);
+	    maxSize = Properties.LOG_MAX_SIZE_MB * 1024L * 1024L;
+	    rotationPeriod = TimeUnit.HOURS.toMillis(Properties.LOG_ROTATE_HOURS);
+	    maxArchives = Properties.LOG_MAX_ARCHIVES;
+	    compressArchives = Properties.LOG_COMPRESS;
+	    openLogFile(System.currentTimeMillis());
 	    isClosed = false;
-	    format = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSSZ");
+	    recoverArchives();
 	    userLevel = Logger.Level.getType(Properties.LOG_LEVEL);
+	    callerLocation = Properties.LOG_CALLER_LOCATION;
+	    if (Properties.LOG_OVERFLOW_POLICY != null) {
+		overflowPolicy = Properties.LOG_OVERFLOW_POLICY;
+	    }
+	    if (Properties.LOG_ASYNC && Properties.LOG_BUFFER_SIZE > 0) {
+		startWriterThread(Properties.LOG_BUFFER_SIZE);
+	    }
 	} catch (final IOException e) {
 	    e.printStackTrace();
 	}
     }
 
+    /**
+     * Starts the thread that batch-writes queued messages. Callers only
+     * enqueue, so they never wait on disk I/O unless the buffer is full and
+     * the overflow policy is BLOCK.
+     */
+    private void startWriterThread(int bufferSize) {
+	queue = new ArrayBlockingQueue<LogEvent>(bufferSize);
+	writerThread = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		List<LogEvent> batch = new ArrayList<LogEvent>();
+		for (;;) {
+		    try {
+			batch.add(queue.take());
+		    } catch (InterruptedException e) {
+			// Closing: write what is left and stop
+			queue.drainTo(batch);
+			writeEvents(batch);
+			return;
+		    }
+		    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+		    writeEvents(batch);
+		    batch.clear();
+		}
+	    }
+	}, "sigverifier-log-writer");
+	writerThread.setDaemon(true);
+	writerThread.start();
+    }
+
     public void close() {
 	if (isClosed) {
 	    return;
 	}
-	try {
-	    writer.close();
-	    isClosed = true;
-	} catch (final IOException e) {
-	    System.err.println("Error trying to close logger: "
-		    + e.getMessage());
-	    isClosed = false;
+	if (writerThread != null) {
+	    writerThread.interrupt();
+	    try {
+		writerThread.join(TimeUnit.SECONDS.toMillis(5));
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    writerThread = null;
+	    queue = null;
+	}
+	if (archiver != null) {
+	    archiver.shutdown();
+	}
+	synchronized (this) {
+	    try {
+		writer.close();
+		isClosed = true;
+	    } catch (final IOException e) {
+		System.err.println("Error trying to close logger: "
+			+ e.getMessage());
+		isClosed = false;
+	    }
 	}
     }
 
@@ -137,43 +340,305 @@ public class Logger {
 	writeMessage(Level.WARNING, message);
     }
 
+    /** Returns the number of messages discarded by the DROP policy. */
+    public long getDroppedCount() {
+	return droppedCount.get();
+    }
+
     private void writeMessage(Level level, String message) {
-	Date date = null;
-	StackTraceElement[] stackTraceElements = null;
-	String formattedDate = null;
-	String logData = null;
+	if (level.getPriority() < userLevel.getPriority()) {
+	    return;
+	}
+	// Element 2 is the caller of debug(), info(), warn() or error()
+	StackTraceElement caller = callerLocation ? new Throwable()
+		.getStackTrace()[2] : null;
+	BlockingQueue<LogEvent> eventQueue = queue;
+	if (eventQueue == null) {
+	    writeEvent(System.currentTimeMillis(), level, caller, message);
+	    return;
+	}
+	LogEvent event = new LogEvent(System.currentTimeMillis(), level,
+		caller, message);
+	if (eventQueue.offer(event)) {
+	    return;
+	}
+	switch (overflowPolicy) {
+	case BLOCK:
+	    try {
+		eventQueue.put(event);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    break;
+	case DROP:
+	    droppedCount.incrementAndGet();
+	    break;
+	case SYNC:
+	    writeEvent(event.time, level, caller, message);
+	    break;
+	}
+    }
+
+    private synchronized void writeEvent(long time, Level level,
+	    StackTraceElement caller, String message) {
 	try {
-	    if (level.getPriority() >= userLevel.getPriority()) {
-		date = new Date();
-		stackTraceElements = new Throwable().getStackTrace();
-		formattedDate = format.format(date);
-		logData = stackTraceElements[2].getClassName() + ":"
-			+ stackTraceElements[2].getMethodName() + " " + "line "
-			+ stackTraceElements[2].getLineNumber();
-		writer.write(formattedDate + " " + logData + "\n");
-		writer.write(level.name() + ": " + message + "\n");
-		if (logToConsole) {
-		    if (level == Level.ERROR) {
-			System.err.print(formattedDate + " " + logData + "\n");
-			System.err.print("[" + displayName + " " + level + "] "
-				+ message + "\n");
-		    } else {
-			System.out.print(formattedDate + " " + logData + "\n");
-			System.out.print("[" + displayName + " " + level + "] "
-				+ message + "\n");
-		    }
-		}
-		writer.flush();
-		stackTraceElements = null;
+	    write(time, level, caller, message);
+	    writer.flush();
+	    rotateIfNeeded(time);
+	} catch (final IOException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    /** Writes a batch of messages with a single flush. */
+    private synchronized void writeEvents(List<LogEvent> events) {
+	try {
+	    for (LogEvent event : events) {
+		write(event.time, event.level, event.caller, event.message);
 	    }
+	    long dropped = droppedCount.get();
+	    if (dropped > reportedDroppedCount) {
+		writer.write(Level.WARNING.name() + ": "
+			+ (dropped - reportedDroppedCount)
+			+ " log messages dropped because the buffer was full\n");
+		reportedDroppedCount = dropped;
+	    }
+	    writer.flush();
+	    rotateIfNeeded(System.currentTimeMillis());
 	} catch (final IOException e) {
 	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * Formats a message into the calling thread's builder and writes it
+     * without creating intermediate strings.
+     */
+    private void write(long time, Level level, StackTraceElement caller,
+	    String message) throws IOException {
+	LineBuffer lineBuffer = lineBuffers.get();
+	StringBuilder line = lineBuffer.builder;
+	try {
+	    line.append(getTimestamp(time));
+	    if (caller != null) {
+		line.append(' ').append(caller.getClassName()).append(':')
+			.append(caller.getMethodName()).append(" line ")
+			.append(caller.getLineNumber());
+	    }
+	    line.append('\n');
+	    int headerLength = line.length();
+	    line.append(level.name()).append(": ").append(message)
+		    .append('\n');
+	    writer.write(lineBuffer.toChars(), 0, line.length());
+	    if (logToConsole) {
+		line.setLength(headerLength);
+		line.append('[').append(displayName).append(' ')
+			.append(level.name()).append("] ").append(message)
+			.append('\n');
+		PrintStream console = level == Level.ERROR ? System.err
+			: System.out;
+		console.append(line);
+	    }
 	} finally {
-	    logData = null;
-	    formattedDate = null;
-	    stackTraceElements = null;
-	    date = null;
+	    lineBuffer.release();
+	}
+    }
+
+    /** Opens the log file for appending and schedules the next rollover. */
+    private void openLogFile(long now) throws IOException {
+	logStream = new CountingOutputStream(new FileOutputStream(logFile,
+		true), logFile.length());
+	// The platform charset, as FileWriter used
+	writer = new OutputStreamWriter(logStream);
+	if (rotationPeriod > 0) {
+	    // Align rollovers to local period boundaries, e.g. midnight
+	    long offset = TimeZone.getDefault().getOffset(now);
+	    nextRotationTime = ((now + offset) / rotationPeriod + 1)
+		    * rotationPeriod - offset;
+	}
+    }
+
+    /**
+     * Rolls the log over once it reaches its maximum size or the end of its
+     * period. The active file is renamed and a new one opened, so no line is
+     * copied or lost. Archives are compressed and pruned in the background.
+     * Called with the logger locked after a flush.
+     */
+    private void rotateIfNeeded(long now) {
+	if ((maxSize <= 0 || logStream.count < maxSize)
+		&& now < nextRotationTime) {
+	    return;
+	}
+	if (logStream.count == 0) {
+	    // Nothing to archive, just schedule the next period
+	    try {
+		writer.close();
+		openLogFile(now);
+	    } catch (IOException e) {
+		e.printStackTrace();
+	    }
+	    return;
+	}
+	try {
+	    writer.close();
+	    File archive = getArchiveFile(now);
+	    try {
+		Files.move(logFile.toPath(), archive.toPath(),
+			StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException e) {
+		Files.move(logFile.toPath(), archive.toPath());
+	    }
+	    openLogFile(now);
+	    archive(archive);
+	} catch (IOException e) {
+	    System.err.println("Could not roll over log " + logFile + ": "
+		    + e.getMessage());
+	    try {
+		// Keep logging to the current file
+		openLogFile(now);
+		nextRotationTime = now + Math.max(rotationPeriod,
+			TimeUnit.MINUTES.toMillis(1));
+	    } catch (IOException e2) {
+		e2.printStackTrace();
+	    }
+	}
+    }
+
+    /** Returns a new archive name, e.g. log-20240131-235959-999.txt. */
+    private File getArchiveFile(long now) {
+	String name = logFile.getName();
+	int dot = name.lastIndexOf('.');
+	String base = dot > 0 ? name.substring(0, dot) : name;
+	String extension = dot > 0 ? name.substring(dot) : "";
+	String prefix = base + "-" + ARCHIVE_FORMAT.format(Instant.ofEpochMilli(now));
+	File archive = new File(logFile.getParentFile(), prefix + extension);
+	for (int i = 1; archive.exists()
+		|| new File(archive.getPath() + ".gz").exists(); i++) {
+	    archive = new File(logFile.getParentFile(), prefix + "-" + i
+		    + extension);
+	}
+	return archive;
+    }
+
+    /** Compresses the archive and deletes the oldest ones in the background. */
+    private void archive(final File archive) {
+	if (archiver == null) {
+	    archiver = Executors
+		    .newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+			    Thread thread = new Thread(runnable,
+				    "sigverifier-log-archiver");
+			    thread.setDaemon(true);
+			    thread.setPriority(Thread.MIN_PRIORITY);
+			    return thread;
+			}
+		    });
+	}
+	archiver.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		if (compressArchives) {
+		    compress(archive);
+		}
+		pruneArchives();
+	    }
+	});
+    }
+
+    private static void compress(File file) {
+	if (!file.exists()) {
+	    // Already pruned
+	    return;
+	}
+	File compressed = new File(file.getPath() + ".gz");
+	File partial = new File(file.getPath() + ".gz.tmp");
+	byte[] buffer = new byte[65536];
+	try {
+	    InputStream in = new FileInputStream(file);
+	    try {
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(
+			partial), buffer.length);
+		try {
+		    int length;
+		    while ((length = in.read(buffer)) != -1) {
+			out.write(buffer, 0, length);
+		    }
+		} finally {
+		    out.close();
+		}
+	    } finally {
+		in.close();
+	    }
+	    Files.move(partial.toPath(), compressed.toPath(),
+		    StandardCopyOption.ATOMIC_MOVE);
+	    Files.delete(file.toPath());
+	} catch (IOException e) {
+	    System.err.println("Could not compress log archive " + file + ": "
+		    + e.getMessage());
+	    partial.delete();
+	}
+    }
+
+    /** Returns the archives of this log, excluding partial files. */
+    private File[] listArchives() {
+	String name = logFile.getName();
+	int dot = name.lastIndexOf('.');
+	final String prefix = (dot > 0 ? name.substring(0, dot) : name) + "-";
+	File[] archives = logFile.getParentFile().listFiles(
+		new FileFilter() {
+		    @Override
+		    public boolean accept(File file) {
+			return file.isFile() && file.getName().startsWith(prefix)
+				&& !file.getName().endsWith(".tmp");
+		    }
+		});
+	return archives == null ? new File[0] : archives;
+    }
+
+    /**
+     * Finishes archives left by a previous run that stopped while they were
+     * being compressed.
+     */
+    private void recoverArchives() {
+	for (File archive : listArchives()) {
+	    File partial = new File(archive.getPath() + ".gz.tmp");
+	    if (partial.exists()) {
+		partial.delete();
+	    }
+	    if (compressArchives && !archive.getName().endsWith(".gz")) {
+		archive(archive);
+	    }
+	}
+    }
+
+    /** Deletes the oldest archives beyond maxArchives. */
+    private void pruneArchives() {
+	if (maxArchives <= 0) {
+	    return;
+	}
+	File[] archives = listArchives();
+	if (archives.length <= maxArchives) {
+	    return;
+	}
+	// Archive names sort by the time they were rolled over
+	Arrays.sort(archives);
+	for (int i = 0; i < archives.length - maxArchives; i++) {
+	    if (!archives[i].delete()) {
+		System.err.println("Could not delete log archive "
+			+ archives[i]);
+	    }
+	}
+    }
+
+    private String getTimestamp(long millis) {
+	Timestamp timestamp = lastTimestamp;
+	if (timestamp.millis != millis) {
+	    timestamp = new Timestamp(millis, FORMAT.format(Instant
+		    .ofEpochMilli(millis)));
+	    lastTimestamp = timestamp;
 	}
+	return timestamp.text;
     }
 
 }
@@ -0,0 +1,482 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class captures the output of a command. The stream is read in bulk
+ * into pooled buffers, decoded with an explicit charset and stored in
+ * fixed-size chunks, so growing the output never copies what was already
+ * read. Each decoded block is fed to the classifier session as it arrives.
+ * <p>
+ * Once the output grows past memoryThreshold characters, it is moved to a
+ * temporary file in spillDir and the rest is appended there, so a huge output
+ * cannot exhaust the heap. The file holds UTF-16 characters, which keeps
+ * charAt() and getChars() random access. At most maxChars characters are
+ * kept in total; the rest is still read and classified but not stored.
+ * <p>
+ * A capture is filled by one thread and read by others only after that
+ * thread has finished (e.g., after Thread.join()) or the capture has been
+ * detached from it. It must be closed to delete its file.
+ */
+public class OutputCapture implements CharSequence, Closeable {
+	private static final Logger log = Properties.log;
+	private static final int CHUNK_BITS = 14;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int BUFFER_SIZE = 8192;
+	/** Idle read buffers kept for reuse. */
+	private static final int MAX_POOLED = 64;
+	private static final ConcurrentLinkedQueue<ByteBuffer> byteBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final ConcurrentLinkedQueue<CharBuffer> charBuffers = new ConcurrentLinkedQueue<CharBuffer>();
+	/** Pool sizes, as ConcurrentLinkedQueue.size() walks the whole queue. */
+	private static final AtomicInteger byteBuffersPooled = new AtomicInteger();
+	private static final AtomicInteger charBuffersPooled = new AtomicInteger();
+	private final Charset charset;
+	private final long maxChars;
+	private final int memoryThreshold;
+	private final File spillDir;
+	private final List<char[]> chunks = new ArrayList<char[]>();
+	private int length = 0;
+	private long discarded = 0;
+	private File spillFile = null;
+	private FileChannel spill = null;
+	private ByteBuffer spillBuffer = null;
+	/** Set if the file could not be written. Output is then truncated. */
+	private boolean spillFailed = false;
+	/** Characters of the file last read by charAt(). */
+	private char[] window = null;
+	private int windowStart = -1;
+	/** Set once readFrom() must no longer store or classify output. */
+	private volatile boolean detached = false;
+
+	/** Creates a capture that is only kept in memory. */
+	public OutputCapture(Charset charset, long maxChars) {
+		this(charset, maxChars, Integer.MAX_VALUE, null);
+	}
+
+	/**
+	 * Creates a capture that moves to a file in spillDir once it holds more
+	 * than memoryThreshold characters. If spillDir is null, it is only kept in
+	 * memory.
+	 */
+	public OutputCapture(Charset charset, long maxChars, int memoryThreshold,
+			File spillDir) {
+		this.charset = charset;
+		this.maxChars = Math.min(maxChars, Integer.MAX_VALUE);
+		this.memoryThreshold = memoryThreshold;
+		this.spillDir = spillDir;
+	}
+
+	/** Returns an empty capture with the same charset, limits and directory. */
+	public OutputCapture newCapture() {
+		return new OutputCapture(charset, maxChars, memoryThreshold, spillDir);
+	}
+
+	/**
+	 * Reads the stream to its end. If session is not null, the output is fed
+	 * to it as it is read, and onDecided (if not null) is run once the session
+	 * matches an ERROR rule.
+	 */
+	public void readFrom(InputStream in, PatternClassifier.Session session,
+			Runnable onDecided) throws IOException {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = borrowBytes();
+		CharBuffer chars = borrowChars();
+		try {
+			byte[] array = bytes.array();
+			int read;
+			while (!detached
+					&& (read = in.read(array, bytes.position(), bytes.remaining())) != -1) {
+				bytes.position(bytes.position() + read);
+				bytes.flip();
+				if (decode(decoder, bytes, chars, false, session)
+						&& onDecided != null) {
+					onDecided.run();
+					onDecided = null;
+				}
+				// Keep a partial multi-byte character for the next read
+				bytes.compact();
+			}
+			bytes.flip();
+			decode(decoder, bytes, chars, true, session);
+			decoder.flush(chars);
+			chars.flip();
+			consume(chars, session);
+		} finally {
+			release(byteBuffers, byteBuffersPooled, bytes);
+			release(charBuffers, charBuffersPooled, chars);
+		}
+	}
+
+	/**
+	 * Stops readFrom() from storing or classifying more output. A reader
+	 * blocked on a stream that another process keeps open cannot always be
+	 * woken up, so the capture is detached from it instead. When this
+	 * returns, the capture and session can be used by the calling thread.
+	 */
+	public synchronized void detach() {
+		detached = true;
+	}
+
+	/** Appends text that is not classified, such as a status message. */
+	public void append(CharSequence text) {
+		int textLength = text.length();
+		char[] buffer = new char[Math.min(Math.max(textLength, 1), BUFFER_SIZE)];
+		for (int start = 0; start < textLength; start += buffer.length) {
+			int end = Math.min(start + buffer.length, textLength);
+			if (text instanceof OutputCapture) {
+				((OutputCapture) text).getChars(start, end, buffer, 0);
+			} else if (text instanceof String) {
+				((String) text).getChars(start, end, buffer, 0);
+			} else {
+				for (int i = start; i < end; i++) {
+					buffer[i - start] = text.charAt(i);
+				}
+			}
+			store(buffer, 0, end - start);
+		}
+	}
+
+	/** Appends characters that are not classified. */
+	public void append(char[] text, int offset, int count) {
+		store(text, offset, count);
+	}
+
+	/** Returns true if output was discarded because of maxChars. */
+	public boolean isTruncated() {
+		return discarded > 0;
+	}
+
+	/** Returns the number of characters read but not kept. */
+	public long getDiscardedCount() {
+		return discarded;
+	}
+
+	/** Returns true if the output has been moved to a file. */
+	public boolean isSpilled() {
+		return spill != null;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		if (spill == null) {
+			return chunks.get(index >>> CHUNK_BITS)[index & (CHUNK_SIZE - 1)];
+		}
+		if (windowStart < 0 || index < windowStart
+				|| index >= windowStart + BUFFER_SIZE) {
+			if (window == null) {
+				window = new char[BUFFER_SIZE];
+			}
+			windowStart = -1;
+			int start = index - index % BUFFER_SIZE;
+			readSpill(start, window, 0, Math.min(BUFFER_SIZE, length - start));
+			windowStart = start;
+		}
+		return window[index - windowStart];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException(start + ", " + end);
+		}
+		char[] text = new char[end - start];
+		getChars(start, end, text, 0);
+		return new String(text);
+	}
+
+	/**
+	 * Copies characters from srcBegin to srcEnd into dst, like
+	 * String.getChars().
+	 */
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+			throw new IndexOutOfBoundsException(srcBegin + ", " + srcEnd);
+		}
+		if (spill != null) {
+			readSpill(srcBegin, dst, dstBegin, srcEnd - srcBegin);
+			return;
+		}
+		while (srcBegin < srcEnd) {
+			int offset = srcBegin & (CHUNK_SIZE - 1);
+			int count = Math.min(CHUNK_SIZE - offset, srcEnd - srcBegin);
+			System.arraycopy(chunks.get(srcBegin >>> CHUNK_BITS), offset, dst,
+					dstBegin, count);
+			srcBegin += count;
+			dstBegin += count;
+		}
+	}
+
+	/** Writes the output to out without building an intermediate String. */
+	public void writeTo(Writer out) throws IOException {
+		if (spill == null) {
+			for (int start = 0; start < length; start += CHUNK_SIZE) {
+				out.write(chunks.get(start >>> CHUNK_BITS), 0,
+						Math.min(CHUNK_SIZE, length - start));
+			}
+			return;
+		}
+		char[] buffer = new char[BUFFER_SIZE];
+		for (int start = 0; start < length; start += BUFFER_SIZE) {
+			int count = Math.min(BUFFER_SIZE, length - start);
+			readSpill(start, buffer, 0, count);
+			out.write(buffer, 0, count);
+		}
+	}
+
+	@Override
+	public String toString() {
+		char[] text = new char[length];
+		getChars(0, length, text, 0);
+		return new String(text);
+	}
+
+	/** Discards the output and deletes its file, if any. */
+	public void clear() {
+		chunks.clear();
+		length = 0;
+		discarded = 0;
+		window = null;
+		windowStart = -1;
+		spillFailed = false;
+		closeSpill();
+	}
+
+	/** Discards the output and deletes its file, if any. */
+	@Override
+	public void close() {
+		clear();
+	}
+
+	/** Decodes all complete characters in bytes and consumes them. */
+	private boolean decode(CharsetDecoder decoder, ByteBuffer bytes,
+			CharBuffer chars, boolean endOfInput,
+			PatternClassifier.Session session) {
+		boolean decided = false;
+		while (true) {
+			CoderResult result = decoder.decode(bytes, chars, endOfInput);
+			chars.flip();
+			decided |= consume(chars, session);
+			if (!result.isOverflow()) {
+				return decided;
+			}
+		}
+	}
+
+	/** Stores and classifies the decoded characters, then clears chars. */
+	private synchronized boolean consume(CharBuffer chars,
+			PatternClassifier.Session session) {
+		if (detached) {
+			chars.clear();
+			return false;
+		}
+		char[] array = chars.array();
+		int count = chars.remaining();
+		boolean decided = false;
+		if (session != null && !session.isDecided()) {
+			decided = session.feed(array, chars.position(), count);
+		}
+		store(array, chars.position(), count);
+		chars.clear();
+		return decided;
+	}
+
+	private void store(char[] text, int offset, int count) {
+		long limit = spillFailed ? length : maxChars;
+		int kept = (int) Math.max(Math.min(count, limit - length), 0);
+		discarded += count - kept;
+		if (kept == 0) {
+			return;
+		}
+		if (spill == null && spillDir != null
+				&& (long) length + kept > memoryThreshold) {
+			startSpill();
+			if (spillFailed) {
+				discarded += kept;
+				return;
+			}
+		}
+		if (spill != null) {
+			try {
+				writeSpill(text, offset, kept);
+				length += kept;
+			} catch (IOException e) {
+				log.error("Could not write command output to " + spillFile
+						+ ": " + e.toString());
+				spillFailed = true;
+				discarded += kept;
+			}
+			return;
+		}
+		while (kept > 0) {
+			int chunkOffset = length & (CHUNK_SIZE - 1);
+			if (chunkOffset == 0) {
+				chunks.add(new char[CHUNK_SIZE]);
+			}
+			int n = Math.min(kept, CHUNK_SIZE - chunkOffset);
+			System.arraycopy(text, offset, chunks.get(chunks.size() - 1),
+					chunkOffset, n);
+			offset += n;
+			kept -= n;
+			length += n;
+		}
+	}
+
+	/** Moves the output kept in memory to a new file. */
+	private void startSpill() {
+		try {
+			spillFile = File.createTempFile("output-", ".tmp", spillDir);
+			spill = FileChannel.open(spillFile.toPath(),
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			spillBuffer = ByteBuffer.allocate(BUFFER_SIZE * 2);
+			for (int start = 0; start < length; start += CHUNK_SIZE) {
+				writeSpill(chunks.get(start >>> CHUNK_BITS), 0,
+						Math.min(CHUNK_SIZE, length - start));
+			}
+			chunks.clear();
+			log.debug("Command output exceeded " + memoryThreshold
+					+ " characters. Moved to " + spillFile);
+		} catch (IOException e) {
+			log.error("Could not move command output to a file in "
+					+ spillDir + ": " + e.toString());
+			closeSpill();
+			spillFailed = true;
+		}
+	}
+
+	private void writeSpill(char[] text, int offset, int count)
+			throws IOException {
+		int capacity = spillBuffer.capacity() / 2;
+		while (count > 0) {
+			int n = Math.min(count, capacity);
+			spillBuffer.clear();
+			spillBuffer.asCharBuffer().put(text, offset, n);
+			spillBuffer.limit(n * 2);
+			while (spillBuffer.hasRemaining()) {
+				spill.write(spillBuffer);
+			}
+			offset += n;
+			count -= n;
+		}
+	}
+
+	private void readSpill(int index, char[] dst, int dstBegin, int count) {
+		int capacity = spillBuffer.capacity() / 2;
+		try {
+			while (count > 0) {
+				int n = Math.min(count, capacity);
+				long position = (long) index * 2;
+				spillBuffer.clear();
+				spillBuffer.limit(n * 2);
+				while (spillBuffer.hasRemaining()) {
+					if (spill.read(spillBuffer,
+							position + spillBuffer.position()) < 0) {
+						throw new IOException("Unexpected end of " + spillFile);
+					}
+				}
+				spillBuffer.flip();
+				spillBuffer.asCharBuffer().get(dst, dstBegin, n);
+				index += n;
+				dstBegin += n;
+				count -= n;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void closeSpill() {
+		if (spill != null) {
+			try {
+				spill.close();
+			} catch (IOException e) {
+				log.warn("Could not close " + spillFile + ": " + e.toString());
+			}
+			spill = null;
+		}
+		if (spillFile != null) {
+			if (!spillFile.delete() && spillFile.exists()) {
+				log.warn("Could not delete " + spillFile);
+			}
+			spillFile = null;
+		}
+		spillBuffer = null;
+	}
+
+	private static ByteBuffer borrowBytes() {
+		ByteBuffer buffer = byteBuffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		byteBuffersPooled.decrementAndGet();
+		return buffer;
+	}
+
+	private static CharBuffer borrowChars() {
+		CharBuffer buffer = charBuffers.poll();
+		if (buffer == null) {
+			return CharBuffer.allocate(BUFFER_SIZE);
+		}
+		charBuffersPooled.decrementAndGet();
+		return buffer;
+	}
+
+	private static <T extends Buffer> void release(
+			ConcurrentLinkedQueue<T> pool, AtomicInteger pooled, T buffer) {
+		buffer.clear();
+		// Reserve a place first so concurrent releases cannot overfill
+		if (pooled.incrementAndGet() <= MAX_POOLED) {
+			pool.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class classifies a tool report against the Error, High, Moderate and
+ * Low result strings from ToolProperties.xml. All strings are compiled into
+ * one Aho-Corasick automaton, so a report is scanned once regardless of the
+ * number of patterns. The highest severity found wins, in the order ERROR,
+ * HIGH, MODERATE, LOW.
+ */
+public final class PatternClassifier {
+	/** Severities from highest to lowest precedence. */
+	private static final ToolStatus[] SEVERITIES = { ToolStatus.ERROR,
+			ToolStatus.HIGH, ToolStatus.MODERATE, ToolStatus.LOW };
+	/** Characters below this value use the dense transition table. */
+	private static final int DENSE_ALPHABET = 128;
+
+	/** A configured result string and the status it reports. */
+	public static class Rule {
+		private final ToolStatus status;
+		private final String pattern;
+
+		Rule(ToolStatus status, String pattern) {
+			this.status = status;
+			this.pattern = pattern;
+		}
+
+		public ToolStatus getStatus() {
+			return status;
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		@Override
+		public String toString() {
+			return status.name() + ": " + pattern;
+		}
+	}
+
+	/** The outcome of classifying a report. */
+	public static class Classification {
+		private final ToolStatus status;
+		private final List<Rule> matchedRules;
+
+		Classification(ToolStatus status, List<Rule> matchedRules) {
+			this.status = status;
+			this.matchedRules = Collections.unmodifiableList(matchedRules);
+		}
+
+		/** Returns the highest matched status, or null if nothing matched. */
+		public ToolStatus getStatus() {
+			return status;
+		}
+
+		/** Returns the matched rules in the order they were first found. */
+		public List<Rule> getMatchedRules() {
+			return matchedRules;
+		}
+	}
+
+	private final Rule[] rules;
+	/** Transitions for ASCII characters, indexed by state * 128 + char. */
+	private final int[] denseTransitions;
+	/** Trie edges for other characters, followed with failure links. */
+	private final List<Map<Character, Integer>> sparseEdges;
+	private final int[] failure;
+	/** Indexes of the rules ending at each state, including via failure. */
+	private final int[][] outputs;
+
+	public PatternClassifier(List<String> errorPatterns,
+			List<String> highPatterns, List<String> moderatePatterns,
+			List<String> lowPatterns) {
+		List<Rule> ruleList = new ArrayList<Rule>();
+		addRules(ruleList, ToolStatus.ERROR, errorPatterns);
+		addRules(ruleList, ToolStatus.HIGH, highPatterns);
+		addRules(ruleList, ToolStatus.MODERATE, moderatePatterns);
+		addRules(ruleList, ToolStatus.LOW, lowPatterns);
+		rules = ruleList.toArray(new Rule[ruleList.size()]);
+
+		// Build the trie
+		List<Map<Character, Integer>> edges = new ArrayList<Map<Character, Integer>>();
+		List<List<Integer>> stateRules = new ArrayList<List<Integer>>();
+		edges.add(new HashMap<Character, Integer>());
+		stateRules.add(new ArrayList<Integer>());
+		for (int i = 0; i < rules.length; i++) {
+			int state = 0;
+			String pattern = rules[i].getPattern();
+			for (int j = 0; j < pattern.length(); j++) {
+				Character c = Character.valueOf(pattern.charAt(j));
+				Integer next = edges.get(state).get(c);
+				if (next == null) {
+					next = Integer.valueOf(edges.size());
+					edges.get(state).put(c, next);
+					edges.add(new HashMap<Character, Integer>());
+					stateRules.add(new ArrayList<Integer>());
+				}
+				state = next.intValue();
+			}
+			stateRules.get(state).add(Integer.valueOf(i));
+		}
+		int stateCount = edges.size();
+
+		// Compute failure links breadth first and merge the outputs of
+		// each failure state
+		failure = new int[stateCount];
+		denseTransitions = new int[stateCount * DENSE_ALPHABET];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (Map.Entry<Character, Integer> edge : edges.get(0).entrySet()) {
+			queue.add(edge.getValue());
+		}
+		for (int c = 0; c < DENSE_ALPHABET; c++) {
+			Integer next = edges.get(0).get(Character.valueOf((char) c));
+			denseTransitions[c] = next == null ? 0 : next.intValue();
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.removeFirst().intValue();
+			stateRules.get(state).addAll(stateRules.get(failure[state]));
+			for (Map.Entry<Character, Integer> edge : edges.get(state)
+					.entrySet()) {
+				int next = edge.getValue().intValue();
+				failure[next] = step(edges, failure[state], edge.getKey()
+						.charValue());
+				queue.add(Integer.valueOf(next));
+			}
+			for (int c = 0; c < DENSE_ALPHABET; c++) {
+				Integer next = edges.get(state).get(Character.valueOf((char) c));
+				denseTransitions[state * DENSE_ALPHABET + c] = next != null ? next
+						.intValue() : denseTransitions[failure[state]
+						* DENSE_ALPHABET + c];
+			}
+		}
+		sparseEdges = edges;
+		outputs = new int[stateCount][];
+		for (int state = 0; state < stateCount; state++) {
+			List<Integer> list = stateRules.get(state);
+			outputs[state] = new int[list.size()];
+			for (int i = 0; i < list.size(); i++) {
+				outputs[state][i] = list.get(i).intValue();
+			}
+		}
+	}
+
+	/** Returns the number of configured rules. */
+	public int getRuleCount() {
+		return rules.length;
+	}
+
+	/**
+	 * Scans the report once and returns the matched rules. Scanning stops
+	 * at the first ERROR match.
+	 */
+	public Classification classify(CharSequence report) {
+		Session session = newSession();
+		session.feed(report);
+		return session.getClassification();
+	}
+
+	/** Starts an incremental scan of a report that arrives in pieces. */
+	public Session newSession() {
+		return new Session();
+	}
+
+	/**
+	 * An incremental scan. The automaton state is kept between calls to
+	 * feed(), so a pattern may span pieces. A session is used by one thread.
+	 */
+	public final class Session {
+		private final boolean[] matched = new boolean[rules.length];
+		private final List<Rule> matchedRules = new ArrayList<Rule>();
+		private int state = 0;
+		private long length = 0;
+		private boolean decided = false;
+
+		private Session() {
+		}
+
+		/**
+		 * Scans the next piece of the report and returns true once an ERROR
+		 * rule has matched. No lower severity can change the outcome then,
+		 * so later pieces are only counted.
+		 */
+		public boolean feed(CharSequence text) {
+			length += text.length();
+			for (int i = 0; i < text.length() && !decided; i++) {
+				state = next(state, text.charAt(i));
+				for (int ruleIndex : outputs[state]) {
+					if (!matched[ruleIndex]) {
+						matched[ruleIndex] = true;
+						matchedRules.add(rules[ruleIndex]);
+						if (rules[ruleIndex].getStatus() == ToolStatus.ERROR) {
+							decided = true;
+						}
+					}
+				}
+			}
+			return decided;
+		}
+
+		/** Scans characters from an array; see feed(CharSequence). */
+		public boolean feed(char[] text, int offset, int count) {
+			length += count;
+			for (int i = offset; i < offset + count && !decided; i++) {
+				state = next(state, text[i]);
+				for (int ruleIndex : outputs[state]) {
+					if (!matched[ruleIndex]) {
+						matched[ruleIndex] = true;
+						matchedRules.add(rules[ruleIndex]);
+						if (rules[ruleIndex].getStatus() == ToolStatus.ERROR) {
+							decided = true;
+						}
+					}
+				}
+			}
+			return decided;
+		}
+
+		/** Returns true once an ERROR rule has matched. */
+		public boolean isDecided() {
+			return decided;
+		}
+
+		/** Returns the number of characters fed so far. */
+		public long getLength() {
+			return length;
+		}
+
+		public Classification getClassification() {
+			return new Classification(getHighestStatus(matchedRules),
+					new ArrayList<Rule>(matchedRules));
+		}
+	}
+
+	private int next(int state, char c) {
+		if (c < DENSE_ALPHABET) {
+			return denseTransitions[state * DENSE_ALPHABET + c];
+		}
+		return step(sparseEdges, state, c);
+	}
+
+	/** Follows failure links until an edge for c is found. */
+	private int step(List<Map<Character, Integer>> edges, int state, char c) {
+		Character key = Character.valueOf(c);
+		while (true) {
+			Integer next = edges.get(state).get(key);
+			if (next != null) {
+				return next.intValue();
+			}
+			if (state == 0) {
+				return 0;
+			}
+			state = failure[state];
+		}
+	}
+
+	private static ToolStatus getHighestStatus(List<Rule> matchedRules) {
+		for (ToolStatus severity : SEVERITIES) {
+			for (Rule rule : matchedRules) {
+				if (rule.getStatus() == severity) {
+					return severity;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void addRules(List<Rule> ruleList, ToolStatus status,
+			List<String> patterns) {
+		if (patterns == null) {
+			return;
+		}
+		for (String pattern : patterns) {
+			// An empty string would match every report
+			if (pattern != null && !pattern.isEmpty()) {
+				ruleList.add(new Rule(status, pattern));
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return rules.length + " rules, " + outputs.length + " states";
+	}
+}
@@ -0,0 +1,124 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class writes gzip data like java.util.zip.GZIPOutputStream but takes
+ * its Deflater from a shared pool and returns it on close. Each Deflater holds
+ * about 256 KB of native memory, so reports compressed one after another
+ * reuse the same few Deflaters instead of allocating and finalizing one each.
+ * Closing the stream also closes the underlying stream.
+ */
+public class PooledGzipOutputStream extends DeflaterOutputStream {
+	/** Idle Deflaters kept for reuse. Extra ones are ended when returned. */
+	private static final int MAX_POOLED = 16;
+	private static final ConcurrentLinkedQueue<Deflater> pool = new ConcurrentLinkedQueue<Deflater>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, (byte) 0xff };
+	private final CRC32 crc = new CRC32();
+	private boolean closed = false;
+
+	public PooledGzipOutputStream(OutputStream out, int level)
+			throws IOException {
+		super(out, borrow(level), 8192, true);
+		out.write(HEADER);
+	}
+
+	@Override
+	public synchronized void write(byte[] buffer, int offset, int length)
+			throws IOException {
+		super.write(buffer, offset, length);
+		crc.update(buffer, offset, length);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (def.finished()) {
+			return;
+		}
+		super.finish();
+		long size = def.getBytesRead();
+		byte[] trailer = new byte[8];
+		writeInt((int) crc.getValue(), trailer, 0);
+		writeInt((int) size, trailer, 4);
+		out.write(trailer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			finish();
+			out.close();
+		} finally {
+			release(def);
+		}
+	}
+
+	/** Ends the pooled Deflaters. Called when the service stops. */
+	public static void clearPool() {
+		Deflater deflater;
+		while ((deflater = pool.poll()) != null) {
+			pooled.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	private static Deflater borrow(int level) {
+		Deflater deflater = pool.poll();
+		if (deflater == null) {
+			// Raw deflate data; this class writes the gzip header and trailer
+			return new Deflater(level, true);
+		}
+		pooled.decrementAndGet();
+		deflater.setLevel(level);
+		return deflater;
+	}
+
+	private static void release(Deflater deflater) {
+		deflater.reset();
+		if (pooled.incrementAndGet() <= MAX_POOLED) {
+			pool.offer(deflater);
+		} else {
+			pooled.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	private static void writeInt(int value, byte[] buffer, int offset) {
+		// gzip stores integers little-endian
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+		buffer[offset + 2] = (byte) (value >> 16);
+		buffer[offset + 3] = (byte) (value >> 24);
+	}
+}
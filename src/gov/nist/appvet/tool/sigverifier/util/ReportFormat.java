@@ -20,7 +20,8 @@
 package gov.nist.appvet.tool.sigverifier.util;
 
 public enum ReportFormat {
-    HTML, TXT, PDF, JSON;
+    HTML("text/html"), TXT("text/plain"), PDF("application/pdf"), JSON(
+	    "application/json");
 
     private static final ReportFormat[] copyOfValues = values();
 
@@ -32,4 +33,15 @@ public enum ReportFormat {
 	}
 	return null;
     }
+
+    private final String contentType;
+
+    private ReportFormat(String contentType) {
+	this.contentType = contentType;
+    }
+
+    /** Returns the Content-Type of reports in this format. */
+    public String getContentType() {
+	return contentType;
+    }
 }
\ No newline at end of file
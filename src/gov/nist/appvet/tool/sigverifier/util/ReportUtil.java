@@ -19,34 +19,47 @@
  */
 package gov.nist.appvet.tool.sigverifier.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.security.cert.X509Certificate;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 
+import gov.nist.appvet.tool.sigverifier.Metrics;
 import gov.nist.appvet.tool.sigverifier.Properties;
+import gov.nist.appvet.tool.sigverifier.VerificationResult;
 
 public class ReportUtil {
 
     private static final Logger log = Properties.log;
+    private static final int LOG_CHARS = 4096;
 
 
 
@@ -75,52 +88,180 @@ public class ReportUtil {
     /** This method should be used for sending files back to AppVet. */
     public static boolean sendInNewHttpRequest(String appId,
 	    String reportFilePath, ToolStatus reportStatus) {
-	HttpParams httpParameters = new BasicHttpParams();
-	HttpConnectionParams.setConnectionTimeout(httpParameters, 30000);
-	HttpConnectionParams.setSoTimeout(httpParameters, 1200000);
-	HttpClient httpClient = new DefaultHttpClient(httpParameters);
-	httpClient = SSLWrapper.wrapClient(httpClient);
+	/*
+	 * To send reports back to AppVet, the following parameters must be
+	 * sent: - command: SUBMIT_REPORT - username: AppVet username -
+	 * password: AppVet password - appid: The app ID - toolid: The ID of
+	 * this tool - toolrisk: The risk assessment (LOW, MODERATE, HIGH,
+	 * ERROR) - report: The report file.
+	 */
+	MultipartEntity entity = new MultipartEntity();
+	try {
+	    entity.addPart("command", new StringBody("SUBMIT_REPORT",
+		    Charset.forName("UTF-8")));
+	    addCredentials(entity);
+	    addReport(entity, appId, reportFilePath, reportStatus);
+	} catch (UnsupportedEncodingException e) {
+	    log.error(e.toString());
+	    return false;
+	}
+	// Send the report to AppVet
+	log.debug("Sending report file to AppVet");
+	int statusCode = post(entity, appId, reportStatus);
+	if (statusCode < 200 || statusCode >= 300) {
+	    log.error("AppVet did not accept report for app " + appId
+		    + ": HTTP " + statusCode);
+	    return false;
+	}
+	return true;
+    }
 
+    /**
+     * Sends several reports in one request. The command is SUBMIT_REPORTS
+     * and the username, password and toolid parts are sent once, followed by
+     * appid, toolrisk and file parts for each report in order.
+     * 
+     * @return the HTTP status code, or -1 if AppVet could not be reached.
+     */
+    public static int sendBatchInNewHttpRequest(List<String> appIds,
+	    List<String> reportFilePaths, List<ToolStatus> reportStatuses) {
+	MultipartEntity entity = new MultipartEntity();
 	try {
-	    /*
-	     * To send reports back to AppVet, the following parameters must be
-	     * sent: - command: SUBMIT_REPORT - username: AppVet username -
-	     * password: AppVet password - appid: The app ID - toolid: The ID of
-	     * this tool - toolrisk: The risk assessment (LOW, MODERATE, HIGH,
-	     * ERROR) - report: The report file.
-	     */
-	    MultipartEntity entity = new MultipartEntity();
-	    entity.addPart("command",
-		    new StringBody("SUBMIT_REPORT", Charset.forName("UTF-8")));
-	    entity.addPart("username", new StringBody(
-		    Properties.appvetUsername, Charset.forName("UTF-8")));
-	    entity.addPart("password", new StringBody(
-		    Properties.appvetPassword, Charset.forName("UTF-8")));
-	    entity.addPart("appid",
-		    new StringBody(appId, Charset.forName("UTF-8")));
-	    entity.addPart("toolid",
-		    new StringBody(Properties.toolId, Charset.forName("UTF-8")));
-	    entity.addPart("toolrisk", new StringBody(reportStatus.name(),
+	    entity.addPart("command", new StringBody("SUBMIT_REPORTS",
 		    Charset.forName("UTF-8")));
-	    File report = new File(reportFilePath);
-	    FileBody fileBody = new FileBody(report);
-	    entity.addPart("file", fileBody);
+	    addCredentials(entity);
+	    for (int i = 0; i < appIds.size(); i++) {
+		addReport(entity, appIds.get(i), reportFilePaths.get(i),
+			reportStatuses.get(i));
+	    }
+	} catch (UnsupportedEncodingException e) {
+	    log.error(e.toString());
+	    return -1;
+	}
+	log.debug("Sending " + appIds.size() + " report files to AppVet");
+	return post(entity, join(appIds), null);
+    }
+
+    private static String join(List<String> values) {
+	StringBuilder sb = new StringBuilder();
+	for (String value : values) {
+	    if (sb.length() > 0) {
+		sb.append(',');
+	    }
+	    sb.append(value);
+	}
+	return sb.toString();
+    }
+
+    private static void addCredentials(MultipartEntity entity)
+	    throws UnsupportedEncodingException {
+	entity.addPart("username", new StringBody(Properties.appvetUsername,
+		Charset.forName("UTF-8")));
+	entity.addPart("password", new StringBody(Properties.appvetPassword,
+		Charset.forName("UTF-8")));
+	entity.addPart("toolid",
+		new StringBody(Properties.toolId, Charset.forName("UTF-8")));
+    }
+
+    private static void addReport(MultipartEntity entity, String appId,
+	    String reportFilePath, ToolStatus reportStatus)
+	    throws UnsupportedEncodingException {
+	entity.addPart("appid",
+		new StringBody(appId, Charset.forName("UTF-8")));
+	entity.addPart("toolrisk", new StringBody(reportStatus.name(),
+		Charset.forName("UTF-8")));
+	entity.addPart("file", new FileBody(new File(reportFilePath)));
+    }
+
+    /**
+     * Posts the entity to AppVet with the pooled client. The app IDs and
+     * status are only used to tag the SEND_REPORT phase.
+     * 
+     * @return the HTTP status code, or -1 if AppVet could not be reached.
+     */
+    private static int post(MultipartEntity entity, String appIds,
+	    ToolStatus reportStatus) {
+	Metrics.Timer sendTimer = Metrics.start(Metrics.Phase.SEND_REPORT);
+	int statusCode = -1;
+	try {
+	    CloseableHttpClient httpClient = HttpClientPool.getClient();
 	    HttpPost httpPost = new HttpPost(Properties.appvetUrl);
-	    httpPost.setEntity(entity);
-	    // Send the report to AppVet
-	    log.debug("Sending report file to AppVet");
-	    final HttpResponse response = httpClient.execute(httpPost);
-	    log.debug("Received from AppVet: " + response.getStatusLine());
-	    HttpEntity httpEntity = response.getEntity();
-	    InputStream is = httpEntity.getContent();
-	    String result = IOUtils.toString(is, "UTF-8"); 
-	    log.info(result);
-	    // Clean up
-	    httpPost = null;
-	    return true;
+	    if (Properties.appvetCompression) {
+		httpPost.setEntity(new GzipEntity(entity));
+	    } else {
+		httpPost.setEntity(entity);
+	    }
+	    final CloseableHttpResponse response = httpClient.execute(httpPost);
+	    try {
+		log.debug("Received from AppVet: " + response.getStatusLine());
+		// Read the whole entity so the connection returns to the pool
+		HttpEntity httpEntity = response.getEntity();
+		String result = httpEntity == null ? "" : EntityUtils.toString(
+			httpEntity, "UTF-8");
+		log.info(result);
+		statusCode = response.getStatusLine().getStatusCode();
+		return statusCode;
+	    } finally {
+		response.close();
+	    }
 	} catch (Exception e) {
+	    log.error(e.toString());
+	    return -1;
+	} finally {
+	    sendTimer.end(appIds, -1, -1, reportStatus, statusCode >= 200
+		    && statusCode < 300);
+	}
+    }
+
+    /**
+     * Renders a report straight to the response. The report is written as it
+     * is rendered instead of being built as a String first.
+     */
+    public static boolean sendInHttpResponse(HttpServletResponse response,
+	    ReportRenderer report, ToolStatus reportStatus) {
+	return sendInHttpResponse(response, report, reportStatus, false);
+    }
+
+    /**
+     * Renders a report straight to the response, gzip-compressed if compress
+     * is true. Use HttpUtil.acceptsGzip() to check that AppVet accepts gzip.
+     */
+    public static boolean sendInHttpResponse(HttpServletResponse response,
+	    ReportRenderer report, ToolStatus reportStatus, boolean compress) {
+	Writer out = null;
+	try {
+	    response.setStatus(HttpServletResponse.SC_OK); // HTTP 200
+	    ReportFormat format = ReportFormat.getEnum(Properties.reportFormat);
+	    response.setContentType(format != null ? format.getContentType()
+		    : "text/html");
+	    response.setHeader("toolrisk", reportStatus.name());
+	    response.addHeader("Vary", "Accept-Encoding");
+	    if (compress) {
+		response.setHeader("Content-Encoding", "gzip");
+		out = new OutputStreamWriter(new PooledGzipOutputStream(
+			response.getOutputStream(),
+			Properties.appvetCompressionLevel),
+			response.getCharacterEncoding());
+	    } else {
+		out = response.getWriter();
+	    }
+	    report.render(out);
+	    out.close();
+	    out = null;
+	    log.debug("Returned " + (compress ? "gzip " : "") + "report");
+	    return true;
+	} catch (IOException e) {
 	    log.error(e.toString());
 	    return false;
+	} finally {
+	    if (out != null) {
+		try {
+		    // Returns the Deflater to the pool
+		    out.close();
+		} catch (IOException e) {
+		    // Already failed
+		}
+	    }
 	}
     }
 
@@ -128,58 +269,371 @@ public class ReportUtil {
 	    String fileName, ToolStatus reportStatus, String report,
 	    String lowDescription, String moderateDescription,
 	    String highDescription, String errorDescription) {
-	StringBuffer htmlBuffer = new StringBuffer();
-	htmlBuffer.append("<HTML>\n");
-	htmlBuffer.append("<head>\n");
-	htmlBuffer.append("<style type=\"text/css\">\n");
-	htmlBuffer.append("h3 {font-family:arial;}\n");
-	htmlBuffer.append("h4 {font-family:arial;}\n");
-	htmlBuffer.append("p {font-family:arial;}\n");
-	htmlBuffer.append("</style>\n");
-	htmlBuffer.append("<title>" + Properties.toolName + "</title>\n");
-	htmlBuffer.append("</head>\n");
-	htmlBuffer.append("<body>\n");
-	
-	
-	// Carwash AppVet banner
-	htmlBuffer.append("<table style=\"background:#015289;width:100%\">\n");
-	htmlBuffer.append("<tr>\n");
-	htmlBuffer.append("<td>\n");
-	String appvetLogo = "../appvet_images/appvet_logo_main.png";
-	htmlBuffer.append("<img src=\"" + appvetLogo + "\" alt=\"Carwash AppVet\" height=\"25\" width=\"200\">\n");
-	htmlBuffer.append("</tr>\n");
-	htmlBuffer.append("</td>\n");
-	htmlBuffer.append("</table>\n");
-	htmlBuffer.append("<br>\n");
-	
-	// Content
-	htmlBuffer.append("<h3>" + Properties.toolName + "</h3>\n");
-	htmlBuffer.append("<pre>\n");
-	htmlBuffer.append("File: \t\t" + fileName + "\n");
-	final Date date = new Date();
-	final SimpleDateFormat format = new SimpleDateFormat(
-		"yyyy-MM-dd' 'HH:mm:ss.SSSZ");
-	final String currentDate = format.format(date);
-	htmlBuffer.append("Date: \t\t" + currentDate + "\n\n");
-	if (reportStatus == ToolStatus.LOW) {
-	    htmlBuffer.append("Risk: \t\t<font color=\"green\">"
-		    + reportStatus.name() + "</font>\n");
-	    htmlBuffer.append(lowDescription);
-	} else if (reportStatus == ToolStatus.MODERATE) {
-	    htmlBuffer.append("Risk: \t\t<font color=\"orange\">"
-		    + reportStatus.name() + "</font>\n");
-	    htmlBuffer.append(moderateDescription);
-	} else if (reportStatus == ToolStatus.ERROR) {
-	    htmlBuffer.append("Status: \t<font color=\"red\">"
-		    + reportStatus.name() + "</font>\n");
-	    htmlBuffer.append(errorDescription);
-	}
-	htmlBuffer.append("<hr>");
-	htmlBuffer.append("<h4>Details</h4>");
-	htmlBuffer.append(report);
-	htmlBuffer.append("</body>\n");
-	htmlBuffer.append("</HTML>\n");
-	return htmlBuffer.toString();
+	return toString(getHtmlRenderer(fileName, reportStatus, report,
+		lowDescription, moderateDescription, highDescription,
+		errorDescription));
+    }
+
+    /** Returns an HTML report for an in-process verification result. */
+    public static String getHtmlReport(HttpServletResponse response,
+	    String fileName, ToolStatus reportStatus,
+	    VerificationResult result, String lowDescription,
+	    String moderateDescription, String highDescription,
+	    String errorDescription) {
+	return toString(getHtmlRenderer(fileName, reportStatus, result,
+		lowDescription, moderateDescription, highDescription,
+		errorDescription));
+    }
+
+    /**
+     * Returns a renderer for the HTML report of command output. The output is
+     * copied to the target when the report is rendered.
+     */
+    public static ReportRenderer getHtmlRenderer(String fileName,
+	    ToolStatus reportStatus, CharSequence report,
+	    String lowDescription, String moderateDescription,
+	    String highDescription, String errorDescription) {
+	return new HtmlRenderer(fileName, reportStatus, null, report,
+		lowDescription, moderateDescription, highDescription,
+		errorDescription);
+    }
+
+    /** Returns a renderer for the HTML report of an in-process result. */
+    public static ReportRenderer getHtmlRenderer(String fileName,
+	    ToolStatus reportStatus, VerificationResult result,
+	    String lowDescription, String moderateDescription,
+	    String highDescription, String errorDescription) {
+	String schemes = "Schemes: \tv1 " + result.getV1Status().name()
+		+ ", v2 " + result.getV2Status().name() + ", v3 "
+		+ result.getV3Status().name() + "\n";
+	return new HtmlRenderer(fileName, reportStatus, schemes,
+		result.getOutput(), lowDescription, moderateDescription,
+		highDescription, errorDescription);
+    }
+
+    /** Returns a renderer that writes an already built report. */
+    public static ReportRenderer getTextRenderer(final String report) {
+	return new ReportRenderer() {
+	    @Override
+	    public void render(Writer out) throws IOException {
+		out.write(report);
+	    }
+	};
+    }
+
+    /**
+     * Returns a renderer for the JSON report of command output. The command
+     * output is included as is because its signers are not parsed.
+     */
+    public static ReportRenderer getJsonRenderer(String fileName,
+	    ToolStatus reportStatus,
+	    PatternClassifier.Classification classification,
+	    CharSequence report, long elapsedMillis) {
+	return new JsonRenderer(fileName, reportStatus, classification, null,
+		report, elapsedMillis);
+    }
+
+    /**
+     * Returns a renderer for the JSON report of an in-process result, with its
+     * schemes, signers, entry counts and timings.
+     */
+    public static ReportRenderer getJsonRenderer(String fileName,
+	    ToolStatus reportStatus,
+	    PatternClassifier.Classification classification,
+	    VerificationResult result, long elapsedMillis) {
+	return new JsonRenderer(fileName, reportStatus, classification,
+		result, null, elapsedMillis);
+    }
+
+    private static String toString(ReportRenderer renderer) {
+	StringWriter writer = new StringWriter();
+	try {
+	    renderer.render(writer);
+	} catch (IOException e) {
+	    // A StringWriter does not throw
+	    log.error(e.toString());
+	}
+	return writer.toString();
+    }
+
+    /**
+     * Returns at most the first 4096 characters of text, followed by the
+     * number of characters left out. Used to log output that may be huge.
+     */
+    public static String abbreviate(CharSequence text) {
+	if (text == null || text.length() <= LOG_CHARS) {
+	    return String.valueOf(text);
+	}
+	return text.subSequence(0, LOG_CHARS) + "... ("
+		+ (text.length() - LOG_CHARS) + " more characters)";
+    }
+
+    /**
+     * Copies text to the writer in chunks. Writer.append() would first copy a
+     * StringBuffer or StringBuilder into a String of the same size.
+     */
+    private static void write(Writer out, CharSequence text)
+	    throws IOException {
+	if (text instanceof String) {
+	    out.write((String) text);
+	    return;
+	}
+	if (text instanceof OutputCapture) {
+	    ((OutputCapture) text).writeTo(out);
+	    return;
+	}
+	char[] chunk = new char[Math.min(8192, Math.max(text.length(), 1))];
+	for (int start = 0; start < text.length(); start += chunk.length) {
+	    int end = Math.min(start + chunk.length, text.length());
+	    if (text instanceof StringBuffer) {
+		((StringBuffer) text).getChars(start, end, chunk, 0);
+	    } else if (text instanceof StringBuilder) {
+		((StringBuilder) text).getChars(start, end, chunk, 0);
+	    } else {
+		for (int i = start; i < end; i++) {
+		    chunk[i - start] = text.charAt(i);
+		}
+	    }
+	    out.write(chunk, 0, end - start);
+	}
+    }
+
+    /**
+     * Compresses a request body with gzip as it is sent. The body is sent
+     * chunked because its compressed length is not known in advance.
+     * getContent() compresses the whole body into memory, so it is only
+     * meant for callers that need a stream, such as retries or logging.
+     */
+    private static class GzipEntity extends HttpEntityWrapper {
+
+	GzipEntity(HttpEntity entity) {
+	    super(entity);
+	}
+
+	@Override
+	public Header getContentEncoding() {
+	    return new BasicHeader(HTTP.CONTENT_ENCODING, "gzip");
+	}
+
+	@Override
+	public long getContentLength() {
+	    return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+	    return true;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+	    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	    writeTo(buffer);
+	    return new ByteArrayInputStream(buffer.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+	    PooledGzipOutputStream gzip = new PooledGzipOutputStream(out,
+		    Properties.appvetCompressionLevel);
+	    try {
+		wrappedEntity.writeTo(gzip);
+	    } finally {
+		// Ends the chunked body without closing the connection
+		gzip.close();
+	    }
+	}
+    }
+
+    /** Renders the JSON report sent to AppVet. */
+    private static class JsonRenderer implements ReportRenderer {
+	private final String fileName;
+	private final ToolStatus reportStatus;
+	private final PatternClassifier.Classification classification;
+	private final VerificationResult result;
+	private final CharSequence report;
+	private final long elapsedMillis;
+
+	JsonRenderer(String fileName, ToolStatus reportStatus,
+		PatternClassifier.Classification classification,
+		VerificationResult result, CharSequence report,
+		long elapsedMillis) {
+	    this.fileName = fileName;
+	    this.reportStatus = reportStatus;
+	    this.classification = classification;
+	    this.result = result;
+	    this.report = report;
+	    this.elapsedMillis = elapsedMillis;
+	}
+
+	@Override
+	public void render(Writer out) throws IOException {
+	    final SimpleDateFormat format = new SimpleDateFormat(
+		    "yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+	    JsonWriter json = new JsonWriter(out);
+	    json.beginObject();
+	    json.member("tool", Properties.toolId);
+	    json.member("file", fileName);
+	    json.member("date", format.format(new Date()));
+	    json.member("status", reportStatus.name());
+	    json.name("matchedRules").beginArray();
+	    if (classification != null) {
+		for (PatternClassifier.Rule rule : classification
+			.getMatchedRules()) {
+		    json.beginObject();
+		    json.member("status", rule.getStatus().name());
+		    json.member("pattern", rule.getPattern());
+		    json.endObject();
+		}
+	    }
+	    json.endArray();
+	    if (result != null) {
+		json.member("verifier", VerifierMode.INTERNAL.name());
+		writeResult(json, format);
+	    } else {
+		json.member("verifier", VerifierMode.COMMAND.name());
+		json.name("timings").beginObject();
+		json.member("elapsed", elapsedMillis);
+		json.endObject();
+		json.member("output", report);
+	    }
+	    json.endObject();
+	    json.flush();
+	}
+
+	private void writeResult(JsonWriter json, SimpleDateFormat format)
+		throws IOException {
+	    json.member("completed", result.isCompleted());
+	    json.name("schemes").beginObject();
+	    json.member("v1", result.getV1Status().name());
+	    json.member("v2", result.getV2Status().name());
+	    json.member("v3", result.getV3Status().name());
+	    json.endObject();
+	    json.name("entries").beginObject();
+	    json.member("total", result.getEntryCount());
+	    json.member("signed", result.getSignedEntryCount());
+	    json.member("unsigned", result.getUnsignedEntryCount());
+	    json.endObject();
+	    json.name("signers").beginArray();
+	    for (VerificationResult.Signer signer : result.getSigners()) {
+		X509Certificate cert = signer.getCertificate();
+		json.beginObject();
+		json.member("scheme", signer.getScheme());
+		json.member("subject", signer.getSubject());
+		json.member("issuer", signer.getIssuer());
+		json.member("serialNumber", cert.getSerialNumber()
+			.toString(16));
+		json.member("notBefore", format.format(cert.getNotBefore()));
+		json.member("notAfter", format.format(cert.getNotAfter()));
+		json.member("expired", signer.isExpired());
+		json.member("signatureAlgorithm", cert.getSigAlgName());
+		json.member("sha256Fingerprint",
+			signer.getSha256Fingerprint());
+		json.endObject();
+	    }
+	    json.endArray();
+	    json.name("errors").beginArray();
+	    for (String error : result.getErrors()) {
+		json.value(error);
+	    }
+	    json.endArray();
+	    json.name("warnings").beginArray();
+	    for (String warning : result.getWarnings()) {
+		json.value(warning);
+	    }
+	    json.endArray();
+	    json.name("timings").beginObject();
+	    for (Map.Entry<String, Long> timing : result.getTimings()
+		    .entrySet()) {
+		json.member(timing.getKey(), timing.getValue().longValue());
+	    }
+	    // Time this request spent verifying, including cache lookups
+	    json.member("elapsed", elapsedMillis);
+	    json.endObject();
+	}
+    }
+
+    /** Renders the HTML report sent to AppVet. */
+    private static class HtmlRenderer implements ReportRenderer {
+	private final String fileName;
+	private final ToolStatus reportStatus;
+	private final String summary;
+	private final CharSequence report;
+	private final String lowDescription;
+	private final String moderateDescription;
+	private final String highDescription;
+	private final String errorDescription;
+
+	HtmlRenderer(String fileName, ToolStatus reportStatus, String summary,
+		CharSequence report, String lowDescription,
+		String moderateDescription, String highDescription,
+		String errorDescription) {
+	    this.fileName = fileName;
+	    this.reportStatus = reportStatus;
+	    this.summary = summary;
+	    this.report = report;
+	    this.lowDescription = lowDescription;
+	    this.moderateDescription = moderateDescription;
+	    this.highDescription = highDescription;
+	    this.errorDescription = errorDescription;
+	}
+
+	@Override
+	public void render(Writer out) throws IOException {
+	    out.write("<HTML>\n");
+	    out.write("<head>\n");
+	    out.write("<style type=\"text/css\">\n");
+	    out.write("h3 {font-family:arial;}\n");
+	    out.write("h4 {font-family:arial;}\n");
+	    out.write("p {font-family:arial;}\n");
+	    out.write("</style>\n");
+	    out.write("<title>" + Properties.toolName + "</title>\n");
+	    out.write("</head>\n");
+	    out.write("<body>\n");
+
+	    // Carwash AppVet banner
+	    out.write("<table style=\"background:#015289;width:100%\">\n");
+	    out.write("<tr>\n");
+	    out.write("<td>\n");
+	    String appvetLogo = "../appvet_images/appvet_logo_main.png";
+	    out.write("<img src=\"" + appvetLogo + "\" alt=\"Carwash AppVet\" height=\"25\" width=\"200\">\n");
+	    out.write("</tr>\n");
+	    out.write("</td>\n");
+	    out.write("</table>\n");
+	    out.write("<br>\n");
+
+	    // Content
+	    out.write("<h3>" + Properties.toolName + "</h3>\n");
+	    out.write("<pre>\n");
+	    out.write("File: \t\t" + fileName + "\n");
+	    final Date date = new Date();
+	    final SimpleDateFormat format = new SimpleDateFormat(
+		    "yyyy-MM-dd' 'HH:mm:ss.SSSZ");
+	    final String currentDate = format.format(date);
+	    out.write("Date: \t\t" + currentDate + "\n");
+	    if (summary != null) {
+		out.write(summary);
+	    }
+	    out.write("\n");
+	    if (reportStatus == ToolStatus.LOW) {
+		out.write("Risk: \t\t<font color=\"green\">"
+			+ reportStatus.name() + "</font>\n");
+		out.write(String.valueOf(lowDescription));
+	    } else if (reportStatus == ToolStatus.MODERATE) {
+		out.write("Risk: \t\t<font color=\"orange\">"
+			+ reportStatus.name() + "</font>\n");
+		out.write(String.valueOf(moderateDescription));
+	    } else if (reportStatus == ToolStatus.ERROR) {
+		out.write("Status: \t<font color=\"red\">"
+			+ reportStatus.name() + "</font>\n");
+		out.write(String.valueOf(errorDescription));
+	    }
+	    out.write("<hr>");
+	    out.write("<h4>Details</h4>");
+	    write(out, report == null ? "null" : report);
+	    out.write("</body>\n");
+	    out.write("</HTML>\n");
+	}
     }
 
 }
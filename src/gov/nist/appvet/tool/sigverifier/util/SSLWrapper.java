@@ -34,15 +34,16 @@ import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
 
 public class SSLWrapper {
-    @SuppressWarnings("deprecation")
-    public static HttpClient wrapClient(HttpClient base) {
-	SSLContext ctx = null;
-	X509TrustManager tm = null;
-	SSLSocketFactory ssf = null;
-	SchemeRegistry sr = null;
-	try {
-	    ctx = SSLContext.getInstance("TLSv1.2");
-	    tm = new X509TrustManager() {
+    private static SSLContext sslContext = null;
+
+    /**
+     * Returns the TLS context shared by all AppVet connections, so TLS
+     * sessions can be resumed instead of negotiated for every report.
+     */
+    public static synchronized SSLContext getSSLContext() throws Exception {
+	if (sslContext == null) {
+	    SSLContext ctx = SSLContext.getInstance("TLSv1.2");
+	    X509TrustManager tm = new X509TrustManager() {
 
 		@Override
 		public void checkClientTrusted(X509Certificate[] xcs,
@@ -61,7 +62,17 @@ public class SSLWrapper {
 
 	    };
 	    ctx.init(null, new TrustManager[] { tm }, null);
-	    ssf = new SSLSocketFactory(ctx);
+	    sslContext = ctx;
+	}
+	return sslContext;
+    }
+
+    @SuppressWarnings("deprecation")
+    public static HttpClient wrapClient(HttpClient base) {
+	SSLSocketFactory ssf = null;
+	SchemeRegistry sr = null;
+	try {
+	    ssf = new SSLSocketFactory(getSSLContext());
 	    ssf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
 	    final ClientConnectionManager ccm = base.getConnectionManager();
 	    sr = ccm.getSchemeRegistry();
@@ -72,8 +83,6 @@ public class SSLWrapper {
 	} finally {
 	    sr = null;
 	    ssf = null;
-	    tm = null;
-	    ctx = null;
 	}
     }
 
@@ -0,0 +1,110 @@
+/* This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 United States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ * 
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS".  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof including, but
+ * not limited to, the correctness, accuracy, reliability or usefulness of
+ * the software.
+ * 
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ */
+package gov.nist.appvet.tool.sigverifier.util;
+
+import gov.nist.appvet.tool.sigverifier.Properties;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class creates the threads that spend most of their time blocked:
+ * verification workers waiting on commands, the threads draining command
+ * output and report deliveries waiting on AppVet. If /Tool/VirtualThreads is
+ * true and the JVM supports virtual threads (Java 21 or later), they are
+ * virtual threads; otherwise they are daemon platform threads. Virtual
+ * threads are created by reflection because the service is built for Java 8.
+ */
+public class ServiceThreads {
+	private static final Logger log = Properties.log;
+	private static final Method ofVirtual = getOfVirtual();
+	private static boolean warned = false;
+
+	/** Returns true if this JVM can create virtual threads. */
+	public static boolean isVirtualSupported() {
+		return ofVirtual != null;
+	}
+
+	/** Returns true if new threads will be virtual threads. */
+	public static boolean isVirtual() {
+		return Properties.virtualThreads && ofVirtual != null;
+	}
+
+	/**
+	 * Returns a factory for threads named namePrefix followed by 1, 2, 3 and
+	 * so on.
+	 */
+	public static ThreadFactory newFactory(final String namePrefix) {
+		if (Properties.virtualThreads) {
+			ThreadFactory factory = newVirtualFactory(namePrefix);
+			if (factory != null) {
+				return factory;
+			}
+		}
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, namePrefix
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static ThreadFactory newVirtualFactory(String namePrefix) {
+		if (ofVirtual == null) {
+			synchronized (ServiceThreads.class) {
+				if (!warned) {
+					warned = true;
+					log.warn("Virtual threads need Java 21 or later. Using "
+							+ "platform threads.");
+				}
+			}
+			return null;
+		}
+		try {
+			// Thread.ofVirtual().name(namePrefix, 1).factory()
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = ofVirtual.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, namePrefix, Long.valueOf(1));
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(
+					builder);
+		} catch (Exception e) {
+			log.error("Could not create virtual threads: " + e.toString());
+			return null;
+		}
+	}
+
+	private static Method getOfVirtual() {
+		try {
+			return Thread.class.getMethod("ofVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private ServiceThreads() {
+	}
+}